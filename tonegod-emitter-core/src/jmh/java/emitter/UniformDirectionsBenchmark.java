@@ -0,0 +1,90 @@
+package emitter;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the UniformDirections samplers with the quaternion based sampling they
+ * replaced.  The quaternion methods reproduce the old code: EmitterShape built a random
+ * direction from three random Euler angles and a random tangent from a lookAt and an
+ * angle-axis rotation, and the OGRE AngleInfluencer deviated directions by a new Euler
+ * quaternion.
+ * <p>
+ * Run with <code>mvn -P jmh test -pl tonegod-emitter-core</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UniformDirectionsBenchmark {
+	private static final float CONE_ANGLE = 30*FastMath.DEG_TO_RAD;
+	private static final float CONE_COS = FastMath.cos(CONE_ANGLE);
+
+	private final Vector3f normal = new Vector3f(0.3f, 0.5f, -0.8f).normalizeLocal();
+	private final Vector3f store = new Vector3f();
+	private final Vector3f axisStore = new Vector3f();
+	private final Quaternion q = new Quaternion(), q2 = new Quaternion();
+
+	@Benchmark
+	public Vector3f sphereQuaternion() {
+		q.fromAngles(
+			FastMath.nextRandomFloat()*FastMath.TWO_PI,
+			FastMath.nextRandomFloat()*FastMath.TWO_PI,
+			FastMath.nextRandomFloat()*FastMath.TWO_PI
+		).normalizeLocal();
+		return q.mult(Vector3f.UNIT_Y, store);
+	}
+
+	@Benchmark
+	public Vector3f sphere() {
+		return UniformDirections.sphere(store);
+	}
+
+	@Benchmark
+	public Vector3f sphereTable() {
+		return UniformDirections.table(store);
+	}
+
+	@Benchmark
+	public Vector3f tangentQuaternion() {
+		store.set(Vector3f.UNIT_Y);
+		q2.lookAt(normal, Vector3f.UNIT_Y);
+		q2.multLocal(store);
+		float angle = FastMath.nextRandomFloat()*360*FastMath.DEG_TO_RAD;
+		q.fromAngleNormalAxis(angle, axisStore.set(normal).normalizeLocal());
+		return q.multLocal(store);
+	}
+
+	@Benchmark
+	public Vector3f tangent() {
+		return UniformDirections.tangent(normal, store);
+	}
+
+	@Benchmark
+	public Vector3f coneQuaternion() {
+		Quaternion deviate = new Quaternion(new float[] {
+			FastMath.rand.nextFloat()*CONE_ANGLE*2 - CONE_ANGLE,
+			FastMath.rand.nextFloat()*CONE_ANGLE*2 - CONE_ANGLE,
+			FastMath.rand.nextFloat()*CONE_ANGLE*2 - CONE_ANGLE
+		});
+		return store.set(deviate.mult(normal));
+	}
+
+	@Benchmark
+	public Vector3f cone() {
+		return UniformDirections.cone(normal, CONE_COS, store);
+	}
+}
@@ -0,0 +1,236 @@
+package emitter;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import java.util.Random;
+
+/**
+ * Draws the uniform values emitter shapes map to emission positions and directions.
+ * Each draw is a point in the unit square or cube.  Besides white noise the sampler can
+ * spread consecutive draws evenly, so a handful of particles already covers the shape
+ * instead of clumping:
+ * <ul>
+ * <li>Stratified visits the cells of a grid in a shuffled order, jittered within each cell</li>
+ * <li>Halton and Sobol follow low discrepancy sequences, randomly shifted per sampler</li>
+ * <li>BlueNoise walks a precomputed table whose every prefix is evenly spaced, shifted
+ * anew each time the table wraps</li>
+ * </ul>
+ */
+public class EmissionSampler {
+	public static enum Type {
+		Random,
+		Stratified,
+		Halton,
+		Sobol,
+		BlueNoise
+	}
+
+	private static final int[] HALTON_BASES = { 2, 3, 5 };
+	private static final int BLUE_NOISE_SIZE = 256;
+	private static final int BLUE_NOISE_CANDIDATES = 24;
+	private static final float[][] blueNoise = new float[4][];
+	private static int[][] sobolDirections;
+
+	private final Type type;
+	private final int dimensions;
+	private int index = 0;
+	// random rotation of the sequence so emitters do not share a pattern
+	private final float[] shift = new float[3];
+	private final int[] sobolShift = new int[3];
+	private final int[] sobol = new int[3];
+	private int strataPerAxis;
+	private int[] strata;
+	private float[] table;
+
+	/**
+	 * Creates a sampler
+	 * @param type The sampling strategy
+	 * @param dimensions The number of values per draw, 1 to 3
+	 */
+	public EmissionSampler(Type type, int dimensions) {
+		this.type = type;
+		this.dimensions = dimensions;
+		switch (type) {
+			case Stratified:
+				// 64 cells per cycle in two or three dimensions
+				strataPerAxis = dimensions == 1 ? 64 : dimensions == 2 ? 8 : 4;
+				int cells = 1;
+				for (int d = 0; d < dimensions; d++)
+					cells *= strataPerAxis;
+				strata = new int[cells];
+				for (int i = 0; i < cells; i++)
+					strata[i] = i;
+				break;
+			case Sobol:
+				getSobolDirections();
+				break;
+			case BlueNoise:
+				table = getBlueNoise(dimensions);
+				break;
+		}
+		reset();
+	}
+
+	/**
+	 * Returns the sampling strategy
+	 * @return
+	 */
+	public Type getType() {
+		return this.type;
+	}
+
+	/**
+	 * Returns the number of values per draw
+	 * @return
+	 */
+	public int getDimensions() {
+		return this.dimensions;
+	}
+
+	/**
+	 * Restarts the sequence with a new random rotation
+	 */
+	public final void reset() {
+		index = 0;
+		// white noise has no sequence, leave the shared generator untouched
+		if (type == Type.Random)
+			return;
+		for (int d = 0; d < 3; d++) {
+			shift[d] = FastMath.nextRandomFloat();
+			sobolShift[d] = FastMath.rand.nextInt();
+			sobol[d] = 0;
+		}
+	}
+
+	/**
+	 * Draws the next point.  The first getDimensions() components of store receive values
+	 * in [0, 1), the rest are left at zero.
+	 * @param store Receives the point
+	 * @return store
+	 */
+	public Vector3f next(Vector3f store) {
+		store.set(0, 0, 0);
+		for (int d = 0; d < dimensions; d++)
+			store.set(d, nextValue(d));
+		// wrap on a multiple of every cycle length well before overflow
+		index = (index + 1) & 0x3FFFFFFF;
+		return store;
+	}
+
+	private float nextValue(int d) {
+		switch (type) {
+			case Stratified:
+				return stratified(d);
+			case Halton:
+				return wrap(radicalInverse(index + 1, HALTON_BASES[d]) + shift[d]);
+			case Sobol:
+				return sobol(d);
+			case BlueNoise:
+				return blueNoise(d);
+			default:
+				return FastMath.nextRandomFloat();
+		}
+	}
+
+	private float stratified(int d) {
+		int cell = index % strata.length;
+		if (d == 0 && cell == 0) {
+			// shuffle the visiting order at the start of each cycle
+			for (int i = strata.length - 1; i > 0; i--) {
+				int j = FastMath.rand.nextInt(i + 1);
+				int t = strata[i]; strata[i] = strata[j]; strata[j] = t;
+			}
+		}
+		int c = strata[cell];
+		for (int k = 0; k < d; k++)
+			c /= strataPerAxis;
+		return ((c % strataPerAxis) + FastMath.nextRandomFloat())/strataPerAxis;
+	}
+
+	private float sobol(int d) {
+		// gray code order, each step flips the direction number of the lowest zero bit
+		if (index > 0)
+			sobol[d] ^= sobolDirections[d][Integer.numberOfTrailingZeros(~(index - 1))];
+		return ((sobol[d] ^ sobolShift[d]) >>> 8)*0x1p-24f;
+	}
+
+	private float blueNoise(int d) {
+		int i = index % BLUE_NOISE_SIZE;
+		if (i == 0 && index > 0)
+			shift[d] = FastMath.nextRandomFloat();
+		return wrap(table[i*dimensions + d] + shift[d]);
+	}
+
+	private static float wrap(float v) {
+		v -= (int)v;
+		return v < 1f ? v : 0;
+	}
+
+	private static float radicalInverse(int i, int base) {
+		float inv = 1f/base, f = inv, r = 0;
+		while (i > 0) {
+			r += (i % base)*f;
+			i /= base;
+			f *= inv;
+		}
+		return r;
+	}
+
+	private static synchronized int[][] getSobolDirections() {
+		if (sobolDirections == null) {
+			int[][] v = new int[3][32];
+			for (int k = 0; k < 32; k++) {
+				// x, the van der Corput sequence
+				v[0][k] = 1 << (31 - k);
+				// primitive polynomial x + 1
+				v[1][k] = k == 0 ? 1 << 31 : v[1][k-1] ^ (v[1][k-1] >>> 1);
+				// primitive polynomial x^2 + x + 1, initial numbers 1, 3
+				if (k == 0)
+					v[2][k] = 1 << 31;
+				else if (k == 1)
+					v[2][k] = 3 << 30;
+				else
+					v[2][k] = v[2][k-2] ^ (v[2][k-2] >>> 2) ^ v[2][k-1];
+			}
+			sobolDirections = v;
+		}
+		return sobolDirections;
+	}
+
+	/**
+	 * Builds a table of points in the unit square or cube by Mitchell's best candidate
+	 * algorithm, on a torus so shifted tables stay evenly spaced across the wrap.  Each
+	 * point is the farthest of a number of random candidates from those before it.
+	 */
+	private static synchronized float[] getBlueNoise(int dimensions) {
+		if (blueNoise[dimensions] == null) {
+			Random random = new Random(0x5EED);
+			float[] t = new float[BLUE_NOISE_SIZE*dimensions];
+			float[] candidate = new float[dimensions];
+			for (int i = 0; i < BLUE_NOISE_SIZE; i++) {
+				float best = -1;
+				int candidates = Math.min(i + 1, BLUE_NOISE_CANDIDATES);
+				for (int c = 0; c < candidates; c++) {
+					for (int d = 0; d < dimensions; d++)
+						candidate[d] = random.nextFloat();
+					float nearest = Float.MAX_VALUE;
+					for (int j = 0; j < i && nearest > best; j++) {
+						float dist = 0;
+						for (int d = 0; d < dimensions; d++) {
+							float delta = Math.abs(candidate[d] - t[j*dimensions + d]);
+							delta = Math.min(delta, 1f - delta);
+							dist += delta*delta;
+						}
+						nearest = Math.min(nearest, dist);
+					}
+					if (nearest > best) {
+						best = nearest;
+						System.arraycopy(candidate, 0, t, i*dimensions, dimensions);
+					}
+				}
+			}
+			blueNoise[dimensions] = t;
+		}
+		return blueNoise[dimensions];
+	}
+}
@@ -13,6 +13,7 @@ import com.jme3.material.RenderState;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.Matrix3f;
 import com.jme3.math.Quaternion;
+import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
 import com.jme3.renderer.RenderManager;
@@ -31,17 +32,28 @@ import com.jme3.util.SafeArrayList;
 import emitter.EmitterMesh.DirectionType;
 
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import emitter.influencers.ParticleAttributeInfluencer;
 import emitter.influencers.ParticleInfluencer;
+import emitter.influencers.ParticleStoreInfluencer;
+import emitter.particle.ParticleAttributes;
 import emitter.particle.ParticleData;
+import emitter.particle.ParticleDataInstancedMesh;
 import emitter.particle.ParticleDataMesh;
 import emitter.particle.ParticleDataPointMesh;
+import emitter.particle.ParticleDataTemplateMesh;
 import emitter.particle.ParticleDataTriMesh;
+import emitter.particle.ParticleDepthSorter;
+import emitter.particle.ParticleSlotAllocator;
+import emitter.particle.ParticleStore;
 import emitter.shapes.TriangleEmitterShape;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -115,12 +127,17 @@ public class Emitter implements Control, Cloneable {
 	private String name;
 	private RenderQueue.Bucket bucket = RenderQueue.Bucket.Translucent;
 	
-	EmitterMesh emitterShape = new EmitterMesh();
+	EmitterShape emitterShape = new EmitterMesh();
 	Class particleType = ParticleDataTriMesh.class;
+	private Vector2f spriteSize = new Vector2f();
+	private Vector2f spriteCount = new Vector2f();
 	ParticleDataMesh mesh = null;
 	Mesh template = null;
 	ParticleData[] particles;
+	ParticleStore store = null;
+	ParticleSlotAllocator slots;
 	SafeArrayList<ParticleInfluencer> influencers = new SafeArrayList(ParticleInfluencer.class);
+	private final ParticleAttributes attributes = new ParticleAttributes();
 	Node emitterNode, particleNode, emitterTestNode, particleTestNode;
 	
 	// ParticleData info
@@ -133,16 +150,43 @@ public class Emitter implements Control, Cloneable {
 	protected Interpolation interpolation = Interpolation.linear;
 	
 	// Emitter info
-	int nextIndex = 0;
+	private boolean updatingParticles = false;
 	private float targetInterval = .00015f, currentInterval = 0;
 	private int totalParticlesThisEmission, particlesPerEmission;
         private float emissionsPerSecond;
-	private float tpfThreshold = 1f/400f;
+	private float tpfThreshold = 1f/60f;
+	private boolean useFixedTimestep = false;
+	private int maxSubSteps = 5;
+	private float stepAccumulator = 0, stepAlpha = 1;
+	private float[] simPositions;
+	private boolean useParallelUpdate = false;
+	private int parallelThreshold = 4096;
+	private float storeTpf;
+	private ParticleStoreInfluencer storeInfluencer;
+	private boolean useBackgroundUpdate = false;
+	private ParticleStore renderStore;
+	private ParticleData[] renderParticles;
+	private int[] renderLive;
+	private int renderLiveCount;
+	private float renderStepAlpha = 1;
+	private final SimulationSettings simulation = new SimulationSettings();
+	private boolean simulating = false;
+	private float backgroundTpf;
+	private ForkJoinTask<?> pendingUpdate;
+	private volatile Thread simulationThread;
+	EmitterManager manager;
 	private Matrix3f inverseRotation = Matrix3f.IDENTITY.clone();
 	private boolean useStaticParticles = false;
+	private boolean useParticleStore = false;
 	private boolean useRandomEmissionPoint = false;
 	private boolean useSequentialEmissionFace = false;
 	private boolean useSequentialSkipPattern = false;
+	private boolean useAreaWeightedEmission = false;
+	private boolean useVertexColorDensity = false;
+	private float[] emissionDensity = null;
+	private boolean useDirectionTable = false;
+	private EmissionSampler positionSampler = new EmissionSampler(EmissionSampler.Type.Random, 3);
+	private EmissionSampler directionSampler = new EmissionSampler(EmissionSampler.Type.Random, 2);
 	private boolean useVelocityStretching = false;
 	private float velocityStretchFactor = 0.35f;
 	private ForcedStretchAxis stretchAxis = ForcedStretchAxis.Y;
@@ -153,6 +197,8 @@ public class Emitter implements Control, Cloneable {
 	private AssetManager assetManager;
 	private Material mat, testMat, userDefinedMat = null;
 	private boolean applyLightingTransform = false;
+	private boolean useCompactTexCoords = false;
+	private boolean useShaderSpriteUVs = false;
 	private String uniformName = "Texture";
 	private Texture tex;
 	private String texturePath;
@@ -161,6 +207,16 @@ public class Emitter implements Control, Cloneable {
 	
 	private BillboardMode billboardMode = BillboardMode.Camera;
 	private boolean particlesFollowEmitter = false;
+	private boolean useDepthSorting = false;
+	private boolean useGrowOnlyBounds = false;
+	private int growOnlyBoundsInterval = 60;
+	private ParticleDepthSorter depthSorter;
+	private int[] drawOrder;
+	private int drawCount;
+	private float cullCellSize = 0;
+	private ParticleCells cells;
+	private final Vector3f sortAxis = new Vector3f();
+	private final Quaternion sortRotation = new Quaternion();
 	
 	private boolean enabled = false;
 	private boolean requiresUpdate = false;
@@ -204,6 +260,7 @@ public class Emitter implements Control, Cloneable {
 		particleNode.setShadowMode(ShadowMode.Off);
 		particleTestNode = new Node();
 		particleTestNode.setShadowMode(ShadowMode.Off);
+		publishSettings();
 	}
 	
 	/**
@@ -211,6 +268,7 @@ public class Emitter implements Control, Cloneable {
 	 * For example:
 	 * ParticleDataTriMesh.class - A quad-based particle mesh
 	 * ParticleDataImpostorMesh.class - A star-shaped impostor mesh
+	 * ParticleDataInstancedMesh.class - A hardware instanced camera facing quad, set before initialize
 	 * @param <T>
 	 * @param t The Mesh class used to create the particle Mesh
 	 */
@@ -349,7 +407,16 @@ public class Emitter implements Control, Cloneable {
 	}
 	
 	private void initMaterials() {
-		mat = new Material(assetManager, "Common/MatDefs/Misc/Particle.j3md");
+		if (particleType == ParticleDataInstancedMesh.class) {
+			mat = new Material(assetManager, "emitter/shaders/ParticleInstanced.j3md");
+		} else if (useShaderSpriteUVs && particleType != ParticleDataTemplateMesh.class) {
+			mat = new Material(assetManager, "emitter/shaders/ParticleSpriteFrame.j3md");
+			// point meshes carry no texcoords, their sprite cell is spread by gl_PointCoord
+			if (particleType == ParticleDataPointMesh.class)
+				mat.setBoolean("PointSprite", true);
+		} else {
+			mat = new Material(assetManager, "Common/MatDefs/Misc/Particle.j3md");
+		}
 		mat.getAdditionalRenderState().setFaceCullMode(RenderState.FaceCullMode.Off);
 		
 		testMat = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
@@ -360,6 +427,8 @@ public class Emitter implements Control, Cloneable {
 	
 	private <T extends ParticleDataMesh> void initParticles(Class<T> t, Mesh template) {
 		try {
+			if (this.mesh != null)
+				this.mesh.releaseSharedBuffers();
 			this.mesh = t.newInstance();
 			if (template != null) {
 				this.mesh.extractTemplateFromMesh(template);
@@ -371,8 +440,27 @@ public class Emitter implements Control, Cloneable {
 		}
 	}
 	
+	/**
+	 * Creates a particle mesh for a cull cell, set up like the emitter's own mesh
+	 */
+	ParticleDataMesh createCellMesh() {
+		try {
+			ParticleDataMesh cellMesh = mesh.getClass().getDeclaredConstructor().newInstance();
+			if (template != null)
+				cellMesh.extractTemplateFromMesh(template);
+			cellMesh.initParticleData(this, maxParticles);
+			cellMesh.setImagesXY(spriteCols, spriteRows);
+			return cellMesh;
+		} catch (ReflectiveOperationException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+	
 	private void initParticles() {
+		finishBackgroundUpdate();
 		particles = new ParticleData[maxParticles];
+		slots = new ParticleSlotAllocator(maxParticles);
+		attributes.setCapacity(maxParticles);
 		
 		for (int i = 0; i < maxParticles; i++) {
 			particles[i] = new ParticleData();
@@ -381,9 +469,25 @@ public class Emitter implements Control, Cloneable {
 			particles[i].reset();
 		}
 		
+		if (useParticleStore)
+			initParticleStore();
+		else
+			store = null;
+		simPositions = new float[maxParticles*3];
+		
+		// cell meshes are sized for the old quota and particle type
+		if (cells != null)
+			cells.clear();
 		mesh.initParticleData(this, maxParticles);
 	}
 	
+	private void initParticleStore() {
+		store = new ParticleStore(this, maxParticles);
+		for (int i = 0; i < maxParticles; i++) {
+			store.copyFrom(particles[i], i);
+		}
+	}
+	
 	/**
 	 * Creates a single triangle emitter shape
 	 */
@@ -397,7 +501,21 @@ public class Emitter implements Control, Cloneable {
 	 * @param mesh The Mesh to use as the particle emitter shape
 	 */
 	public final void setShape(Mesh mesh) {
-		emitterShape.setShape(this, mesh);
+		finishBackgroundUpdate();
+		EmitterMesh shape = emitterShape instanceof EmitterMesh ? (EmitterMesh)emitterShape : new EmitterMesh();
+		shape.setShape(this, mesh);
+		setShape(shape);
+	}
+	
+	/**
+	 * Sets the particle emitter shape, either an EmitterMesh or one of the analytic shapes
+	 * in emitter.shapes
+	 * @param shape The shape to emit particles from
+	 */
+	public final void setShape(EmitterShape shape) {
+		finishBackgroundUpdate();
+		shape.setEmitter(this);
+		emitterShape = shape;
 		if (!emitterTestNode.getChildren().isEmpty()) {
 			emitterTestNode.getChild(0).removeFromParent();
 			Geometry testGeom = new Geometry();
@@ -438,13 +556,55 @@ public class Emitter implements Control, Cloneable {
 	}
 	
 	/**
-	 * Returns the current ParticleData Emitter's EmitterMesh
-	 * @return The EmitterMesh containing the specified shape Mesh
+	 * Returns the current ParticleData Emitter's shape
+	 * @return The EmitterShape particles are emitted from
 	 */
-	public EmitterMesh getShape() {
+	public EmitterShape getShape() {
 		return emitterShape;
 	}
 	
+	/**
+	 * Returns the live particle slots the mesh writers should draw.  While the background
+	 * update is running this is the snapshot taken at the last hand-off.  With depth sorting
+	 * enabled the slots are ordered back to front while the mesh is being written, and with
+	 * cull cells only the slots of the cell being written are returned.
+	 * @return 
+	 */
+	public int[] getRenderLive() {
+		if (drawOrder != null)
+			return drawOrder;
+		return renderStore != null ? renderLive : slots.getLive();
+	}
+	
+	/**
+	 * Returns the number of valid entries in getRenderLive()
+	 * @return 
+	 */
+	public int getRenderLiveCount() {
+		if (drawOrder != null)
+			return drawCount;
+		return renderStore != null ? renderLiveCount : slots.getLiveCount();
+	}
+	
+	/**
+	 * Returns the emitter's world translation as seen by newly emitted particles, sampled
+	 * when the update starts
+	 * @return 
+	 */
+	public Vector3f getEmissionTranslation() {
+		return simulation.translation;
+	}
+	
+	/**
+	 * Returns the copy of the emitter transform and settings read while particles are
+	 * emitted and updated.  Refreshed when the update starts and when particles are
+	 * emitted from outside the emitter.
+	 * @return 
+	 */
+	public SimulationSettings getSimulationSettings() {
+		return simulation;
+	}
+	
 	/**
 	 * Returns if the current emitter shape has an associated animation Control
 	 * @return 
@@ -522,10 +682,61 @@ public class Emitter implements Control, Cloneable {
 	 */
 	public DirectionType getDirectionType() { return this.directionType; }
 	
+	/**
+	 * Sets the simulation rate used when the fixed timestep is enabled, 60 by default.
+	 * Together with the maximum sub steps this bounds the slowest frame rate the
+	 * simulation keeps up with.
+	 * @param fps The number of simulation steps per second
+	 */
 	public void setTargetFPS(float fps) {
 		tpfThreshold = 1f/fps;
 	}
 	
+	/**
+	 * Returns the simulation rate used when the fixed timestep is enabled
+	 * @return 
+	 */
+	public float getTargetFPS() {
+		return 1f/tpfThreshold;
+	}
+	
+	/**
+	 * Enables the fixed timestep.  Particles are advanced in steps of 1/targetFPS
+	 * seconds regardless of the frame rate, and the rendered positions are
+	 * interpolated between the last two steps.  Disabled by default.
+	 * @param useFixedTimestep 
+	 */
+	public void setUseFixedTimestep(boolean useFixedTimestep) {
+		this.useFixedTimestep = useFixedTimestep;
+		stepAccumulator = 0;
+		stepAlpha = 1;
+	}
+	
+	/**
+	 * Returns if particles are advanced using the fixed timestep
+	 * @return 
+	 */
+	public boolean getUseFixedTimestep() {
+		return this.useFixedTimestep;
+	}
+	
+	/**
+	 * Sets the maximum number of fixed steps taken in a single frame.  Time
+	 * beyond this is dropped so a long frame can not trigger ever longer updates.
+	 * @param maxSubSteps 
+	 */
+	public void setMaxSubSteps(int maxSubSteps) {
+		this.maxSubSteps = maxSubSteps;
+	}
+	
+	/**
+	 * Returns the maximum number of fixed steps taken in a single frame
+	 * @return 
+	 */
+	public int getMaxSubSteps() {
+		return this.maxSubSteps;
+	}
+	
 	/**
 	 * Particles are created as staticly placed, with no velocity.  Particles set to static with remain in place and follow the emitter shape's animations.
 	 * @param useStaticParticles 
@@ -543,6 +754,144 @@ public class Emitter implements Control, Cloneable {
 		return this.useStaticParticles;
 	}
 	
+	/**
+	 * Enables the structure-of-arrays particle store.  Particle channels are kept in
+	 * flat arrays and updated by influencers implementing ParticleStoreInfluencer.
+	 * Other influencers continue to receive ParticleData.  Around their update only the
+	 * channels that change over a particle's life are copied between the store and the
+	 * ParticleData: position, previous position, velocity, life, blend, color, alpha,
+	 * size, angles, rotation speed and sprite cell.  Everything else keeps the value it
+	 * was emitted with, so these influencers should treat it as read only.  The copy
+	 * still costs more than the object path when most of the chain is object based, so
+	 * leave the store disabled for such emitters.  Disabled by default.
+	 * @param useParticleStore 
+	 */
+	public void setUseParticleStore(boolean useParticleStore) {
+		if (this.useParticleStore == useParticleStore)
+			return;
+		finishBackgroundUpdate();
+		this.useParticleStore = useParticleStore;
+		if (!useParticleStore)
+			renderStore = null;
+		if (particles != null) {
+			if (useParticleStore) {
+				initParticleStore();
+			} else {
+				ParticleStore s = store;
+				store = null;
+				for (int i = 0; i < particles.length; i++) {
+					s.copyTo(i, particles[i]);
+				}
+			}
+		}
+		requiresUpdate = true;
+	}
+	
+	/**
+	 * Returns if the emitter keeps particle data in a ParticleStore
+	 * @return 
+	 */
+	public boolean getUseParticleStore() {
+		return this.useParticleStore;
+	}
+	
+	/**
+	 * Enables simulating particles on a worker thread.  Requires the ParticleStore.  Each
+	 * update hands off in one place: the step started last frame is joined, the channels
+	 * read by the mesh writers are copied into a render snapshot, and the next step is
+	 * started.  Rendering then builds buffers from the snapshot while the worker simulates,
+	 * so particles are drawn one frame behind the simulation.
+	 * 
+	 * The worker never reads the scene graph or the emitter's live settings.  At the
+	 * hand-off the emitter's transform and the settings used to emit and update particles
+	 * are copied into its SimulationSettings, which is all the step reads, so setters and
+	 * transform changes made while the worker runs take effect on the next step.  The
+	 * emitter shape's face tables are rebuilt at the hand-off too, so the worker does not
+	 * read the mesh of an animated emitter shape while it is skinned.
+	 * Emitting and killing particles, changing the shape and adding or removing
+	 * influencers join the running step first.  Influencers themselves are not copied:
+	 * the worker reads their settings as it runs, so configure an influencer before
+	 * adding it, or remove it, change it and add it again.  Disabled by default.
+	 * @param useBackgroundUpdate 
+	 */
+	public void setUseBackgroundUpdate(boolean useBackgroundUpdate) {
+		finishBackgroundUpdate();
+		this.useBackgroundUpdate = useBackgroundUpdate;
+		if (!useBackgroundUpdate) {
+			renderStore = null;
+			renderParticles = null;
+			renderLive = null;
+		}
+		requiresUpdate = true;
+	}
+	
+	/**
+	 * Returns if particles are simulated on a worker thread
+	 * @return 
+	 */
+	public boolean getUseBackgroundUpdate() {
+		return this.useBackgroundUpdate;
+	}
+	
+	/**
+	 * Enables updating particles across multiple cores.  Requires the ParticleStore.  The live
+	 * particle list is split into fork-join chunks for the life, integration and thread safe
+	 * influencer passes; everything else still runs on the calling thread.  Disabled by default.
+	 * @param useParallelUpdate 
+	 */
+	public void setUseParallelUpdate(boolean useParallelUpdate) {
+		this.useParallelUpdate = useParallelUpdate;
+	}
+	
+	/**
+	 * Returns if particles are updated across multiple cores
+	 * @return 
+	 */
+	public boolean getUseParallelUpdate() {
+		return this.useParallelUpdate;
+	}
+	
+	/**
+	 * Sets the chunk size used by the parallel update.  Passes over fewer live particles
+	 * than this run serially.
+	 * @param parallelThreshold The maximum number of particles handled by a single task
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = Math.max(1, parallelThreshold);
+	}
+	
+	/**
+	 * Returns the chunk size used by the parallel update
+	 * @return 
+	 */
+	public int getParallelThreshold() {
+		return this.parallelThreshold;
+	}
+	
+	/**
+	 * Returns the structure-of-arrays particle store, or null if the store is not in use
+	 * @return 
+	 */
+	public ParticleStore getParticleStore() {
+		return this.store;
+	}
+	
+	/**
+	 * Returns the typed per-particle attribute channels claimed by influencers
+	 * @return 
+	 */
+	public ParticleAttributes getParticleAttributes() {
+		return this.attributes;
+	}
+	
+	/**
+	 * Returns the allocator tracking which particle slots are live
+	 * @return 
+	 */
+	public ParticleSlotAllocator getParticleSlots() {
+		return this.slots;
+	}
+	
 	/**
 	 * Enable or disable to use of particle stretching
 	 * @param useVelocityStretching 
@@ -620,6 +969,73 @@ public class Emitter implements Control, Cloneable {
 	 */
 	public boolean getParticlesFollowEmitter() { return this.particlesFollowEmitter; }
 	
+	/**
+	 * Draws particles back to front along the camera direction so translucent particles
+	 * blend correctly.  Costs a depth pass and a radix sort over the live particles each
+	 * frame, so leave it off for additive blending where order does not matter.  Disabled
+	 * by default.
+	 * @param useDepthSorting 
+	 */
+	public void setUseDepthSorting(boolean useDepthSorting) {
+		this.useDepthSorting = useDepthSorting;
+	}
+	
+	/**
+	 * Returns if particles are drawn back to front
+	 * @return 
+	 */
+	public boolean getUseDepthSorting() { return this.useDepthSorting; }
+	
+	/**
+	 * The particle mesh bound is built each frame from the live particles as they are
+	 * written.  With grow-only bounds the box is instead only ever grown and is rebuilt
+	 * from scratch every growOnlyBoundsInterval frames, trading a looser box for one that
+	 * changes less often.  Disabled by default.
+	 * @param useGrowOnlyBounds 
+	 */
+	public void setUseGrowOnlyBounds(boolean useGrowOnlyBounds) {
+		this.useGrowOnlyBounds = useGrowOnlyBounds;
+	}
+	
+	/**
+	 * Returns if the particle mesh bound is only grown between periodic rebuilds
+	 * @return 
+	 */
+	public boolean getUseGrowOnlyBounds() { return this.useGrowOnlyBounds; }
+	
+	/**
+	 * Sets how many frames a grow-only bound is kept before it is rebuilt.  The default is 60
+	 * @param growOnlyBoundsInterval 
+	 */
+	public void setGrowOnlyBoundsInterval(int growOnlyBoundsInterval) {
+		this.growOnlyBoundsInterval = growOnlyBoundsInterval;
+	}
+	
+	/**
+	 * Returns how many frames a grow-only bound is kept before it is rebuilt
+	 * @return 
+	 */
+	public int getGrowOnlyBoundsInterval() { return this.growOnlyBoundsInterval; }
+	
+	/**
+	 * Splits the particles into cubic cells of the given edge length, each drawn as a
+	 * separate geometry with its own bound, so the parts of a large effect outside the
+	 * view are culled instead of the whole emitter being drawn.  Particles move between
+	 * cells as they travel.  Every occupied cell costs a draw call and holds vertex
+	 * buffers sized for the full particle quota, so pick a size that keeps the number of
+	 * occupied cells small.  A size of 0 (the default) draws all particles as one mesh.
+	 * @param cullCellSize 
+	 */
+	public void setCullCellSize(float cullCellSize) {
+		this.cullCellSize = cullCellSize;
+	}
+	
+	/**
+	 * Returns the edge length of the cells particles are culled by, 0 if disabled
+	 * @return 
+	 */
+	public float getCullCellSize() { return this.cullCellSize; }
+	
 	/**
 	 * By default, emission happens from the direct center of the selected emitter shape face.  This
 	 * flag enables selecting a random point of emission within the selected face.
@@ -675,6 +1091,115 @@ public class Emitter implements Control, Cloneable {
 		return this.useSequentialSkipPattern;
 	}
 	
+	/**
+	 * Selects emission faces in proportion to their area, so particles cover the emitter
+	 * shape evenly instead of crowding its small faces.  Faces are drawn from an alias
+	 * table built once per shape, scale or density change.  Ignored while sequential
+	 * emission is enabled.  Disabled by default.
+	 * @param useAreaWeightedEmission 
+	 */
+	public void setUseAreaWeightedEmission(boolean useAreaWeightedEmission) {
+		this.useAreaWeightedEmission = useAreaWeightedEmission;
+	}
+	
+	/**
+	 * Returns if emission faces are selected in proportion to their area
+	 * @return 
+	 */
+	public boolean getUseAreaWeightedEmission() { return this.useAreaWeightedEmission; }
+	
+	/**
+	 * Sets a per face multiplier of the area weighted emission density, indexed by the
+	 * emitter shape's triangle index.  Faces past the end of the array do not emit.
+	 * @param emissionDensity The face weights, or null to weigh faces by area alone
+	 */
+	public void setEmissionDensity(float[] emissionDensity) {
+		this.emissionDensity = emissionDensity;
+	}
+	
+	/**
+	 * Returns the per face emission density multipliers, or null if not set
+	 * @return 
+	 */
+	public float[] getEmissionDensity() { return this.emissionDensity; }
+	
+	/**
+	 * Multiplies the area weighted emission density of each face by the mean alpha of its
+	 * vertex colors, letting the density be painted onto the emitter shape.  Has no effect
+	 * if the shape mesh has no Color buffer.
+	 * @param useVertexColorDensity 
+	 */
+	public void setUseVertexColorDensity(boolean useVertexColorDensity) {
+		this.useVertexColorDensity = useVertexColorDensity;
+	}
+	
+	/**
+	 * Returns if the emission density is read from the emitter shape's vertex color alpha
+	 * @return 
+	 */
+	public boolean getUseVertexColorDensity() { return this.useVertexColorDensity; }
+	
+	/**
+	 * Sets how positions are drawn within analytic shapes, and within the emission face of
+	 * an EmitterMesh when random emission points are enabled.  Stratified, low discrepancy and blue noise sampling
+	 * spread consecutive particles evenly, so sparse effects look dense with fewer
+	 * particles than white noise needs to hide its clumping.  Random by default.
+	 * @param type The sampling strategy
+	 */
+	public void setPositionSampling(EmissionSampler.Type type) {
+		positionSampler = new EmissionSampler(type, 3);
+	}
+	
+	/**
+	 * Returns how positions are drawn within the emitter shape
+	 * @return 
+	 */
+	public EmissionSampler.Type getPositionSampling() { return positionSampler.getType(); }
+	
+	/**
+	 * Sets how the random direction types draw emission directions.  Other than Random,
+	 * directions are drawn uniformly over the sphere, or around the normal for
+	 * RandomTangent.  Random by default.
+	 * @param type The sampling strategy
+	 */
+	public void setDirectionSampling(EmissionSampler.Type type) {
+		directionSampler = new EmissionSampler(type, 2);
+	}
+	
+	/**
+	 * Returns how the random direction types draw emission directions
+	 * @return 
+	 */
+	public EmissionSampler.Type getDirectionSampling() { return directionSampler.getType(); }
+	
+	/**
+	 * Draws the random direction types from a fixed table of evenly spread directions
+	 * instead of generating each one, trading variety for a single random draw per
+	 * particle.  Ignored unless the direction sampling is Random.  Disabled by default.
+	 * @param useDirectionTable 
+	 */
+	public void setUseDirectionTable(boolean useDirectionTable) {
+		this.useDirectionTable = useDirectionTable;
+	}
+	
+	/**
+	 * Returns if random directions are drawn from the precomputed direction table
+	 * @return 
+	 */
+	public boolean getUseDirectionTable() { return this.useDirectionTable; }
+	
+	/**
+	 * Returns the sampler emitter shapes draw emission positions from
+	 * @return 
+	 */
+	public EmissionSampler getPositionSampler() { return this.positionSampler; }
+	
+	/**
+	 * Returns the sampler emitter shapes draw emission directions from
+	 * @return 
+	 */
+	public EmissionSampler getDirectionSampler() { return this.directionSampler; }
+	
 	/**
 	 * Sets the default interpolation for the emitter will use
 	 * @param interpolation 
@@ -819,7 +1344,10 @@ public class Emitter implements Control, Cloneable {
 	 */
 	public final void addInfluencer(ParticleInfluencer influencer) {
 	//	influencers.put(influencer.getInfluencerClass().getName(), influencer);
+		finishBackgroundUpdate();
 		influencers.add(influencer);
+		if (influencer instanceof ParticleAttributeInfluencer)
+			((ParticleAttributeInfluencer)influencer).registerAttributes(attributes);
 		requiresUpdate = true;
 	}
 	
@@ -854,6 +1382,7 @@ public class Emitter implements Control, Cloneable {
 	 * @param c The class of the influencer to remove
 	 */
 	public void removeInfluencer(Class c) {
+		finishBackgroundUpdate();
 		for (ParticleInfluencer pi : (ParticleInfluencer[])influencers.getArray()) {
 			if (pi.getInfluencerClass() == c) {
 				influencers.remove(pi);
@@ -867,6 +1396,7 @@ public class Emitter implements Control, Cloneable {
 	 * Removes all influencers
 	 */
 	public void removeAllInfluencers() {
+		finishBackgroundUpdate();
 		influencers.clear();
 		requiresUpdate = true;
 	}
@@ -949,6 +1479,8 @@ public class Emitter implements Control, Cloneable {
 			spriteHeight = (int)(height/spriteRows);
 			
 			mesh.setImagesXY(spriteCols,spriteRows);
+			if (cells != null)
+				cells.setImagesXY(spriteCols,spriteRows);
 			requiresUpdate = true;
 		}
 	}
@@ -1034,6 +1566,44 @@ public class Emitter implements Control, Cloneable {
 	public boolean getApplyLightingTransform() {
 		return this.applyLightingTransform;
 	}
+	
+	/**
+	 * Uploads streamed texcoords (sprite animation, point sprites) as 16-bit normalized
+	 * values rather than floats, halving their per-frame upload.  Takes effect when the
+	 * particle mesh is created, so must be set prior to initialize.  Disabled by default.
+	 * @param useCompactTexCoords 
+	 */
+	public void setUseCompactTexCoords(boolean useCompactTexCoords) {
+		this.useCompactTexCoords = useCompactTexCoords;
+	}
+	
+	/**
+	 * Returns if streamed texcoords are uploaded as 16-bit normalized values
+	 * @return 
+	 */
+	public boolean getUseCompactTexCoords() {
+		return this.useCompactTexCoords;
+	}
+	
+	/**
+	 * Derives sprite texcoords in the vertex shader.  Tri, impostor and point meshes then
+	 * upload a 4 byte sprite frame per vertex in place of streamed texcoords, and quad
+	 * texcoords stay static.  Uses emitter/shaders/ParticleSpriteFrame.j3md, or a user
+	 * material that defines the SpriteCount parameter.  Sprite sheets are limited to 256
+	 * columns and rows.  Must be set prior to initialize.  Disabled by default.
+	 * @param useShaderSpriteUVs 
+	 */
+	public void setUseShaderSpriteUVs(boolean useShaderSpriteUVs) {
+		this.useShaderSpriteUVs = useShaderSpriteUVs;
+	}
+	
+	/**
+	 * Returns if sprite texcoords are derived in the vertex shader
+	 * @return 
+	 */
+	public boolean getUseShaderSpriteUVs() {
+		return this.useShaderSpriteUVs;
+	}
 	//</editor-fold>
 	
 	/**
@@ -1146,6 +1716,7 @@ public class Emitter implements Control, Cloneable {
 				particleTestNode.setMaterial(testMat);
 			}
 			
+			publishSettings();
 			emitterInitialized = true;
 		}
 	}
@@ -1153,6 +1724,8 @@ public class Emitter implements Control, Cloneable {
 	@Override
 	public void setSpatial(Spatial spatial) {
 		if (spatial != null) {
+			if (mesh != null)
+				mesh.reacquireSharedBuffers();
 			((Node)spatial).attachChild(particleNode);
 			if (esAnimControl != null && !esNodeExists)
 				((Node)spatial).attachChild(esAnimNode);
@@ -1163,6 +1736,11 @@ public class Emitter implements Control, Cloneable {
 			if (TEST_PARTICLES)
 				((Node)spatial).attachChild(particleTestNode);
 		} else {
+			// a detached emitter does not keep shared buffers alive in the cache
+			if (mesh != null)
+				mesh.releaseSharedBuffers();
+			if (cells != null)
+				cells.clear();
 			particleNode.removeFromParent();
 			if (esAnimNode != null)
 				esAnimNode.removeFromParent();
@@ -1237,82 +1815,485 @@ public class Emitter implements Control, Cloneable {
 	
 	@Override
 	public void update(float tpf) {
-		if (enabled && emitterInitialized) {
-			for (ParticleData p : particles) {
-				if (p.active) p.update(tpf);
+		// Emitters registered with an EmitterManager are only updated by the manager
+		if (manager != null && !manager.isUpdating())
+			return;
+		if (useBackgroundUpdate && store != null) {
+			finishBackgroundUpdate();
+			publishSnapshot();
+			publishSettings();
+			validateShape();
+			backgroundTpf = tpf;
+			pendingUpdate = ForkJoinPool.commonPool().submit(backgroundUpdate);
+		} else {
+			publishSettings();
+			validateShape();
+			simulate(tpf);
+		}
+		if (manager == null)
+			finishUpdate();
+	}
+	
+	/**
+	 * Applies the update to the scene graph: moves the live particles into their cull
+	 * cells and refreshes the particle geometry bounds.  Called by update, or by the
+	 * EmitterManager on the render thread once all managed emitters have been updated,
+	 * as attaching cell geometries changes the shared parent nodes.
+	 */
+	void finishUpdate() {
+		updateCells();
+		updateModelBounds();
+	}
+	
+	/**
+	 * Moves the live particles into their cull cells.  Runs after the update so cell
+	 * geometries are attached and detached before the scene's geometric state is updated.
+	 */
+	private void updateCells() {
+		if (!emitterInitialized)
+			return;
+		if (cullCellSize <= 0) {
+			if (cells != null) {
+				cells.clear();
+				cells = null;
 			}
-
-			currentInterval += (tpf <= targetInterval) ? tpf : targetInterval;
-
-			if (currentInterval >= targetInterval) {
-				totalParticlesThisEmission = this.particlesPerEmission;
-				for (int i = 0; i < totalParticlesThisEmission; i++) {
-					emitNextParticle();
+			return;
+		}
+		if (cells == null)
+			cells = new ParticleCells(this);
+		ParticleStore s = renderStore != null ? renderStore : store;
+		ParticleData[] p = renderStore != null ? renderParticles : particles;
+		cells.assign(s, p, getRenderLive(), getRenderLiveCount(), cullCellSize, particlesFollowEmitter);
+	}
+	
+	/**
+	 * Refreshes the bounds of the particle geometry
+	 */
+	private void updateModelBounds() {
+		if (emitterInitialized && (enabled || postRequiresUpdate)) {
+			// indexed, the children list's iterator is allocated on every call
+			List<Spatial> children = particleNode.getChildren();
+			for (int i = 0; i < children.size(); i++)
+				((Geometry)children.get(i)).updateModelBound();
+			if (TEST_PARTICLES)
+				((Geometry)particleTestNode.getChild(0)).updateModelBound();
+			postRequiresUpdate = false;
+		}
+	}
+	
+	/**
+	 * Returns the EmitterManager updating this emitter, or null if the emitter is
+	 * updated as a regular Control
+	 * @return 
+	 */
+	public EmitterManager getEmitterManager() {
+		return this.manager;
+	}
+	
+	private final Runnable backgroundUpdate = new Runnable() {
+		@Override
+		public void run() {
+			simulationThread = Thread.currentThread();
+			try {
+				simulate(backgroundTpf);
+			} finally {
+				simulationThread = null;
+			}
+		}
+	};
+	
+	/**
+	 * Waits for the step running on the worker thread, if any.  Has no effect when called
+	 * from the simulation itself.
+	 */
+	private void finishBackgroundUpdate() {
+		if (Thread.currentThread() == simulationThread)
+			return;
+		ForkJoinTask<?> task = pendingUpdate;
+		if (task != null) {
+			pendingUpdate = null;
+			task.join();
+		}
+	}
+	
+	/**
+	 * Copies the emitter transform and the settings read while particles are emitted and
+	 * updated into the simulation settings.  Only called while no step is running.
+	 */
+	private void publishSettings() {
+		SimulationSettings s = simulation;
+		s.rotation.set(emitterNode.getLocalRotation());
+		s.scale.set(emitterNode.getLocalScale());
+		s.translation.set(emitterNode.getWorldTranslation());
+		
+		s.lifeMin = lifeMin;
+		s.lifeMax = lifeMax;
+		s.forceMin = forceMin;
+		s.forceMax = forceMax;
+		s.targetInterval = targetInterval;
+		s.particlesPerEmission = particlesPerEmission;
+		s.interpolation = interpolation;
+		
+		s.useFixedTimestep = useFixedTimestep;
+		s.tpfThreshold = tpfThreshold;
+		s.maxSubSteps = maxSubSteps;
+		s.useParallelUpdate = useParallelUpdate;
+		s.parallelThreshold = parallelThreshold;
+		
+		// the face sampler is rebuilt by the next step that draws from it
+		if (emitterShape != null && (s.useAreaWeightedEmission != useAreaWeightedEmission
+				|| s.emissionDensity != emissionDensity || s.useVertexColorDensity != useVertexColorDensity))
+			emitterShape.invalidateSampler();
+		s.useStaticParticles = useStaticParticles;
+		s.useRandomEmissionPoint = useRandomEmissionPoint;
+		s.useSequentialEmissionFace = useSequentialEmissionFace;
+		s.useSequentialSkipPattern = useSequentialSkipPattern;
+		s.useAreaWeightedEmission = useAreaWeightedEmission;
+		s.useVertexColorDensity = useVertexColorDensity;
+		s.emissionDensity = emissionDensity;
+		s.directionType = directionType;
+		s.useDirectionTable = useDirectionTable;
+		s.particleEmissionPoint = particleEmissionPoint;
+		s.positionSampler = positionSampler;
+		s.directionSampler = directionSampler;
+		
+		s.spriteCols = spriteCols;
+		s.spriteRows = spriteRows;
+	}
+	
+	/**
+	 * Copies the state the mesh writers read into the render snapshot.  Only called while
+	 * no step is running.
+	 */
+	private void publishSnapshot() {
+		if (renderStore == null || renderStore.getCapacity() != store.getCapacity()) {
+			int capacity = store.getCapacity();
+			renderStore = new ParticleStore(this, capacity);
+			renderParticles = new ParticleData[capacity];
+			for (int i = 0; i < capacity; i++) {
+				renderParticles[i] = new ParticleData();
+				renderParticles[i].emitter = this;
+				renderParticles[i].index = i;
+			}
+			renderLive = new int[capacity];
+		}
+		int[] live = slots.getLive();
+		int count = slots.getLiveCount();
+		for (int k = 0; k < count; k++) {
+			store.copySnapshot(live[k], renderStore);
+		}
+		System.arraycopy(live, 0, renderLive, 0, count);
+		renderLiveCount = count;
+		renderStepAlpha = stepAlpha;
+	}
+	
+	/**
+	 * Brings the emitter shape's face tables up to date for the next step, before any
+	 * particle reads them, possibly in parallel.  Runs on the calling thread, as the shape
+	 * mesh of an animated emitter shape is rewritten while the scene is rendered.  The step
+	 * then only reads the tables.
+	 */
+	private void validateShape() {
+		if (enabled && emitterInitialized) {
+			if (esAnimControl != null)
+				emitterShape.invalidate();
+			emitterShape.validate();
+			simulation.shapeCenter.set(emitterShape.getMesh().getBound().getCenter());
+		}
+	}
+	
+	private void simulate(float tpf) {
+		if (enabled && emitterInitialized) {
+			SimulationSettings settings = simulation;
+			simulating = true;
+			try {
+				if (settings.useFixedTimestep) {
+					float threshold = settings.tpfThreshold;
+					stepAccumulator += tpf;
+					int steps = 0;
+					while (stepAccumulator >= threshold && steps < settings.maxSubSteps) {
+						storePreviousPositions();
+						step(threshold);
+						stepAccumulator -= threshold;
+						steps++;
+					}
+					// Drop whatever could not be caught up on this frame
+					if (stepAccumulator >= threshold)
+						stepAccumulator %= threshold;
+					stepAlpha = stepAccumulator/threshold;
+				} else {
+					step(tpf);
 				}
-				currentInterval -= targetInterval;
+			} finally {
+				simulating = false;
 			}
 		//	((Geometry)particleNode.getChild(0)).updateModelBound();
 		} else {
 			currentInterval = 0;
 		}
-		if (emitterInitialized && (enabled || postRequiresUpdate)) {
-			((Geometry)particleNode.getChild(0)).updateModelBound();
-			if (TEST_PARTICLES)
-				((Geometry)particleTestNode.getChild(0)).updateModelBound();
-			postRequiresUpdate = false;
+	}
+	
+	private void step(float tpf) {
+		updatingParticles = true;
+		if (store != null) {
+			updateParticleStore(tpf);
+		} else {
+			int[] live = slots.getLive();
+			for (int k = 0; k < slots.getLiveCount(); k++) {
+				particles[live[k]].update(tpf);
+			}
+		}
+		updatingParticles = false;
+		drainKills();
+
+		currentInterval += tpf;
+
+		float interval = simulation.targetInterval;
+		if (currentInterval >= interval) {
+			// Emit every burst owed since the last emission, not just one per frame
+			int bursts = (int)(currentInterval/interval);
+			totalParticlesThisEmission = calcParticlesPerEmission();
+			emitBatch(totalParticlesThisEmission);
+			currentInterval -= bursts*interval;
 		}
 	}
 	
-	private int calcParticlesPerEmission() {
-		return (int)(currentInterval/targetInterval*particlesPerEmission);
+	private void storePreviousPositions() {
+		int[] live = slots.getLive();
+		int count = slots.getLiveCount();
+		if (store != null) {
+			ParticleStore s = store;
+			for (int k = 0; k < count; k++) {
+				int i = live[k];
+				s.previousPositionX[i] = s.positionX[i];
+				s.previousPositionY[i] = s.positionY[i];
+				s.previousPositionZ[i] = s.positionZ[i];
+			}
+		} else {
+			for (int k = 0; k < count; k++) {
+				ParticleData p = particles[live[k]];
+				p.previousPosition.set(p.position);
+			}
+		}
 	}
 	
 	/**
-	 * Emits the next available (non-active) particle
+	 * Swaps in the positions interpolated between the last two fixed steps, keeping
+	 * the simulated positions in simPositions until restoreSimPositions is called
 	 */
-	public void emitNextParticle() {
-		if (nextIndex != -1 && nextIndex < maxParticles) {
-			particles[nextIndex].initialize();
-			int searchIndex = nextIndex;
-			int initIndex = nextIndex;
-			int loop = 0;
-			while (particles[searchIndex].active) {
-				searchIndex++;
-				if (searchIndex > particles.length-1) {
-					searchIndex = 0;
-					loop++;
+	private void applyInterpolatedPositions(ParticleStore s, float a) {
+		int[] live = getRenderLive();
+		int count = getRenderLiveCount();
+		if (s != null) {
+			for (int k = 0; k < count; k++) {
+				int i = live[k];
+				simPositions[i*3] = s.positionX[i];
+				simPositions[i*3+1] = s.positionY[i];
+				simPositions[i*3+2] = s.positionZ[i];
+				s.positionX[i] = s.previousPositionX[i] + (s.positionX[i]-s.previousPositionX[i])*a;
+				s.positionY[i] = s.previousPositionY[i] + (s.positionY[i]-s.previousPositionY[i])*a;
+				s.positionZ[i] = s.previousPositionZ[i] + (s.positionZ[i]-s.previousPositionZ[i])*a;
+			}
+		} else {
+			for (int k = 0; k < count; k++) {
+				int i = live[k];
+				Vector3f pos = particles[i].position;
+				Vector3f prev = particles[i].previousPosition;
+				simPositions[i*3] = pos.x;
+				simPositions[i*3+1] = pos.y;
+				simPositions[i*3+2] = pos.z;
+				pos.set(
+					prev.x + (pos.x-prev.x)*a,
+					prev.y + (pos.y-prev.y)*a,
+					prev.z + (pos.z-prev.z)*a
+				);
+			}
+		}
+	}
+	
+	private void restoreSimPositions(ParticleStore s) {
+		int[] live = getRenderLive();
+		int count = getRenderLiveCount();
+		if (s != null) {
+			for (int k = 0; k < count; k++) {
+				int i = live[k];
+				s.positionX[i] = simPositions[i*3];
+				s.positionY[i] = simPositions[i*3+1];
+				s.positionZ[i] = simPositions[i*3+2];
+			}
+		} else {
+			for (int k = 0; k < count; k++) {
+				int i = live[k];
+				particles[i].position.set(simPositions[i*3], simPositions[i*3+1], simPositions[i*3+2]);
+			}
+		}
+	}
+	
+	private void updateParticleStore(float tpf) {
+		ParticleStore s = store;
+		int[] live = slots.getLive();
+		int count = slots.getLiveCount();
+		storeTpf = tpf;
+		
+		if (!simulation.useStaticParticles) {
+			runRange(lifeKernel, count);
+			for (int k = 0; k < count; k++) {
+				int i = live[k];
+				if (s.life[i] <= 0)
+					slots.queueKill(i);
+			}
+		}
+		
+		ParticleInfluencer[] chain = influencers.getArray();
+		int c = 0;
+		while (c < chain.length) {
+			if (chain[c] instanceof ParticleStoreInfluencer) {
+				ParticleStoreInfluencer influencer = (ParticleStoreInfluencer)chain[c];
+				if (influencer.isThreadSafe()) {
+					storeInfluencer = influencer;
+					runRange(influencerKernel, count);
+					storeInfluencer = null;
+				} else {
+					influencer.update(s, live, 0, count, tpf);
 				}
-				if (searchIndex == initIndex && loop == 1) {
-					searchIndex = -1;
-					break;
+				c++;
+			} else {
+				// Run consecutive object based influencers through the ParticleData view
+				int end = c;
+				while (end < chain.length && !(chain[end] instanceof ParticleStoreInfluencer))
+					end++;
+				for (int n = 0; n < count; n++) {
+					int i = live[n];
+					if (slots.isPendingKill(i)) continue;
+					ParticleData p = particles[i];
+					s.copyStateTo(i, p);
+					for (int j = c; j < end && !slots.isPendingKill(i); j++) {
+						chain[j].update(p, tpf);
+					}
+					s.copyStateFrom(p, i);
 				}
+				c = end;
 			}
-			nextIndex = searchIndex;
 		}
-		/*
-		if (nextIndex != -1 && nextIndex < maxParticles) {
-			particles[nextIndex].initialize();
-			int searchIndex = nextIndex;
-			while (particles[searchIndex].active) {
-				searchIndex++;
-				if (searchIndex > particles.length-1) {
-					searchIndex = -1;
-					break;
-				}
+		
+		runRange(integrateKernel, count);
+		
+		if (simulation.useStaticParticles) {
+			float[] centers = emitterShape.getTriangleCenters();
+			for (int k = 0; k < count; k++) {
+				int i = live[k];
+				int t = s.triangleIndex[i]*3;
+				s.positionX[i] = centers[t] + s.randomOffsetX[i];
+				s.positionY[i] = centers[t+1] + s.randomOffsetY[i];
+				s.positionZ[i] = centers[t+2] + s.randomOffsetZ[i];
 			}
-			nextIndex = searchIndex;
 		}
-		*/
+	}
+	
+	/**
+	 * Runs the kernel over the first count entries of the live list, split into fork-join
+	 * chunks when the parallel update is enabled and count exceeds the parallel threshold
+	 */
+	private void runRange(ParticleRangeTask.Kernel kernel, int count) {
+		SimulationSettings settings = simulation;
+		if (settings.useParallelUpdate && count > settings.parallelThreshold)
+			ForkJoinPool.commonPool().invoke(new ParticleRangeTask(kernel, 0, count, settings.parallelThreshold));
+		else
+			kernel.update(0, count);
+	}
+	
+	private final ParticleRangeTask.Kernel lifeKernel = new ParticleRangeTask.Kernel() {
+		@Override
+		public void update(int from, int to) {
+			ParticleStore s = store;
+			int[] live = slots.getLive();
+			float tpf = storeTpf;
+			for (int k = from; k < to; k++) {
+				int i = live[k];
+				s.life[i] -= tpf;
+				if (s.life[i] <= 0)
+					continue;
+				s.blend[i] = 1.0f * (s.startlife[i]-s.life[i]) / s.startlife[i];
+				s.interpBlend[i] = simulation.interpolation.apply(s.blend[i]);
+			}
+		}
+	};
+	
+	private final ParticleRangeTask.Kernel influencerKernel = new ParticleRangeTask.Kernel() {
+		@Override
+		public void update(int from, int to) {
+			storeInfluencer.update(store, slots.getLive(), from, to, storeTpf);
+		}
+	};
+	
+	private final ParticleRangeTask.Kernel integrateKernel = new ParticleRangeTask.Kernel() {
+		@Override
+		public void update(int from, int to) {
+			ParticleStore s = store;
+			int[] live = slots.getLive();
+			float tpf = storeTpf;
+			for (int k = from; k < to; k++) {
+				int i = live[k];
+				s.positionX[i] += s.velocityX[i]*tpf;
+				s.positionY[i] += s.velocityY[i]*tpf;
+				s.positionZ[i] += s.velocityZ[i]*tpf;
+			}
+		}
+	};
+	
+	private int calcParticlesPerEmission() {
+		return (int)(currentInterval/simulation.targetInterval)*simulation.particlesPerEmission;
+	}
+	
+	/**
+	 * Emits up to the specified number of particles as a single batch.  Slots are
+	 * reserved in one go, then each initialization stage is run across the whole batch.
+	 * @param count The number of particles to emit
+	 * @return The number of particles emitted, which is less than count if the emitter ran out of particles
+	 */
+	public int emitBatch(int count) {
+		finishBackgroundUpdate();
+		if (!simulating)
+			publishSettings();
+		if (count <= 0)
+			return 0;
+		int first = slots.getLiveCount();
+		int emitted = slots.allocate(count);
+		int end = first + emitted;
+		int[] live = slots.getLive();
+		
+		for (int k = first; k < end; k++) {
+			particles[live[k]].initializeEmission();
+		}
+		for (ParticleInfluencer influencer : influencers.getArray()) {
+			for (int k = first; k < end; k++) {
+				influencer.initialize(particles[live[k]]);
+			}
+		}
+		for (int k = first; k < end; k++) {
+			particles[live[k]].finishInitialize();
+		}
+		return emitted;
+	}
+	
+	/**
+	 * Emits the next available (non-active) particle
+	 */
+	public void emitNextParticle() {
+		finishBackgroundUpdate();
+		if (!simulating)
+			publishSettings();
+		int slot = slots.allocate();
+		if (slot != -1)
+			particles[slot].initialize();
 	}
 	
 	/**
 	 * Emits all non-active particles
 	 */
 	public void emitAllParticles() {
-		for (ParticleData p : particles) {
-			if (!p.active)
-				p.initialize();
-		}
+		finishBackgroundUpdate();
+		emitBatch(slots.getFreeCount());
 		requiresUpdate = true;
 	}
 	
@@ -1321,15 +2302,8 @@ public class Emitter implements Control, Cloneable {
 	 * @param count The number of particles to emit.
 	 */
 	public void emitNumParticles(int count) {
-		int counter = 0;
-		for (ParticleData p : particles) {
-			if (!p.active && counter < count) {
-				p.initialize();
-				counter++;
-			}
-			if (counter > count)
-				break;
-		}
+		finishBackgroundUpdate();
+		emitBatch(count);
 		requiresUpdate = true;
 	}
 	
@@ -1337,22 +2311,29 @@ public class Emitter implements Control, Cloneable {
 	 * Clears all current particles, setting them to inactive
 	 */
 	public void killAllParticles() {
-		for (ParticleData p : particles) {
-			p.reset();
+		finishBackgroundUpdate();
+		while (slots.pollKill() != -1);
+		int[] live = slots.getLive();
+		while (slots.getLiveCount() > 0) {
+			particles[live[slots.getLiveCount()-1]].reset();
 		}
 		requiresUpdate = true;
 	}
 	
 	/**
-	 * Deactivates and resets the specified particle
+	 * Deactivates and resets the specified particle.  When called while the emitter
+	 * is updating particles, the kill is queued and applied once the update pass completes.
 	 * @param p The particle to reset
 	 */
 	public void killParticle(ParticleData p) {
-		for (ParticleData particle : particles) {
-			if (particle == p)
-				p.reset();
+		killParticle(p.index);
+	}
+	
+	private void drainKills() {
+		int slot;
+		while ((slot = slots.pollKill()) != -1) {
+			particles[slot].reset();
 		}
-		requiresUpdate = true;
 	}
 	
 	/**
@@ -1360,7 +2341,7 @@ public class Emitter implements Control, Cloneable {
 	 * @return 
 	 */
 	public int getActiveParticleCount() {
-		return activeParticleCount;
+		return slots == null ? activeParticleCount : slots.getLiveCount();
 	}
 	
 	/**
@@ -1378,11 +2359,16 @@ public class Emitter implements Control, Cloneable {
 	}
 	
 	/**
-	 * Deactivates and resets the specified particle
+	 * Deactivates and resets the specified particle.  When called while the emitter
+	 * is updating particles, the kill is queued and applied once the update pass completes.
 	 * @param index The index of the particle to reset
 	 */
 	public void killParticle(int index) {
-		particles[index].reset();
+		finishBackgroundUpdate();
+		if (updatingParticles)
+			slots.queueKill(index);
+		else
+			particles[index].reset();
 		requiresUpdate = true;
 	}
 	
@@ -1390,8 +2376,10 @@ public class Emitter implements Control, Cloneable {
 	 * Resets all particle data and the current emission interval
 	 */
 	public void reset() {
+		finishBackgroundUpdate();
 		killAllParticles();
 		currentInterval = 0;
+		stepAccumulator = 0;
 		requiresUpdate = true;
 	}
 	
@@ -1403,12 +2391,11 @@ public class Emitter implements Control, Cloneable {
 	}
 	
 	/**
-	 * This method should not be called.  Particles call this method to help track the next available particle index
+	 * This method should not be called.  Particles call this method to return their slot to the free list
 	 * @param index The index of the particle that was just reset
 	 */
 	public void setNextIndex(int index) {
-		if (index < nextIndex || nextIndex == -1)
-			nextIndex = index;
+		slots.release(index);
 	}
 	
 	@Override
@@ -1422,8 +2409,39 @@ public class Emitter implements Control, Cloneable {
 
 				// send attenuation params
 				mat.setFloat("Quadratic", C);
+			} else if (mesh.getClass() == ParticleDataInstancedMesh.class) {
+				mat.setVector2("SpriteSize", spriteSize.set(1f/spriteCols, 1f/spriteRows));
 			}
-			mesh.updateParticleData(particles, cam, inverseRotation);
+			if (useShaderSpriteUVs && mat.getMaterialDef().getMaterialParam("SpriteCount") != null)
+				mat.setVector2("SpriteCount", spriteCount.set(spriteCols, spriteRows));
+			// Draw from the snapshot while a background step may be running
+			ParticleStore s = renderStore != null ? renderStore : store;
+			float alpha = renderStore != null ? renderStepAlpha : stepAlpha;
+			boolean interpolate = useFixedTimestep && alpha < 1;
+			ParticleData[] p = renderStore != null ? renderParticles : particles;
+			if (interpolate)
+				applyInterpolatedPositions(s, alpha);
+			if (cells != null) {
+				// the emitter's own geometry stays attached but empty, each cell draws its slots
+				drawOrder = slots.getLive();
+				drawCount = 0;
+				updateMesh(mesh, s, p, cam);
+				for (int c = 0; c < cells.getCellCount(); c++) {
+					ParticleCells.Cell cell = cells.getCell(c);
+					drawOrder = cell.slots;
+					drawCount = cell.count;
+					if (useDepthSorting)
+						sortParticles(s, p, cam);
+					updateMesh(cell.mesh, s, p, cam);
+				}
+			} else {
+				if (useDepthSorting)
+					sortParticles(s, p, cam);
+				updateMesh(mesh, s, p, cam);
+			}
+			drawOrder = null;
+			if (interpolate)
+				restoreSimPositions(s);
 			if (requiresUpdate) {
 				requiresUpdate = false;
 				postRequiresUpdate = true;
@@ -1431,6 +2449,33 @@ public class Emitter implements Control, Cloneable {
 		}
 	}
 
+	private void updateMesh(ParticleDataMesh target, ParticleStore s, ParticleData[] p, Camera cam) {
+		if (s != null)
+			target.updateParticleData(s, p, cam, inverseRotation);
+		else
+			target.updateParticleData(p, cam, inverseRotation);
+	}
+	
+	/**
+	 * Orders the live particles back to front for the mesh writers.  The renderer orders
+	 * translucent cull cells among themselves, so only the particles of a cell are sorted.
+	 */
+	private void sortParticles(ParticleStore s, ParticleData[] p, Camera cam) {
+		if (depthSorter == null)
+			depthSorter = new ParticleDepthSorter();
+		// camera direction in the particle mesh's space, depth is then a dot product
+		cam.getDirection(sortAxis);
+		sortRotation.set(particleNode.getWorldRotation()).inverseLocal().multLocal(sortAxis);
+		sortAxis.multLocal(particleNode.getWorldScale());
+		int[] live = getRenderLive();
+		int count = getRenderLiveCount();
+		if (s != null)
+			drawOrder = depthSorter.sort(s, live, count, sortAxis, particlesFollowEmitter);
+		else
+			drawOrder = depthSorter.sort(p, live, count, sortAxis, particlesFollowEmitter);
+		drawCount = count;
+	}
+
 	@Override
 	public void write(JmeExporter ex) throws IOException {
 		OutputCapsule oc = ex.getCapsule(this);
@@ -1440,6 +2485,7 @@ public class Emitter implements Control, Cloneable {
 		
 		// Emitter shape
 		oc.write(emitterShape.getMesh(), "emitterShape", new TriangleEmitterShape(1));
+		oc.write(emitterShape instanceof EmitterMesh ? null : emitterShape, "analyticShape", null);
 		
 		// Particle mesh
 		oc.write(particleType.getName(), "particleType", ParticleDataTriMesh.class.getName());
@@ -1462,6 +2508,13 @@ public class Emitter implements Control, Cloneable {
 		oc.write(emissionsPerSecond, "emissionsPerSecond", 20);
 		oc.write(particlesPerEmission, "particlesPerEmission", 1);
 		oc.write(useStaticParticles, "useStaticParticles", false);
+		oc.write(useParticleStore, "useParticleStore", false);
+		oc.write(useFixedTimestep, "useFixedTimestep", false);
+		oc.write(tpfThreshold, "tpfThreshold", 1f/60f);
+		oc.write(maxSubSteps, "maxSubSteps", 5);
+		oc.write(useParallelUpdate, "useParallelUpdate", false);
+		oc.write(parallelThreshold, "parallelThreshold", 4096);
+		oc.write(useBackgroundUpdate, "useBackgroundUpdate", false);
 		oc.write(forceMin, "forceMin", .15f);
 		oc.write(forceMax, "forceMax", .5f);
 		oc.write(lifeMin, "lifeMin", 0.999f);
@@ -1471,6 +2524,8 @@ public class Emitter implements Control, Cloneable {
 		// Material
 		oc.write(userDefinedMat, "userDefinedMat", null);
 		oc.write(applyLightingTransform, "applyLightingTransform", false);
+		oc.write(useCompactTexCoords, "useCompactTexCoords", false);
+		oc.write(useShaderSpriteUVs, "useShaderSpriteUVs", false);
 		oc.write(uniformName, "uniformName", null);
 		oc.write(texturePath, "texturePath", null);
 		oc.write(spriteWidth, "spriteWidth", 50);
@@ -1484,10 +2539,20 @@ public class Emitter implements Control, Cloneable {
 		oc.write(particleEmissionPoint.name(), "particleEmissionPoint", ParticleEmissionPoint.Particle_Center.name());
 		
 		oc.write(particlesFollowEmitter, "particlesFollowEmitter", false);
+		oc.write(useDepthSorting, "useDepthSorting", false);
+		oc.write(useGrowOnlyBounds, "useGrowOnlyBounds", false);
+		oc.write(growOnlyBoundsInterval, "growOnlyBoundsInterval", 60);
+		oc.write(cullCellSize, "cullCellSize", 0);
 		oc.write(useStaticParticles, "useStaticParticles", false);
 		oc.write(useRandomEmissionPoint, "useRandomEmissionPoint", false);
 		oc.write(useSequentialEmissionFace, "useSequentialEmissionFace", false);
 		oc.write(useSequentialSkipPattern, "useSequentialSkipPattern", false);
+		oc.write(useAreaWeightedEmission, "useAreaWeightedEmission", false);
+		oc.write(useVertexColorDensity, "useVertexColorDensity", false);
+		oc.write(emissionDensity, "emissionDensity", null);
+		oc.write(positionSampler.getType().name(), "positionSampling", EmissionSampler.Type.Random.name());
+		oc.write(directionSampler.getType().name(), "directionSampling", EmissionSampler.Type.Random.name());
+		oc.write(useDirectionTable, "useDirectionTable", false);
 		oc.write(TEST_EMITTER, "TEST_EMITTER", false);
 		oc.write(TEST_PARTICLES, "TEST_PARTICLES", false);
 		
@@ -1499,6 +2564,10 @@ public class Emitter implements Control, Cloneable {
 		InputCapsule ic = im.getCapsule(this);
 		
 		influencers = new SafeArrayList<ParticleInfluencer>(ParticleInfluencer.class, ic.readSavableArrayList("influencers", null));
+		for (ParticleInfluencer influencer : influencers.getArray()) {
+			if (influencer instanceof ParticleAttributeInfluencer)
+				((ParticleAttributeInfluencer)influencer).registerAttributes(attributes);
+		}
 		
 		name = ic.readString("name", generateName());
 		
@@ -1515,6 +2584,17 @@ public class Emitter implements Control, Cloneable {
 			setParticleType(particleType, template);
 		else
 			setParticleType(particleType, ptAnimN);
+		useParticleStore = ic.readBoolean("useParticleStore", false);
+		useFixedTimestep = ic.readBoolean("useFixedTimestep", false);
+		tpfThreshold = ic.readFloat("tpfThreshold", 1f/60f);
+		maxSubSteps = ic.readInt("maxSubSteps", 5);
+		useParallelUpdate = ic.readBoolean("useParallelUpdate", false);
+		parallelThreshold = ic.readInt("parallelThreshold", 4096);
+		useBackgroundUpdate = ic.readBoolean("useBackgroundUpdate", false);
+		// read ahead of the material, the particle mesh layout depends on them
+		applyLightingTransform = ic.readBoolean("applyLightingTransform", false);
+		useCompactTexCoords = ic.readBoolean("useCompactTexCoords", false);
+		useShaderSpriteUVs = ic.readBoolean("useShaderSpriteUVs", false);
 		initParticles(particleType, template);
 		
 		// Reconstruct emitter shape
@@ -1522,10 +2602,14 @@ public class Emitter implements Control, Cloneable {
 		Node esAnimN = (Node)ic.readSavable("esAnimNode", null);
 		boolean esNExists = ic.readBoolean("esNodeExists", true);
 		
-		if (esAnimN == null)
-			setShape(eShape);
-		else
+		EmitterShape analyticShape = (EmitterShape)ic.readSavable("analyticShape", null);
+		
+		if (esAnimN != null)
 			setShape(esAnimN, esNExists);
+		else if (analyticShape != null)
+			setShape(analyticShape);
+		else
+			setShape(eShape);
 		
 		// Emitter animation
 		String esAName = ic.readString("esAnimName", "");
@@ -1546,7 +2630,7 @@ public class Emitter implements Control, Cloneable {
 			setParticleAnimation(ptAName, ptASpeed, ptABlendTime, ptALoop);
 		
 		maxParticles = ic.readInt("maxParticles", 30);
-		int emsPerSec = ic.readInt("emissionsPerSecond", 20);
+		float emsPerSec = ic.readFloat("emissionsPerSecond", 20);
 		setEmissionsPerSecond(emsPerSec);
 		int parsPerEm = ic.readInt("particlesPerEmission", 1);
 		setParticlesPerEmission(parsPerEm);
@@ -1564,7 +2648,6 @@ public class Emitter implements Control, Cloneable {
 		
 		// Material
 		userDefinedMat = (Material)ic.readSavable("userDefinedMat", null);
-		applyLightingTransform = ic.readBoolean("applyLightingTransform", false);
 		uniformName = ic.readString("uniformName", null);
 		texturePath = ic.readString("texturePath", null);
 		spriteWidth = ic.readFloat("spriteWidth", 50);
@@ -1579,10 +2662,20 @@ public class Emitter implements Control, Cloneable {
 		
 		useStaticParticles = ic.readBoolean("useStaticParticles", false);
 		particlesFollowEmitter = ic.readBoolean("particlesFollowEmitter", false);
+		useDepthSorting = ic.readBoolean("useDepthSorting", false);
+		useGrowOnlyBounds = ic.readBoolean("useGrowOnlyBounds", false);
+		growOnlyBoundsInterval = ic.readInt("growOnlyBoundsInterval", 60);
+		cullCellSize = ic.readFloat("cullCellSize", 0);
 		useStaticParticles = ic.readBoolean("useStaticParticles", false);
 		useRandomEmissionPoint = ic.readBoolean("useRandomEmissionPoint", false);
 		useSequentialEmissionFace = ic.readBoolean("useSequentialEmissionFace", false);
 		useSequentialSkipPattern = ic.readBoolean("useSequentialSkipPattern", false);
+		useAreaWeightedEmission = ic.readBoolean("useAreaWeightedEmission", false);
+		useVertexColorDensity = ic.readBoolean("useVertexColorDensity", false);
+		emissionDensity = ic.readFloatArray("emissionDensity", null);
+		setPositionSampling(EmissionSampler.Type.valueOf(ic.readString("positionSampling", EmissionSampler.Type.Random.name())));
+		setDirectionSampling(EmissionSampler.Type.valueOf(ic.readString("directionSampling", EmissionSampler.Type.Random.name())));
+		useDirectionTable = ic.readBoolean("useDirectionTable", false);
 		TEST_EMITTER = ic.readBoolean("TEST_EMITTER", false);
 		TEST_PARTICLES = ic.readBoolean("TEST_PARTICLES", false);
 		
@@ -1603,8 +2696,10 @@ public class Emitter implements Control, Cloneable {
 		if (esAnimNode != null) {
 			clone.setShape(esAnimNode, this.esNodeExists);
 			clone.setEmitterAnimation(esAnimName, esAnimSpeed, esAnimBlendTime, esAnimLoopMode);
-		} else
+		} else if (emitterShape instanceof EmitterMesh)
 			clone.setShape(emitterShape.getMesh());
+		else
+			clone.setShape(emitterShape.clone());
 		if (ptAnimNode != null) {
 			clone.setParticleType(particleType, ptAnimNode);
 			clone.setParticleAnimation(ptAnimName, ptAnimSpeed, ptAnimBlendTime, ptAnimLoopMode);
@@ -1618,8 +2713,25 @@ public class Emitter implements Control, Cloneable {
 		clone.setUseRandomEmissionPoint(useRandomEmissionPoint);
 		clone.setUseSequentialEmissionFace(useSequentialEmissionFace);
 		clone.setUseSequentialSkipPattern(useSequentialSkipPattern);
+		clone.setUseAreaWeightedEmission(useAreaWeightedEmission);
+		clone.setUseVertexColorDensity(useVertexColorDensity);
+		clone.setEmissionDensity(emissionDensity);
+		clone.setPositionSampling(positionSampler.getType());
+		clone.setDirectionSampling(directionSampler.getType());
+		clone.setUseDirectionTable(useDirectionTable);
 		clone.setParticlesFollowEmitter(particlesFollowEmitter);
+		clone.setUseDepthSorting(useDepthSorting);
+		clone.setUseGrowOnlyBounds(useGrowOnlyBounds);
+		clone.setGrowOnlyBoundsInterval(growOnlyBoundsInterval);
+		clone.setCullCellSize(cullCellSize);
 		clone.setUseStaticParticles(useStaticParticles);
+		clone.setUseParticleStore(useParticleStore);
+		clone.setUseFixedTimestep(useFixedTimestep);
+		clone.setTargetFPS(getTargetFPS());
+		clone.setMaxSubSteps(maxSubSteps);
+		clone.setUseParallelUpdate(useParallelUpdate);
+		clone.setParallelThreshold(parallelThreshold);
+		clone.setUseBackgroundUpdate(useBackgroundUpdate);
 		clone.setUseVelocityStretching(useVelocityStretching);
 		clone.setVelocityStretchFactor(velocityStretchFactor);
 		clone.setForcedStretchAxis(stretchAxis);
@@ -0,0 +1,271 @@
+package emitter;
+
+import com.jme3.app.state.AbstractAppState;
+import com.jme3.util.SafeArrayList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Updates all registered emitters in a single pass instead of through scene graph
+ * traversal.  Registered emitters skip their own Control update and are updated by
+ * the manager, optionally across the common fork-join pool.
+ *
+ * A per-frame budget caps the CPU time spent on particles.  High priority emitters
+ * are updated every frame.  Low priority emitters are admitted in round-robin order
+ * while the estimated cost of the frame stays within the budget.  Emitters skipped
+ * in a frame keep the elapsed time and catch up when next updated.  Emitters whose
+ * control is not attached to a spatial stay registered but are not updated until they
+ * are attached again.
+ */
+public class EmitterManager extends AbstractAppState {
+	public static enum Priority {
+		High,
+		Low
+	}
+
+	private final SafeArrayList<Entry> entries = new SafeArrayList<Entry>(Entry.class);
+	private final List<Entry> selected = new ArrayList<Entry>();
+	private volatile boolean updating = false;
+	private boolean useThreadPool = false;
+	private float frameBudget = 0;
+	private int lowCursor = 0;
+
+	private static class Entry {
+		final Emitter emitter;
+		Priority priority;
+		float pendingTpf = 0;
+		long lastCost = 0;
+
+		Entry(Emitter emitter, Priority priority) {
+			this.emitter = emitter;
+			this.priority = priority;
+		}
+
+		void run() {
+			long start = System.nanoTime();
+			emitter.update(pendingTpf);
+			pendingTpf = 0;
+			lastCost = System.nanoTime() - start;
+		}
+	}
+
+	private static class EntryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Entry entry;
+
+		EntryTask(Entry entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		protected void compute() {
+			entry.run();
+		}
+	}
+
+	/**
+	 * Registers a high priority emitter
+	 * @param emitter The emitter to update
+	 */
+	public void addEmitter(Emitter emitter) {
+		addEmitter(emitter, Priority.High);
+	}
+
+	/**
+	 * Registers an emitter.  The emitter stops updating through the scene graph
+	 * and is updated by this manager instead.
+	 * @param emitter The emitter to update
+	 * @param priority High priority emitters are updated every frame, low priority
+	 * emitters only while the frame budget allows
+	 */
+	public void addEmitter(Emitter emitter, Priority priority) {
+		if (emitter.manager == this) {
+			setPriority(emitter, priority);
+			return;
+		}
+		if (emitter.manager != null)
+			emitter.manager.removeEmitter(emitter);
+		emitter.manager = this;
+		entries.add(new Entry(emitter, priority));
+	}
+
+	/**
+	 * Unregisters an emitter, returning it to updating as a regular Control
+	 * @param emitter The emitter to remove
+	 */
+	public void removeEmitter(Emitter emitter) {
+		Entry entry = getEntry(emitter);
+		if (entry != null) {
+			entries.remove(entry);
+			emitter.manager = null;
+		}
+	}
+
+	/**
+	 * Changes the priority of a registered emitter
+	 * @param emitter The emitter
+	 * @param priority The new priority
+	 */
+	public void setPriority(Emitter emitter, Priority priority) {
+		Entry entry = getEntry(emitter);
+		if (entry != null)
+			entry.priority = priority;
+	}
+
+	/**
+	 * Returns the priority of a registered emitter, or null if the emitter is not registered
+	 * @param emitter
+	 * @return
+	 */
+	public Priority getPriority(Emitter emitter) {
+		Entry entry = getEntry(emitter);
+		return entry == null ? null : entry.priority;
+	}
+
+	/**
+	 * Returns the number of registered emitters
+	 * @return
+	 */
+	public int getEmitterCount() {
+		return entries.size();
+	}
+
+	private Entry getEntry(Emitter emitter) {
+		for (Entry entry : entries.getArray()) {
+			if (entry.emitter == emitter)
+				return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the CPU time in milliseconds that may be spent updating emitters each frame.
+	 * The budget is measured as the summed update cost of the emitters, so it also holds
+	 * when the thread pool is used.  0 disables the budget.  Defaults to 0.
+	 * @param frameBudget The budget in milliseconds
+	 */
+	public void setFrameBudget(float frameBudget) {
+		this.frameBudget = frameBudget;
+	}
+
+	/**
+	 * Returns the CPU time in milliseconds that may be spent updating emitters each frame
+	 * @return
+	 */
+	public float getFrameBudget() {
+		return this.frameBudget;
+	}
+
+	/**
+	 * Enables updating the selected emitters concurrently on the common fork-join pool.
+	 * Only the particle updates run on the pool, the emitters' cull cells and bounds are
+	 * applied to the scene graph on the calling thread once all of them are done.
+	 * Disabled by default.
+	 * @param useThreadPool
+	 */
+	public void setUseThreadPool(boolean useThreadPool) {
+		this.useThreadPool = useThreadPool;
+	}
+
+	/**
+	 * Returns if emitters are updated concurrently
+	 * @return
+	 */
+	public boolean getUseThreadPool() {
+		return this.useThreadPool;
+	}
+
+	/**
+	 * Returns true while the manager is updating its emitters
+	 * @return
+	 */
+	public boolean isUpdating() {
+		return this.updating;
+	}
+
+	@Override
+	public void update(float tpf) {
+		Entry[] all = entries.getArray();
+		if (all.length == 0)
+			return;
+
+		selected.clear();
+		long budget = (long)(frameBudget*1000000f);
+		long estimate = 0;
+		int lowCount = 0;
+		for (Entry entry : all) {
+			// detached emitters neither update nor bank time until attached again
+			if (entry.emitter.getSpatial() == null)
+				continue;
+			entry.pendingTpf += tpf;
+			if (entry.priority == Priority.High) {
+				selected.add(entry);
+				estimate += entry.lastCost;
+			} else {
+				lowCount++;
+			}
+		}
+
+		// Admit low priority emitters round-robin, always advancing at least one
+		if (lowCount > 0) {
+			int admitted = 0;
+			for (int n = 0; n < all.length; n++) {
+				int index = (lowCursor + n) % all.length;
+				Entry entry = all[index];
+				if (entry.priority != Priority.Low || entry.emitter.getSpatial() == null)
+					continue;
+				if (budget > 0 && admitted > 0 && estimate + entry.lastCost > budget)
+					break;
+				selected.add(entry);
+				estimate += entry.lastCost;
+				admitted++;
+				lowCursor = index + 1;
+			}
+		}
+
+		updating = true;
+		try {
+			if (useThreadPool && selected.size() > 1) {
+				// Settle the emitters' world transforms before they are read concurrently
+				for (Entry entry : selected) {
+					entry.emitter.getEmitterNode().getWorldTranslation();
+				}
+				final EntryTask[] tasks = new EntryTask[selected.size()];
+				for (int i = 0; i < tasks.length; i++) {
+					tasks[i] = new EntryTask(selected.get(i));
+				}
+				ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+					
+					@Override
+					protected void compute() {
+						invokeAll(tasks);
+					}
+				});
+			} else {
+				for (Entry entry : selected) {
+					entry.run();
+				}
+			}
+		} finally {
+			updating = false;
+		}
+
+		// cull cells attach geometries to the scene graph, so this stays on the calling thread
+		for (Entry entry : selected) {
+			entry.emitter.finishUpdate();
+		}
+	}
+
+	@Override
+	public void cleanup() {
+		for (Entry entry : entries.getArray()) {
+			entry.emitter.manager = null;
+		}
+		entries.clear();
+		selected.clear();
+		super.cleanup();
+	}
+}
@@ -1,17 +1,28 @@
 package emitter;
 
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
 import com.jme3.math.FastMath;
 import com.jme3.math.Quaternion;
 import com.jme3.math.Triangle;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Mesh;
-import com.jme3.scene.Node;
+import com.jme3.scene.VertexBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
 /**
- *
+ * An emitter shape emitting from the faces of a triangle mesh.  The faces of the shape mesh are kept in flat tables of vertices,
+ * centers and normals, rotated and scaled by the emitter's local transform.  The tables
+ * are rebuilt only when that transform or the mesh changes, so selecting a face is a
+ * table lookup.  Faces can also be drawn in proportion to their area through an alias
+ * table, so every draw is O(1) regardless of the face count.
  * @author t0neg0d
  */
-public class EmitterMesh {
+public class EmitterMesh extends EmitterShape {
 	public static enum DirectionType {
 		Normal,
 		NormalNegate,
@@ -24,21 +35,35 @@ public class EmitterMesh {
 	private Mesh mesh;
 	private int triangleIndex;
 	private Triangle triStore = new Triangle();
+	private final Vector3f v1 = new Vector3f(), v2 = new Vector3f(), v3 = new Vector3f();
+	private final Vector3f center = new Vector3f(), normal = new Vector3f();
 	Vector3f p1 = new Vector3f();
 	Vector3f p2 = new Vector3f();
 	Vector3f p3 = new Vector3f();
 	Vector3f a = new Vector3f();
 	Vector3f b = new Vector3f();
 	Vector3f result = new Vector3f();
-	Node p = new Node(), n1 = new Node(), n2 = new Node(), n3 = new Node();
+	private final Vector3f sample = new Vector3f();
 	private int triCount;
 	private int currentTri = 0;
-	Emitter emitter;
 //	Geometry geom = new Geometry();
-	Quaternion q = new Quaternion(), q2 = new Quaternion();
-	Vector3f tempDir = new Vector3f();
 	Vector3f up = new Vector3f();
 	Vector3f left = new Vector3f();
+	Vector3f triNormal = new Vector3f();
+	
+	// nine floats per face for the vertices, three for the centers and normals
+	private float[] vertices = new float[0], centers = new float[0], normals = new float[0];
+	private boolean tablesValid = false;
+	private final Quaternion tableRotation = new Quaternion();
+	private final Vector3f tableScale = new Vector3f();
+	
+	// Vose alias table for area weighted face selection
+	private boolean samplerValid = false;
+	private float[] aliasProbability = new float[0];
+	private int[] alias = new int[0];
+	private double[] scaled = new double[0];
+	private int[] small = new int[0], large = new int[0];
+	private final int[] faceIndices = new int[3];
 	
 //	DirectionType directionType = DirectionType.Normal;
 	
@@ -51,10 +76,8 @@ public class EmitterMesh {
 		this.mesh = mesh;
 	//	geom.setMesh(mesh);
 		triCount = mesh.getTriangleCount();
-		
-		p.attachChild(n1);
-		p.attachChild(n2);
-		p.attachChild(n3);
+		tablesValid = false;
+		samplerValid = false;
 	}
 	
 	/**
@@ -75,21 +98,21 @@ public class EmitterMesh {
 	 * Selects a random face as the next particle emission point
 	 */
 	public void setNext() {
-		if (emitter.getUseSequentialEmissionFace()) {
-			if (emitter.getUseSequentialSkipPattern())
+		SimulationSettings settings = emitter.getSimulationSettings();
+		if (settings.useSequentialEmissionFace) {
+			if (settings.useSequentialSkipPattern)
 				currentTri += 2;
 			else
 				currentTri++;
 			if (currentTri >= triCount)
 				currentTri = 0;
 			triangleIndex = currentTri;
+		} else if (settings.useAreaWeightedEmission) {
+			triangleIndex = nextWeighted();
 		} else {
 			triangleIndex = FastMath.rand.nextInt(triCount);
 		}
-		mesh.getTriangle(triangleIndex, triStore);
-		calcTransform();
-		triStore.calculateCenter();
-		triStore.calculateNormal();
+		select(triangleIndex);
 	}
 	
 	/**
@@ -97,21 +120,225 @@ public class EmitterMesh {
 	 * @param triangleIndex The index of the face to set as the particle emission point
 	 */
 	public void setNext(int triangleIndex) {
-		mesh.getTriangle(triangleIndex, triStore);
-		calcTransform();
-		triStore.calculateCenter();
-		triStore.calculateNormal();
+		select(triangleIndex);
+	}
+	
+	private void select(int triangleIndex) {
+		validate();
+		int v = triangleIndex*9, c = triangleIndex*3;
+		v1.set(vertices[v], vertices[v+1], vertices[v+2]);
+		v2.set(vertices[v+3], vertices[v+4], vertices[v+5]);
+		v3.set(vertices[v+6], vertices[v+7], vertices[v+8]);
+		center.set(centers[c], centers[c+1], centers[c+2]);
+		normal.set(normals[c], normals[c+1], normals[c+2]);
+	}
+	
+	/**
+	 * Marks the face tables stale, for shape meshes whose vertices change in place such
+	 * as animated emitter shapes.  The tables are rebuilt on next use.
+	 */
+	public void invalidate() {
+		tablesValid = false;
+	}
+	
+	/**
+	 * Marks the area weighted face sampler stale, called when the emitter's emission
+	 * density settings change
+	 */
+	@Override
+	void invalidateSampler() {
+		samplerValid = false;
+	}
+	
+	/**
+	 * Rebuilds the face tables if the emitter's rotation or scale, or the shape mesh, has
+	 * changed since they were built, and the area weighted face sampler if it is in use
+	 * and stale
+	 */
+	public void validate() {
+		validateTables();
+		// built here as well as on first draw, so a background step never reads the mesh
+		if (!samplerValid && emitter.getSimulationSettings().useAreaWeightedEmission)
+			buildSampler();
 	}
 	
-	private void calcTransform() {
-		n1.setLocalTranslation(triStore.get1());
-		n2.setLocalTranslation(triStore.get2());
-		n3.setLocalTranslation(triStore.get3());
-		p.setLocalRotation(emitter.getEmitterNode().getLocalRotation());
-		p.setLocalScale(emitter.getLocalScale());
-		triStore.set1(n1.getWorldTranslation());
-		triStore.set2(n2.getWorldTranslation());
-		triStore.set3(n3.getWorldTranslation());
+	private void validateTables() {
+		Quaternion rotation = emitter.getSimulationSettings().rotation;
+		Vector3f scale = emitter.getSimulationSettings().scale;
+		if (tablesValid && tableRotation.equals(rotation) && tableScale.equals(scale))
+			return;
+		// face areas follow the mesh and the scale, rotating the faces keeps them
+		if (!tablesValid || !tableScale.equals(scale))
+			samplerValid = false;
+		tableRotation.set(rotation);
+		tableScale.set(scale);
+		if (centers.length != triCount*3) {
+			vertices = new float[triCount*9];
+			centers = new float[triCount*3];
+			normals = new float[triCount*3];
+		}
+		for (int i = 0; i < triCount; i++) {
+			mesh.getTriangle(i, triStore);
+			// Mesh.getTriangle clears the normal, hand it ours so calculateNormal does not allocate
+			triStore.setNormal(triNormal);
+			transform(v1.set(triStore.get1()), rotation, scale, i*9);
+			transform(v2.set(triStore.get2()), rotation, scale, i*9+3);
+			transform(v3.set(triStore.get3()), rotation, scale, i*9+6);
+			triStore.set1(v1);
+			triStore.set2(v2);
+			triStore.set3(v3);
+			triStore.calculateCenter();
+			triStore.calculateNormal();
+			Vector3f c = triStore.getCenter(), n = triStore.getNormal();
+			centers[i*3] = c.x;
+			centers[i*3+1] = c.y;
+			centers[i*3+2] = c.z;
+			normals[i*3] = n.x;
+			normals[i*3+1] = n.y;
+			normals[i*3+2] = n.z;
+		}
+		tablesValid = true;
+	}
+	
+	/**
+	 * Scales then rotates a mesh vertex in place and stores it in the vertex table
+	 */
+	private void transform(Vector3f vertex, Quaternion rotation, Vector3f scale, int offset) {
+		rotation.multLocal(vertex.multLocal(scale));
+		vertices[offset] = vertex.x;
+		vertices[offset+1] = vertex.y;
+		vertices[offset+2] = vertex.z;
+	}
+	
+	/**
+	 * Returns the transformed face vertices, nine floats per face, as of the last
+	 * validate().  The array is shared by every caller and must not be modified.
+	 * @return 
+	 */
+	public float[] getTriangleVertices() {
+		return vertices;
+	}
+	
+	/**
+	 * Returns the transformed face centers, three floats per face, as of the last
+	 * validate().  The array is shared by every caller and must not be modified.
+	 * @return 
+	 */
+	public float[] getTriangleCenters() {
+		return centers;
+	}
+	
+	/**
+	 * Returns the transformed face normals, three floats per face, as of the last
+	 * validate().  The array is shared by every caller and must not be modified.
+	 * @return 
+	 */
+	public float[] getTriangleNormals() {
+		return normals;
+	}
+	
+	/**
+	 * Draws a face with probability proportional to its weight, see buildSampler
+	 */
+	private int nextWeighted() {
+		validate();
+		if (!samplerValid)
+			buildSampler();
+		int i = FastMath.rand.nextInt(triCount);
+		return FastMath.rand.nextFloat() < aliasProbability[i] ? i : alias[i];
+	}
+	
+	/**
+	 * Builds the alias table over the face weights.  A face weighs its transformed area,
+	 * times its entry in the emitter's emission density if set, times the mean vertex
+	 * color alpha of the face if the emitter reads density from vertex colors.  Weights
+	 * that sum to zero fall back to uniform selection.
+	 */
+	private void buildSampler() {
+		if (alias.length != triCount) {
+			aliasProbability = new float[triCount];
+			alias = new int[triCount];
+		}
+		// scratch space, only grows
+		if (scaled.length < triCount) {
+			scaled = new double[triCount];
+			small = new int[triCount];
+			large = new int[triCount];
+		}
+		SimulationSettings settings = emitter.getSimulationSettings();
+		float[] density = settings.emissionDensity;
+		VertexBuffer colors = settings.useVertexColorDensity ? mesh.getBuffer(VertexBuffer.Type.Color) : null;
+		double[] scaled = this.scaled;
+		double total = 0;
+		for (int i = 0; i < triCount; i++) {
+			double w = area(i);
+			if (density != null)
+				w *= i < density.length ? density[i] : 0;
+			if (colors != null)
+				w *= colorDensity(colors, i);
+			scaled[i] = w;
+			total += w;
+		}
+		if (!(total > 0)) {
+			for (int i = 0; i < triCount; i++) {
+				aliasProbability[i] = 1;
+				alias[i] = i;
+			}
+			samplerValid = true;
+			return;
+		}
+		
+		int[] small = this.small, large = this.large;
+		int s = 0, l = 0;
+		for (int i = 0; i < triCount; i++) {
+			scaled[i] *= triCount/total;
+			alias[i] = i;
+			if (scaled[i] < 1)
+				small[s++] = i;
+			else
+				large[l++] = i;
+		}
+		while (s > 0 && l > 0) {
+			int lo = small[--s], hi = large[--l];
+			aliasProbability[lo] = (float)scaled[lo];
+			alias[lo] = hi;
+			scaled[hi] += scaled[lo] - 1;
+			if (scaled[hi] < 1)
+				small[s++] = hi;
+			else
+				large[l++] = hi;
+		}
+		// whatever is left is within rounding of a full column
+		while (l > 0)
+			aliasProbability[large[--l]] = 1;
+		while (s > 0)
+			aliasProbability[small[--s]] = 1;
+		samplerValid = true;
+	}
+	
+	private double area(int face) {
+		int v = face*9;
+		double ax = vertices[v+3] - vertices[v], ay = vertices[v+4] - vertices[v+1], az = vertices[v+5] - vertices[v+2];
+		double bx = vertices[v+6] - vertices[v], by = vertices[v+7] - vertices[v+1], bz = vertices[v+8] - vertices[v+2];
+		double cx = ay*bz - az*by, cy = az*bx - ax*bz, cz = ax*by - ay*bx;
+		return 0.5*Math.sqrt(cx*cx + cy*cy + cz*cz);
+	}
+	
+	/**
+	 * Returns the mean alpha of the face's vertex colors
+	 */
+	private float colorDensity(VertexBuffer colors, int face) {
+		mesh.getTriangle(face, faceIndices);
+		int components = colors.getNumComponents();
+		float sum = 0;
+		for (int k = 0; k < 3; k++) {
+			int a = faceIndices[k]*components + components - 1;
+			if (colors.getData() instanceof FloatBuffer)
+				sum += ((FloatBuffer)colors.getData()).get(a);
+			else
+				sum += (((ByteBuffer)colors.getData()).get(a) & 0xFF)/255f;
+		}
+		return sum/3f;
 	}
 	
 	/**
@@ -123,34 +350,53 @@ public class EmitterMesh {
 	}
 	
 	public Vector3f getNormal() {
-		return triStore.getNormal();
+		return normal;
 	}
 	/**
 	 * Returns the local position of the center of the selected face
 	 * @return A Vector3f representing the local translation of the selected emission point
 	 */
 	public Vector3f getNextTranslation(){
-		return triStore.getCenter();
+		return center;
 	}
 	
+	/**
+	 * Returns a random offset from the center of the selected face, or zero when the
+	 * emitter does not use random emission points
+	 * @return
+	 */
 	public Vector3f getRandomTranslation() {
+		if (!emitter.getSimulationSettings().useRandomEmissionPoint)
+			return result.set(0, 0, 0);
+		EmissionSampler sampler = emitter.getSimulationSettings().positionSampler;
+		if (sampler.getType() != EmissionSampler.Type.Random) {
+			// uniform over the face, so evenly spread samples stay evenly spread
+			sampler.next(sample);
+			float r = FastMath.sqrt(sample.x);
+			float w2 = r*(1f - sample.y), w3 = r*sample.y;
+			result.set(v1).multLocal(1f - r)
+				.addLocal(v2.x*w2, v2.y*w2, v2.z*w2)
+				.addLocal(v3.x*w3, v3.y*w3, v3.z*w3)
+				.subtractLocal(center);
+			return result;
+		}
 		int start = FastMath.nextRandomInt(1, 3);
 		
 		switch(start) {
 			case 1:
-				p1.set(triStore.get1().subtract(triStore.getCenter()));
-				p2.set(triStore.get2().subtract(triStore.getCenter()));
-				p3.set(triStore.get3().subtract(triStore.getCenter()));
+				p1.set(v1).subtractLocal(center);
+				p2.set(v2).subtractLocal(center);
+				p3.set(v3).subtractLocal(center);
 				break;
 			case 2:
-				p1.set(triStore.get2().subtract(triStore.getCenter()));
-				p2.set(triStore.get1().subtract(triStore.getCenter()));
-				p3.set(triStore.get3().subtract(triStore.getCenter()));
+				p1.set(v2).subtractLocal(center);
+				p2.set(v1).subtractLocal(center);
+				p3.set(v3).subtractLocal(center);
 				break;
 			case 3:
-				p1.set(triStore.get3().subtract(triStore.getCenter()));
-				p2.set(triStore.get2().subtract(triStore.getCenter()));
-				p3.set(triStore.get1().subtract(triStore.getCenter()));
+				p1.set(v3).subtractLocal(center);
+				p2.set(v2).subtractLocal(center);
+				p3.set(v1).subtractLocal(center);
 				break;
 		}
 		
@@ -161,58 +407,24 @@ public class EmitterMesh {
 		return result;
 	}
 	
-	/**
-	 * Returns the normal of the selected emission point
-	 * @return A Vector3f containing the normal of the selected emission point
-	 */
-	public Vector3f getNextDirection(){
-		switch (emitter.getDirectionType()) {
-			case Normal:
-				tempDir.set(getDirectionNormal());
-				break;
-			case NormalNegate:
-				tempDir.set(getDirectionNormal().negate());
-				break;
-			case Random:
-				tempDir.set(getDirectionRandom());
-				break;
-			case RandomTangent:
-				tempDir.set(getDirectionRandomTangent());
-				break;
-			case RandomNormalAligned:
-				tempDir.set(getDirectionRandom());
-				if (tempDir.dot(getDirectionNormal()) < 0)
-					tempDir.negateLocal();
-				break;
-			case RandomNormalNegate:
-				tempDir.set(getDirectionRandom());
-				if (tempDir.dot(getDirectionNormal()) > 0)
-					tempDir.negateLocal();
-				break;
-		}
-		return tempDir;
-	}
-	
-	private Vector3f getDirectionNormal() {
-		return triStore.getNormal();
+	@Override
+	public EmitterMesh clone() {
+		EmitterMesh clone = new EmitterMesh();
+		clone.setShape(emitter, mesh);
+		return clone;
 	}
 	
-	private Vector3f getDirectionRandom() {
-		q.fromAngles(
-			FastMath.nextRandomFloat()*FastMath.TWO_PI,
-			FastMath.nextRandomFloat()*FastMath.TWO_PI,
-			FastMath.nextRandomFloat()*FastMath.TWO_PI
-		).normalizeLocal();
-		tempDir.set(q.mult(Vector3f.UNIT_Y));
-		return tempDir;
+	@Override
+	public void write(JmeExporter ex) throws IOException {
+		OutputCapsule oc = ex.getCapsule(this);
+		oc.write(mesh, "mesh", null);
 	}
 	
-	private Vector3f getDirectionRandomTangent() {
-		tempDir.set(Vector3f.UNIT_Y);
-		q2.lookAt(getNormal(), Vector3f.UNIT_Y);
-		tempDir.set(q2.mult(tempDir));
-		q.fromAngleAxis(FastMath.nextRandomFloat()*360*FastMath.DEG_TO_RAD, getNormal());
-		tempDir.set(q.mult(tempDir));
-		return tempDir;
+	@Override
+	public void read(JmeImporter im) throws IOException {
+		InputCapsule ic = im.getCapsule(this);
+		Mesh m = (Mesh)ic.readSavable("mesh", null);
+		if (m != null)
+			setShape(emitter, m);
 	}
 }
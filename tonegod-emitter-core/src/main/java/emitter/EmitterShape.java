@@ -0,0 +1,191 @@
+package emitter;
+
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.Savable;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import java.io.IOException;
+
+/**
+ * Where an emitter places its particles.  Selecting the next emission point also selects a
+ * surface normal used by the emitter's direction type.  Each emission point is tagged with
+ * a face index, which influencers use to look the point up again later.
+ * Points are in the particle space of the emitter, rotated and scaled by the emitter's
+ * local transform.  {@link EmitterMesh} emits from the faces of a triangle mesh.  The
+ * shapes in emitter.shapes sample simple volumes directly.
+ */
+public abstract class EmitterShape implements Savable {
+	protected Emitter emitter;
+	private final Vector3f tempDir = new Vector3f();
+	private final Vector3f sample = new Vector3f();
+
+	/**
+	 * Binds the shape to the emitter whose transform and settings it follows
+	 * @param emitter The emitter using this shape
+	 */
+	public void setEmitter(Emitter emitter) {
+		this.emitter = emitter;
+	}
+
+	/**
+	 * Returns the emitter using this shape
+	 * @return
+	 */
+	public Emitter getEmitter() {
+		return this.emitter;
+	}
+
+	/**
+	 * Selects the next particle emission point
+	 */
+	public abstract void setNext();
+
+	/**
+	 * Selects the emission point of the specified face
+	 * @param triangleIndex The index of the face
+	 */
+	public abstract void setNext(int triangleIndex);
+
+	/**
+	 * Returns the index of the face of the selected emission point
+	 * @return
+	 */
+	public abstract int getTriangleIndex();
+
+	/**
+	 * Returns the position of the selected emission point
+	 * @return
+	 */
+	public abstract Vector3f getNextTranslation();
+
+	/**
+	 * Returns the offset of the emission point from the emission point of the selected
+	 * face.  Particles keep it, so influencers looking the point up again by face add it
+	 * back.  EmitterMesh returns a random point on the face when the emitter has random
+	 * emission points enabled and zero otherwise.
+	 * @return
+	 */
+	public abstract Vector3f getRandomTranslation();
+
+	/**
+	 * Returns the unit length surface normal at the selected emission point
+	 * @return
+	 */
+	public abstract Vector3f getNormal();
+
+	/**
+	 * Returns the emission point of each face, three floats per face, as of the last
+	 * validate().  The array is shared by every caller and must not be modified.
+	 * @return
+	 */
+	public abstract float[] getTriangleCenters();
+
+	/**
+	 * Returns the normal of each face, three floats per face, as of the last validate().
+	 * The array is shared by every caller and must not be modified.
+	 * @return
+	 */
+	public abstract float[] getTriangleNormals();
+
+	/**
+	 * Returns a mesh of the shape, used to display the emitter shape and as the bound
+	 * of the emitter center
+	 * @return
+	 */
+	public abstract Mesh getMesh();
+
+	/**
+	 * Rebuilds any data cached against the emitter's transform if the transform changed.
+	 * The emitter calls this once per update before particles are updated, so the face table
+	 * getters are plain reads that may be called from several threads at once.
+	 */
+	public void validate() {  }
+
+	/**
+	 * Discards any data cached against the shape, it is rebuilt on next use
+	 */
+	public void invalidate() {  }
+
+	/**
+	 * Called when the emitter's emission density settings change
+	 */
+	void invalidateSampler() {  }
+
+	/**
+	 * Returns a copy of the shape.  Bind the copy with setEmitter before using it.
+	 * @return
+	 */
+	@Override
+	public abstract EmitterShape clone();
+
+	/**
+	 * Returns the initial particle direction for the emitter's direction type
+	 * @return A Vector3f containing the direction of the selected emission point
+	 */
+	public Vector3f getNextDirection(){
+		return getNextDirection(getNormal());
+	}
+
+	/**
+	 * Returns the initial particle direction for the emitter's direction type, relative
+	 * to the specified surface normal instead of the selected emission point's
+	 * @param normal The unit length surface normal
+	 * @return A Vector3f containing the direction
+	 */
+	public Vector3f getNextDirection(Vector3f normal){
+		switch (emitter.getSimulationSettings().directionType) {
+			case Normal:
+				tempDir.set(normal);
+				break;
+			case NormalNegate:
+				tempDir.set(normal).negateLocal();
+				break;
+			case Random:
+				tempDir.set(getDirectionRandom());
+				break;
+			case RandomTangent:
+				tempDir.set(getDirectionRandomTangent(normal));
+				break;
+			case RandomNormalAligned:
+				tempDir.set(getDirectionRandom());
+				if (tempDir.dot(normal) < 0)
+					tempDir.negateLocal();
+				break;
+			case RandomNormalNegate:
+				tempDir.set(getDirectionRandom());
+				if (tempDir.dot(normal) > 0)
+					tempDir.negateLocal();
+				break;
+		}
+		return tempDir;
+	}
+
+	/**
+	 * Returns a direction uniform over the sphere.  The normal aligned types fold it onto
+	 * the normal's hemisphere, which keeps it uniform.
+	 */
+	private Vector3f getDirectionRandom() {
+		EmissionSampler sampler = emitter.getSimulationSettings().directionSampler;
+		if (sampler.getType() != EmissionSampler.Type.Random) {
+			sampler.next(sample);
+			return UniformDirections.sphere(sample.x, sample.y, tempDir);
+		}
+		if (emitter.getSimulationSettings().useDirectionTable)
+			return UniformDirections.table(tempDir);
+		return UniformDirections.sphere(tempDir);
+	}
+
+	private Vector3f getDirectionRandomTangent(Vector3f normal) {
+		EmissionSampler sampler = emitter.getSimulationSettings().directionSampler;
+		if (sampler.getType() != EmissionSampler.Type.Random)
+			return UniformDirections.tangent(normal, sampler.next(sample).x, tempDir);
+		return UniformDirections.tangent(normal, tempDir);
+	}
+
+	@Override
+	public void write(JmeExporter ex) throws IOException {  }
+
+	@Override
+	public void read(JmeImporter im) throws IOException {  }
+}
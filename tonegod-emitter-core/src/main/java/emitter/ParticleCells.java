@@ -0,0 +1,218 @@
+package emitter;
+
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import emitter.particle.ParticleData;
+import emitter.particle.ParticleDataMesh;
+import emitter.particle.ParticleStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Splits the live particles of an emitter into cubic cells of the particle mesh's space,
+ * each drawn by its own geometry under the particle node so the renderer frustum culls
+ * them separately.  Cells are found through an open addressing table keyed by their grid
+ * coordinates.  A cell keeps its geometry attached while it holds particles and is pooled
+ * once it empties, so particles moving between cells only move slot indices.
+ */
+class ParticleCells {
+	private static final int COORD_BITS = 21;
+	private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+
+	/**
+	 * An occupied region of space and the geometry drawing it
+	 */
+	static class Cell {
+		final Geometry geometry;
+		final ParticleDataMesh mesh;
+		long key;
+		int[] slots = new int[16];
+		int count;
+
+		Cell(Geometry geometry, ParticleDataMesh mesh) {
+			this.geometry = geometry;
+			this.mesh = mesh;
+		}
+
+		void add(int slot) {
+			if (count == slots.length)
+				slots = Arrays.copyOf(slots, count*2);
+			slots[count++] = slot;
+		}
+	}
+
+	private final Emitter emitter;
+	private final ArrayList<Cell> cells = new ArrayList<Cell>();
+	private final ArrayList<Cell> pool = new ArrayList<Cell>();
+	private long[] tableKeys = new long[32];
+	// cell index + 1, 0 marks an empty bucket
+	private int[] tableCells = new int[32];
+
+	ParticleCells(Emitter emitter) {
+		this.emitter = emitter;
+	}
+
+	/**
+	 * Returns the number of occupied cells
+	 */
+	int getCellCount() {
+		return cells.size();
+	}
+
+	/**
+	 * Returns the occupied cell at the given index
+	 */
+	Cell getCell(int index) {
+		return cells.get(index);
+	}
+
+	/**
+	 * Assigns each live particle to the cell containing it, attaching newly occupied cells
+	 * to the particle node and pooling the ones left empty.
+	 * @param store The particle store, or null to read positions from particles
+	 * @param particles The particles indexed by slot
+	 * @param live The live particle slots
+	 * @param count The number of valid entries in live
+	 * @param cellSize The edge length of a cell
+	 * @param follow If the particles follow the emitter.  When they do not the mesh writers
+	 * offset each particle by its initial position.
+	 */
+	void assign(ParticleStore store, ParticleData[] particles, int[] live, int count, float cellSize, boolean follow) {
+		for (int c = 0; c < cells.size(); c++)
+			cells.get(c).count = 0;
+
+		float inv = 1f/cellSize;
+		long lastKey = 0;
+		Cell last = null;
+		for (int k = 0; k < count; k++) {
+			int i = live[k];
+			float x, y, z;
+			if (store != null) {
+				x = store.positionX[i];
+				y = store.positionY[i];
+				z = store.positionZ[i];
+				if (!follow) {
+					x += store.initialPositionX[i];
+					y += store.initialPositionY[i];
+					z += store.initialPositionZ[i];
+				}
+			} else {
+				ParticleData p = particles[i];
+				x = p.position.x;
+				y = p.position.y;
+				z = p.position.z;
+				if (!follow) {
+					x += p.initialPosition.x;
+					y += p.initialPosition.y;
+					z += p.initialPosition.z;
+				}
+			}
+			long key = key((int)Math.floor(x*inv), (int)Math.floor(y*inv), (int)Math.floor(z*inv));
+			// neighbouring slots are often emitted together and share a cell
+			if (last == null || key != lastKey) {
+				last = find(key);
+				lastKey = key;
+			}
+			last.add(i);
+		}
+
+		boolean removed = false;
+		for (int c = cells.size() - 1; c >= 0; c--) {
+			Cell cell = cells.get(c);
+			if (cell.count == 0) {
+				cells.remove(c);
+				cell.geometry.removeFromParent();
+				pool.add(cell);
+				removed = true;
+			}
+		}
+		if (removed)
+			rebuildTable();
+	}
+
+	/**
+	 * Detaches every cell and releases their meshes
+	 */
+	void clear() {
+		for (Cell cell : cells) {
+			cell.geometry.removeFromParent();
+			cell.mesh.releaseSharedBuffers();
+		}
+		for (Cell cell : pool)
+			cell.mesh.releaseSharedBuffers();
+		cells.clear();
+		pool.clear();
+		Arrays.fill(tableCells, 0);
+	}
+
+	/**
+	 * Passes the sprite layout on to every cell mesh
+	 */
+	void setImagesXY(int imagesX, int imagesY) {
+		for (Cell cell : cells)
+			cell.mesh.setImagesXY(imagesX, imagesY);
+		for (Cell cell : pool)
+			cell.mesh.setImagesXY(imagesX, imagesY);
+	}
+
+	/**
+	 * Returns the cell for the key, occupying a new one if none holds particles yet
+	 */
+	private Cell find(long key) {
+		int mask = tableKeys.length - 1;
+		int b = hash(key) & mask;
+		while (tableCells[b] != 0) {
+			if (tableKeys[b] == key)
+				return cells.get(tableCells[b] - 1);
+			b = (b + 1) & mask;
+		}
+
+		Cell cell = pool.isEmpty() ? newCell() : pool.remove(pool.size() - 1);
+		cell.key = key;
+		cell.count = 0;
+		cells.add(cell);
+		emitter.getParticleNode().attachChild(cell.geometry);
+
+		// keep the table at most half full
+		if (cells.size()*2 > tableKeys.length) {
+			tableKeys = new long[tableKeys.length*2];
+			tableCells = new int[tableCells.length*2];
+			rebuildTable();
+		} else {
+			tableKeys[b] = key;
+			tableCells[b] = cells.size();
+		}
+		return cell;
+	}
+
+	private Cell newCell() {
+		ParticleDataMesh mesh = emitter.createCellMesh();
+		Node particleNode = emitter.getParticleNode();
+		Geometry geometry = new Geometry(particleNode.getName() + ":Cell", mesh);
+		geometry.setMaterial(((Geometry)particleNode.getChild(0)).getMaterial());
+		return new Cell(geometry, mesh);
+	}
+
+	private void rebuildTable() {
+		Arrays.fill(tableCells, 0);
+		int mask = tableKeys.length - 1;
+		for (int c = 0; c < cells.size(); c++) {
+			long key = cells.get(c).key;
+			int b = hash(key) & mask;
+			while (tableCells[b] != 0)
+				b = (b + 1) & mask;
+			tableKeys[b] = key;
+			tableCells[b] = c + 1;
+		}
+	}
+
+	private static long key(int x, int y, int z) {
+		return ((x & COORD_MASK) << 2*COORD_BITS) | ((y & COORD_MASK) << COORD_BITS) | (z & COORD_MASK);
+	}
+
+	private static int hash(long key) {
+		key ^= key >>> 29;
+		key *= 0x9E3779B97F4A7C15L;
+		return (int)(key >>> 32);
+	}
+}
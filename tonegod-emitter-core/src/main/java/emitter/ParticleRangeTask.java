@@ -0,0 +1,41 @@
+package emitter;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join task splitting a range of the emitter's live particle list into
+ * chunks no larger than the emitter's parallel threshold.
+ */
+class ParticleRangeTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Work run over a range of positions in the live particle list
+	 */
+	interface Kernel {
+		void update(int from, int to);
+	}
+
+	private final Kernel kernel;
+	private final int from, to, threshold;
+
+	ParticleRangeTask(Kernel kernel, int from, int to, int threshold) {
+		this.kernel = kernel;
+		this.from = from;
+		this.to = to;
+		this.threshold = threshold;
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from <= threshold) {
+			kernel.update(from, to);
+		} else {
+			int mid = (from + to) >>> 1;
+			invokeAll(
+				new ParticleRangeTask(kernel, from, mid, threshold),
+				new ParticleRangeTask(kernel, mid, to, threshold)
+			);
+		}
+	}
+}
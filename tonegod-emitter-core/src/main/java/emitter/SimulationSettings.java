@@ -0,0 +1,50 @@
+package emitter;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import emitter.EmitterMesh.DirectionType;
+
+/**
+ * The emitter transform and settings a simulation step reads.  The emitter copies them
+ * from its live settings when it hands a step off, so a step running on a worker thread
+ * never reads the scene graph or settings that are being changed on the render thread.
+ * Emitter shapes, influencers and ParticleData read these instead of the emitter's
+ * getters while particles are emitted and updated.  The fields are a copy, changing them
+ * has no effect.
+ */
+public class SimulationSettings {
+	/** Local rotation of the emitter node */
+	public final Quaternion rotation = new Quaternion();
+	/** Local scale of the emitter node */
+	public final Vector3f scale = new Vector3f(1, 1, 1);
+	/** World translation of the emitter node, the initial position of emitted particles */
+	public final Vector3f translation = new Vector3f();
+	/** Center of the emitter shape mesh's bound, as of the last update */
+	public final Vector3f shapeCenter = new Vector3f();
+
+	public float lifeMin, lifeMax;
+	public float forceMin, forceMax;
+	public float targetInterval;
+	public int particlesPerEmission;
+	public Interpolation interpolation;
+
+	public boolean useFixedTimestep;
+	public float tpfThreshold;
+	public int maxSubSteps;
+	public boolean useParallelUpdate;
+	public int parallelThreshold;
+
+	public boolean useStaticParticles;
+	public boolean useRandomEmissionPoint;
+	public boolean useSequentialEmissionFace;
+	public boolean useSequentialSkipPattern;
+	public boolean useAreaWeightedEmission;
+	public boolean useVertexColorDensity;
+	public float[] emissionDensity;
+	public DirectionType directionType;
+	public boolean useDirectionTable;
+	public Emitter.ParticleEmissionPoint particleEmissionPoint;
+	public EmissionSampler positionSampler, directionSampler;
+
+	public int spriteCols, spriteRows;
+}
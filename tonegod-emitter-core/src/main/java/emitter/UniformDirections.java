@@ -0,0 +1,148 @@
+package emitter;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+/**
+ * Draws unit directions uniformly over the sphere, a cone or the tangent circle of a
+ * normal.  Each draw takes a few multiplies and at most one square root.  Points on the
+ * unit disc and circle are found by rejection from the enclosing square, which needs no
+ * trigonometry, and frames around an axis are built without branches (Duff et al. 2017)
+ * instead of through quaternions.
+ */
+public final class UniformDirections {
+	private static final int TABLE_SIZE = 4096;
+	private static final float[] TABLE = buildTable();
+
+	private UniformDirections() {  }
+
+	/**
+	 * Sets store to a random direction, uniform over the sphere (Marsaglia's method)
+	 * @param store Receives the direction
+	 * @return store
+	 */
+	public static Vector3f sphere(Vector3f store) {
+		float x, y, s;
+		do {
+			x = FastMath.nextRandomFloat()*2f - 1f;
+			y = FastMath.nextRandomFloat()*2f - 1f;
+			s = x*x + y*y;
+		} while (s >= 1f);
+		float q = 2f*FastMath.sqrt(1f - s);
+		return store.set(x*q, y*q, 1f - 2f*s);
+	}
+
+	/**
+	 * Maps two uniform values to a direction, uniform over the sphere.  Evenly spread
+	 * values give evenly spread directions.
+	 * @param u A uniform value in [0, 1), the height
+	 * @param v A uniform value in [0, 1), the angle around the z axis
+	 * @param store Receives the direction
+	 * @return store
+	 */
+	public static Vector3f sphere(float u, float v, Vector3f store) {
+		float z = u*2f - 1f;
+		float phi = v*FastMath.TWO_PI;
+		float r = FastMath.sqrt(1f - z*z);
+		return store.set(r*FastMath.cos(phi), r*FastMath.sin(phi), z);
+	}
+
+	/**
+	 * Sets store to a random direction within angle of the axis, uniform over the cap of
+	 * the sphere the cone cuts out
+	 * @param axis The unit length cone axis
+	 * @param cosAngle The cosine of the cone's half angle, -1 for the whole sphere
+	 * @param store Receives the direction, must not be axis
+	 * @return store
+	 */
+	public static Vector3f cone(Vector3f axis, float cosAngle, Vector3f store) {
+		float x, y, s;
+		do {
+			x = FastMath.nextRandomFloat()*2f - 1f;
+			y = FastMath.nextRandomFloat()*2f - 1f;
+			s = x*x + y*y;
+		} while (s >= 1f || s == 0);
+		// uniform height on the cap, then the disc point's angle doubled onto the circle
+		float z = 1f - FastMath.nextRandomFloat()*(1f - cosAngle);
+		float r = FastMath.sqrt(Math.max(0, 1f - z*z))/s;
+		return around(axis, (x*x - y*y)*r, 2f*x*y*r, z, store);
+	}
+
+	/**
+	 * Sets store to a random direction perpendicular to the normal, uniform over its
+	 * tangent circle
+	 * @param normal The unit length normal
+	 * @param store Receives the direction, must not be normal
+	 * @return store
+	 */
+	public static Vector3f tangent(Vector3f normal, Vector3f store) {
+		float x, y, s;
+		do {
+			x = FastMath.nextRandomFloat()*2f - 1f;
+			y = FastMath.nextRandomFloat()*2f - 1f;
+			s = x*x + y*y;
+		} while (s >= 1f || s == 0);
+		float inv = 1f/s;
+		return around(normal, (x*x - y*y)*inv, 2f*x*y*inv, 0, store);
+	}
+
+	/**
+	 * Maps a uniform value to a direction perpendicular to the normal.  Evenly spread
+	 * values give evenly spread directions.
+	 * @param normal The unit length normal
+	 * @param u A uniform value in [0, 1), the angle around the normal
+	 * @param store Receives the direction, must not be normal
+	 * @return store
+	 */
+	public static Vector3f tangent(Vector3f normal, float u, Vector3f store) {
+		float phi = u*FastMath.TWO_PI;
+		return around(normal, FastMath.cos(phi), FastMath.sin(phi), 0, store);
+	}
+
+	/**
+	 * Sets store to one of a fixed table of directions spread evenly over the sphere,
+	 * picked at random.  Costs a single random draw, at the price of repeating directions
+	 * once thousands of particles are in flight.
+	 * @param store Receives the direction
+	 * @return store
+	 */
+	public static Vector3f table(Vector3f store) {
+		int i = FastMath.rand.nextInt(TABLE_SIZE)*3;
+		return store.set(TABLE[i], TABLE[i+1], TABLE[i+2]);
+	}
+
+	/**
+	 * Transforms a direction given in the frame of the axis, z along the axis
+	 */
+	private static Vector3f around(Vector3f axis, float x, float y, float z, Vector3f store) {
+		float sign = Math.copySign(1f, axis.z);
+		float a = -1f/(sign + axis.z);
+		float b = axis.x*axis.y*a;
+		// tangent (1 + sign*ax*ax*a, sign*b, -sign*ax), bitangent (b, sign + ay*ay*a, -ay)
+		float tx = 1f + sign*axis.x*axis.x*a, ty = sign*b, tz = -sign*axis.x;
+		float bx = b, by = sign + axis.y*axis.y*a, bz = -axis.y;
+		return store.set(
+			x*tx + y*bx + z*axis.x,
+			x*ty + y*by + z*axis.y,
+			x*tz + y*bz + z*axis.z
+		);
+	}
+
+	/**
+	 * Builds the direction table from a spherical Fibonacci lattice, points of equal area
+	 * spaced along a spiral
+	 */
+	private static float[] buildTable() {
+		float[] t = new float[TABLE_SIZE*3];
+		float golden = FastMath.PI*(3f - FastMath.sqrt(5f));
+		for (int i = 0; i < TABLE_SIZE; i++) {
+			float z = 1f - (2*i + 1)/(float)TABLE_SIZE;
+			float r = FastMath.sqrt(1f - z*z);
+			float phi = golden*i;
+			t[i*3] = r*FastMath.cos(phi);
+			t[i*3+1] = r*FastMath.sin(phi);
+			t[i*3+2] = z;
+		}
+		return t;
+	}
+}
@@ -14,12 +14,13 @@ import com.jme3.util.SafeArrayList;
 
 import emitter.Interpolation;
 import emitter.particle.ParticleData;
+import emitter.particle.ParticleStore;
 
 /**
  *
  * @author t0neg0d
  */
-public class AlphaInfluencer implements ParticleInfluencer {
+public class AlphaInfluencer implements ParticleStoreInfluencer {
 	private SafeArrayList<Float> alphas = new SafeArrayList<>(Float.class);
 	private SafeArrayList<Interpolation> interpolations = new SafeArrayList<>(Interpolation.class);
 	private boolean useRandomStartAlpha = false;
@@ -51,6 +52,33 @@ public class AlphaInfluencer implements ParticleInfluencer {
 		}
 	}
 
+	@Override
+	public void update(ParticleStore store, int[] live, int from, int to, float tpf) {
+		if (enabled) {
+			Float[] a = alphas.getArray();
+			int last = a.length - 1;
+			for (int k = from; k < to; k++) {
+				int i = live[k];
+				float interval = store.alphaInterval[i] + tpf;
+				if (interval >= store.alphaDuration[i]) {
+					int index = store.alphaIndex[i] + 1;
+					if (index >= a.length)
+						index = 0;
+					store.alphaIndex[i] = index;
+					store.alphaInterpolation[i] = interpolations.getArray()[index];
+					interval -= store.alphaDuration[i];
+				}
+				store.alphaInterval[i] = interval;
+
+				float b = store.alphaInterpolation[i].apply(interval / store.alphaDuration[i]);
+				int index = store.alphaIndex[i];
+				float start = a[index];
+				float end = (index == last) ? a[0] : a[index + 1];
+				store.alpha[i] = FastMath.interpolateLinear(b, start, end);
+			}
+		}
+	}
+
 	private void updateAlpha(ParticleData p) {
 		p.alphaIndex++;
 		if (p.alphaIndex >= alphas.size())
@@ -255,6 +283,11 @@ public class AlphaInfluencer implements ParticleInfluencer {
 		this.endAlpha = endAlpha;
 	}
 
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+	
 	@Override
 	public Class getInfluencerClass() {
 		return AlphaInfluencer.class;
@@ -13,6 +13,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import emitter.Interpolation;
 import emitter.particle.ParticleData;
+import emitter.particle.ParticleStore;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,7 +21,7 @@ import java.util.Map;
  *
  * @author t0neg0d
  */
-public class ColorInfluencer implements ParticleInfluencer {
+public class ColorInfluencer implements ParticleStoreInfluencer {
 	private SafeArrayList<ColorRGBA> colors = new SafeArrayList(ColorRGBA.class);
 	private SafeArrayList<Interpolation> interpolations = new SafeArrayList(Interpolation.class);
 	private boolean initialized = false;
@@ -53,6 +54,37 @@ public class ColorInfluencer implements ParticleInfluencer {
 		}
 	}
 	
+	@Override
+	public void update(ParticleStore store, int[] live, int from, int to, float tpf) {
+		if (enabled) {
+			ColorRGBA[] c = colors.getArray();
+			int last = c.length - 1;
+			for (int k = from; k < to; k++) {
+				int i = live[k];
+				float interval = store.colorInterval[i] + tpf;
+				if (interval >= store.colorDuration[i]) {
+					int index = store.colorIndex[i] + 1;
+					if (index >= c.length)
+						index = 0;
+					store.colorIndex[i] = index;
+					store.colorInterpolation[i] = interpolations.getArray()[index];
+					interval -= store.colorDuration[i];
+				}
+				store.colorInterval[i] = interval;
+
+				float b = store.colorInterpolation[i].apply(interval / store.colorDuration[i]);
+				int index = store.colorIndex[i];
+				ColorRGBA start = c[index];
+				ColorRGBA end = (index == last) ? c[0] : c[index + 1];
+				float ib = 1f - b;
+				store.colorR[i] = ib * start.r + b * end.r;
+				store.colorG[i] = ib * start.g + b * end.g;
+				store.colorB[i] = ib * start.b + b * end.b;
+				store.colorA[i] = ib * start.a + b * end.a;
+			}
+		}
+	}
+
 	private void updateColor(ParticleData p) {
 		p.colorIndex++;
 		if (p.colorIndex >= colors.size())
@@ -203,6 +235,11 @@ public class ColorInfluencer implements ParticleInfluencer {
 		return this.enabled;
 	}
 
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+	
 	@Override
 	public Class getInfluencerClass() {
 		return ColorInfluencer.class;
@@ -42,7 +42,7 @@ public class DestinationInfluencer implements ParticleInfluencer {
 
 			blend = p.destinationInterpolation.apply(p.destinationInterval/p.destinationDuration);
 
-			destinationDir.set(destinations.getArray()[p.destinationIndex].subtract(p.position));
+			destinationDir.set(destinations.getArray()[p.destinationIndex]).subtractLocal(p.position);
 			dist = p.position.distance(destinations.getArray()[p.destinationIndex]);
 			destinationDir.multLocal(dist);
 			
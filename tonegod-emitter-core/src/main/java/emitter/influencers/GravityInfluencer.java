@@ -7,12 +7,14 @@ import com.jme3.export.OutputCapsule;
 import com.jme3.math.Vector3f;
 import java.io.IOException;
 import emitter.particle.ParticleData;
+import emitter.particle.ParticleStore;
+import emitter.Emitter;
 
 /**
  *
  * @author t0neg0d
  */
-public class GravityInfluencer implements ParticleInfluencer {
+public class GravityInfluencer implements ParticleStoreInfluencer {
 	public static enum GravityAlignment {
 		World,
 		Reverse_Velocity,
@@ -29,7 +31,7 @@ public class GravityInfluencer implements ParticleInfluencer {
 	@Override
 	public void update(ParticleData p, float tpf) {
 		if (enabled) {
-			if (!p.emitter.getUseStaticParticles()) {
+			if (!p.emitter.getSimulationSettings().useStaticParticles) {
 				switch (alignment) {
 					case World:
 						store.set(gravity).multLocal(tpf);
@@ -41,15 +43,12 @@ public class GravityInfluencer implements ParticleInfluencer {
 						break;
 					case Emission_Point:
 						p.emitter.getShape().setNext(p.triangleIndex);
-						if (p.emitter.getUseRandomEmissionPoint())
-							store.set(p.emitter.getShape().getNextTranslation().addLocal(p.randomOffset));
-						else
-							store.set(p.emitter.getShape().getNextTranslation());
+						store.set(p.emitter.getShape().getNextTranslation()).addLocal(p.randomOffset);
 						store.subtractLocal(p.position).multLocal(p.initialLength*magnitude).multLocal(tpf);
 						p.velocity.addLocal(store);
 						break;
 					case Emitter_Center:
-						store.set(p.emitter.getShape().getMesh().getBound().getCenter());
+						store.set(p.emitter.getSimulationSettings().shapeCenter);
 						store.subtractLocal(p.position).multLocal(p.initialLength*magnitude).multLocal(tpf);
 						p.velocity.addLocal(store);
 						break;
@@ -58,9 +57,59 @@ public class GravityInfluencer implements ParticleInfluencer {
 		}
 	}
 	
+	@Override
+	public void update(ParticleStore store, int[] live, int from, int to, float tpf) {
+		Emitter emitter = store.getEmitter();
+		if (enabled && !emitter.getSimulationSettings().useStaticParticles) {
+			switch (alignment) {
+				case World:
+					float gx = gravity.x*tpf, gy = gravity.y*tpf, gz = gravity.z*tpf;
+					for (int k = from; k < to; k++) {
+						int i = live[k];
+						store.velocityX[i] -= gx;
+						store.velocityY[i] -= gy;
+						store.velocityZ[i] -= gz;
+					}
+					break;
+				case Reverse_Velocity:
+					for (int k = from; k < to; k++) {
+						int i = live[k];
+						store.velocityX[i] += store.reverseVelocityX[i]*tpf;
+						store.velocityY[i] += store.reverseVelocityY[i]*tpf;
+						store.velocityZ[i] += store.reverseVelocityZ[i]*tpf;
+					}
+					break;
+				case Emission_Point:
+					float[] centers = emitter.getShape().getTriangleCenters();
+					for (int k = from; k < to; k++) {
+						int i = live[k];
+						int t = store.triangleIndex[i]*3;
+						float f = store.initialLength[i]*magnitude*tpf;
+						float tx = centers[t] + store.randomOffsetX[i];
+						float ty = centers[t+1] + store.randomOffsetY[i];
+						float tz = centers[t+2] + store.randomOffsetZ[i];
+						store.velocityX[i] += (tx - store.positionX[i])*f;
+						store.velocityY[i] += (ty - store.positionY[i])*f;
+						store.velocityZ[i] += (tz - store.positionZ[i])*f;
+					}
+					break;
+				case Emitter_Center:
+					Vector3f c = emitter.getSimulationSettings().shapeCenter;
+					for (int k = from; k < to; k++) {
+						int i = live[k];
+						float f = store.initialLength[i]*magnitude*tpf;
+						store.velocityX[i] += (c.x - store.positionX[i])*f;
+						store.velocityY[i] += (c.y - store.positionY[i])*f;
+						store.velocityZ[i] += (c.z - store.positionZ[i])*f;
+					}
+					break;
+			}
+		}
+	}
+	
 	@Override
 	public void initialize(ParticleData p) {
-		p.reverseVelocity.set(p.velocity.negate().mult(magnitude));
+		p.reverseVelocity.set(p.velocity).negateLocal().multLocal(magnitude);
 	}
 
 	@Override
@@ -170,6 +219,12 @@ public class GravityInfluencer implements ParticleInfluencer {
 		return this.enabled;
 	}
 
+	@Override
+	public boolean isThreadSafe() {
+		// Emission_Point only reads the emitter shape's face tables, validated before the update
+		return true;
+	}
+	
 	@Override
 	public Class getInfluencerClass() {
 		return GravityInfluencer.class;
@@ -0,0 +1,17 @@
+package emitter.influencers;
+
+import emitter.particle.ParticleAttributes;
+
+/**
+ * An influencer that keeps per-particle state in typed attribute channels.  The
+ * emitter calls registerAttributes when the influencer is added, and the influencer
+ * keeps the returned handles for use from initialize, update and reset.  Handles
+ * belong to a single emitter, so an influencer instance should not be shared.
+ */
+public interface ParticleAttributeInfluencer extends ParticleInfluencer {
+	/**
+	 * Claims the channels used by the influencer
+	 * @param attributes The emitter's attribute storage
+	 */
+	void registerAttributes(ParticleAttributes attributes);
+}
@@ -0,0 +1,29 @@
+package emitter.influencers;
+
+import emitter.particle.ParticleStore;
+
+/**
+ * An influencer that can update particles directly from the emitter's
+ * ParticleStore.  Influencers that do not implement this interface are still
+ * called through the ParticleData view when the store is in use.
+ */
+public interface ParticleStoreInfluencer extends ParticleInfluencer {
+	/**
+	 * Update loop for the particle influencer operating on the structure-of-arrays store
+	 * @param store The store containing the particle channels
+	 * @param live The dense list of live particle slots
+	 * @param from The first position in the live list to update (inclusive)
+	 * @param to The last position in the live list to update (exclusive)
+	 * @param tpf The time since last frame
+	 */
+	void update(ParticleStore store, int[] live, int from, int to, float tpf);
+	
+	/**
+	 * Returns if update may be called concurrently for disjoint ranges of the live list.
+	 * A thread safe update only writes the channels of the slots in its range, keeps
+	 * scratch values in locals and draws no random numbers, so splitting the range
+	 * gives the same result as a single serial call.
+	 * @return 
+	 */
+	boolean isThreadSafe();
+}
@@ -38,10 +38,11 @@ public class PhysicsInfluencer implements ParticleInfluencer {
 	private Quaternion quat = new Quaternion();
 	private CollisionResults results = new CollisionResults();
 	private CollisionResult result;
-	private Triangle contactSurface;
+	private Triangle contactSurface = new Triangle();
 	private Vector3f	reflect = new Vector3f(),
 						two = new Vector3f(),
-						normal = new Vector3f();
+						normal = new Vector3f(),
+						translation = new Vector3f();
 	private float twoDot, len;
 	private float collisionThreshold = 0.1f;
 	private float restitution = 0.5f;
@@ -68,12 +69,12 @@ public class PhysicsInfluencer implements ParticleInfluencer {
 							result = results.getClosestCollision();
 							switch (collisionReaction) {
 								case Bounce:
-									contactSurface = result.getTriangle(null);
+									result.getTriangle(contactSurface);
 									contactSurface.calculateNormal();
 									normal.set(contactSurface.getNormal());
 									twoDot = 2.0f*p.velocity.dot(normal);
 									two.set(twoDot,twoDot,twoDot);
-									reflect.set(two.mult(normal).subtract(p.velocity)).negateLocal().normalizeLocal();
+									reflect.set(two).multLocal(normal).subtractLocal(p.velocity).negateLocal().normalizeLocal();
 									len = p.velocity.length()*(restitution-0.1f)+(FastMath.nextRandomFloat()*0.2f);
 									p.velocity.set(reflect).multLocal(len);
 									p.collision = true;
@@ -99,7 +100,7 @@ public class PhysicsInfluencer implements ParticleInfluencer {
 	}
 	
 	private void updateCollisionShape(ParticleData p, float tpf) {
-		geom.setLocalTranslation(p.position.add(p.emitter.getLocalTranslation()));
+		geom.setLocalTranslation(translation.set(p.position).addLocal(p.emitter.getLocalTranslation()));
 		quat.fromAngles(p.angles.x,p.angles.y,p.angles.z);
 		geom.setLocalRotation(quat);
 		geom.setLocalScale(p.size);
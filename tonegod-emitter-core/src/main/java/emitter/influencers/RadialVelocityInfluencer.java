@@ -42,6 +42,7 @@ public class RadialVelocityInfluencer implements ParticleInfluencer {
 	private RadialPullCenter center = RadialPullCenter.Absolute;
 	private RadialUpAlignment upAlignment = RadialUpAlignment.UNIT_Y;
 	private Quaternion q = new Quaternion();
+	private Quaternion inverseRotation = new Quaternion();
 	
 	@Override
 	public void update(ParticleData p, float tpf) {
@@ -49,13 +50,10 @@ public class RadialVelocityInfluencer implements ParticleInfluencer {
 			switch (alignment) {
 				case Emission_Point:
 					p.emitter.getShape().setNext(p.triangleIndex);
-					if (p.emitter.getUseRandomEmissionPoint())
-						store.set(p.emitter.getShape().getNextTranslation().addLocal(p.randomOffset));
-					else
-						store.set(p.emitter.getShape().getNextTranslation());
+					store.set(p.emitter.getShape().getNextTranslation()).addLocal(p.randomOffset);
 					break;
 				case Emitter_Center:
-					store.set(p.emitter.getShape().getMesh().getBound().getCenter());
+					store.set(p.emitter.getSimulationSettings().shapeCenter);
 					break;
 			}
 			
@@ -77,7 +75,7 @@ public class RadialVelocityInfluencer implements ParticleInfluencer {
 			
 			switch (upAlignment) {
 				case Normal:
-					upStore.set(p.emitter.getLocalRotation().inverse().mult(upStore.set(p.emitter.getShape().getNormal())));
+					inverseRotation.set(p.emitter.getSimulationSettings().rotation).inverseLocal().multLocal(upStore.set(p.emitter.getShape().getNormal()));
 					break;
 				case UNIT_X:
 					upStore.set(Vector3f.UNIT_X);
@@ -91,12 +89,12 @@ public class RadialVelocityInfluencer implements ParticleInfluencer {
 			}
 			
 			up.set(store).crossLocal(upStore).normalizeLocal();
-			up.set(p.emitter.getLocalRotation().mult(up));
+			p.emitter.getSimulationSettings().rotation.multLocal(up);
 			left.set(store).crossLocal(up).normalizeLocal();
 
 			tangent.set(store).crossLocal(left).normalizeLocal().multLocal(p.tangentForce).multLocal(tpf);
 			p.velocity.subtractLocal(tangent);
-			p.velocity.addLocal(store.mult(radialPull));
+			p.velocity.addLocal(store.x*radialPull, store.y*radialPull, store.z*radialPull);
 		}
 	}
 	
@@ -11,6 +11,7 @@ import com.jme3.util.SafeArrayList;
 import java.io.IOException;
 import emitter.Interpolation;
 import emitter.particle.ParticleData;
+import emitter.particle.ParticleStore;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -19,7 +20,7 @@ import java.util.Map;
  *
  * @author t0neg0d
  */
-public class RotationInfluencer implements ParticleInfluencer {
+public class RotationInfluencer implements ParticleStoreInfluencer {
 	private SafeArrayList<Vector3f> speeds = new SafeArrayList(Vector3f.class);
 	private SafeArrayList<Interpolation> interpolations = new SafeArrayList(Interpolation.class);
 	private boolean initialized = false;
@@ -52,10 +53,69 @@ public class RotationInfluencer implements ParticleInfluencer {
 				
 				p.rotationSpeed.interpolateLocal(p.startRotationSpeed, p.endRotationSpeed, blend);
 			}
-			p.angles.addLocal(p.rotationSpeed.mult(tpf));
+			p.angles.addLocal(p.rotationSpeed.x*tpf, p.rotationSpeed.y*tpf, p.rotationSpeed.z*tpf);
 		}
 	}
 
+	@Override
+	public void update(ParticleStore store, int[] live, int from, int to, float tpf) {
+		if (enabled) {
+			boolean interpolate = speeds.size() > 1;
+			for (int k = from; k < to; k++) {
+				int i = live[k];
+				if (interpolate) {
+					store.rotationInterval[i] += tpf;
+					if (store.rotationInterval[i] >= store.rotationDuration[i])
+						updateRotation(store, i);
+					
+					float b = store.rotationInterpolation[i].apply(store.rotationInterval[i]/store.rotationDuration[i]);
+					float ib = 1f - b;
+					
+					store.rotationSpeedX[i] = ib * store.startRotationSpeedX[i] + b * store.endRotationSpeedX[i];
+					store.rotationSpeedY[i] = ib * store.startRotationSpeedY[i] + b * store.endRotationSpeedY[i];
+					store.rotationSpeedZ[i] = ib * store.startRotationSpeedZ[i] + b * store.endRotationSpeedZ[i];
+				}
+				store.anglesX[i] += store.rotationSpeedX[i] * tpf;
+				store.anglesY[i] += store.rotationSpeedY[i] * tpf;
+				store.anglesZ[i] += store.rotationSpeedZ[i] * tpf;
+			}
+		}
+	}
+	
+	private void updateRotation(ParticleStore store, int i) {
+		store.rotationIndex[i]++;
+		if (!cycle) {
+			if (store.rotationIndex[i] == speeds.size()-1)
+				store.rotationIndex[i] = 0;
+		} else {
+			if (store.rotationIndex[i] == speeds.size())
+				store.rotationIndex[i] = 0;
+		}
+		
+		Vector3f[] s = speeds.getArray();
+		int index = store.rotationIndex[i];
+		Vector3f start = s[index];
+		Vector3f end = s[index+1 == s.length ? 0 : index+1];
+		
+		store.startRotationSpeedX[i] = getRotationSpeed(start.x, store.rotateDirectionX[i]);
+		store.startRotationSpeedY[i] = getRotationSpeed(start.y, store.rotateDirectionY[i]);
+		store.startRotationSpeedZ[i] = getRotationSpeed(start.z, store.rotateDirectionZ[i]);
+		store.endRotationSpeedX[i] = getRotationSpeed(end.x, store.rotateDirectionX[i]);
+		store.endRotationSpeedY[i] = getRotationSpeed(end.y, store.rotateDirectionY[i]);
+		store.endRotationSpeedZ[i] = getRotationSpeed(end.z, store.rotateDirectionZ[i]);
+		
+		store.rotationInterpolation[i] = interpolations.getArray()[index];
+		store.rotationInterval[i] -= store.rotationDuration[i];
+	}
+	
+	private float getRotationSpeed(float speed, boolean rotateDirection) {
+		if (useRandomSpeed)
+			speed *= FastMath.nextRandomFloat();
+		if (useRandomDirection && !rotateDirection)
+			speed = -speed;
+		return speed;
+	}
+	
 	private void updateRotation(ParticleData p) {
 		p.rotationIndex++;
 		if (!cycle) {
@@ -284,6 +344,12 @@ public class RotationInfluencer implements ParticleInfluencer {
 		}
 	}
 
+	@Override
+	public boolean isThreadSafe() {
+		// Random speeds are drawn when a particle moves to its next speed
+		return !useRandomSpeed || speeds.size() < 2;
+	}
+	
 	@Override
 	public Class getInfluencerClass() {
 		return RotationInfluencer.class;
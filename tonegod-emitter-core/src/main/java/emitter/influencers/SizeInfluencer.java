@@ -11,6 +11,7 @@ import com.jme3.util.SafeArrayList;
 import java.io.IOException;
 import emitter.Interpolation;
 import emitter.particle.ParticleData;
+import emitter.particle.ParticleStore;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -19,7 +20,7 @@ import java.util.Map;
  *
  * @author t0neg0d
  */
-public class SizeInfluencer implements ParticleInfluencer {
+public class SizeInfluencer implements ParticleStoreInfluencer {
 	private SafeArrayList<Vector3f> sizes = new SafeArrayList(Vector3f.class);
 	private SafeArrayList<Interpolation> interpolations = new SafeArrayList(Interpolation.class);
 	private boolean initialized = false;
@@ -47,6 +48,62 @@ public class SizeInfluencer implements ParticleInfluencer {
 		}
 	}
 	
+	@Override
+	public void update(ParticleStore store, int[] live, int from, int to, float tpf) {
+		if (enabled) {
+			for (int k = from; k < to; k++) {
+				int i = live[k];
+				store.sizeInterval[i] += tpf;
+				if (store.sizeInterval[i] >= store.sizeDuration[i]) {
+					store.sizeIndex[i]++;
+					if (store.sizeIndex[i] == sizes.size()-1)
+						store.sizeIndex[i] = 0;
+					getNextSizeRange(store, i);
+					store.sizeInterpolation[i] = interpolations.getArray()[store.sizeIndex[i]];
+					store.sizeInterval[i] -= store.sizeDuration[i];
+				}
+				
+				float b = store.sizeInterpolation[i].apply(store.sizeInterval[i]/store.sizeDuration[i]);
+				float ib = 1f - b;
+				
+				store.sizeX[i] = ib * store.startSizeX[i] + b * store.endSizeX[i];
+				store.sizeY[i] = ib * store.startSizeY[i] + b * store.endSizeY[i];
+				store.sizeZ[i] = ib * store.startSizeZ[i] + b * store.endSizeZ[i];
+			}
+		}
+	}
+	
+	private void getNextSizeRange(ParticleStore store, int i) {
+		Vector3f[] s = sizes.getArray();
+		int index = store.sizeIndex[i];
+		if (index == 0) {
+			float f = useRandomSize ? 1f - randomSizeTolerance + randomSizeTolerance*FastMath.nextRandomFloat() : 1f;
+			store.startSizeX[i] = s[index].x * f;
+			store.startSizeY[i] = s[index].y * f;
+			store.startSizeZ[i] = s[index].z * f;
+		} else {
+			store.startSizeX[i] = store.endSizeX[i];
+			store.startSizeY[i] = store.endSizeY[i];
+			store.startSizeZ[i] = store.endSizeZ[i];
+		}
+		
+		if (s.length > 1) {
+			Vector3f end = (index == s.length-1) ? s[0] : s[index+1];
+			float f = useRandomSize ? 1f - randomSizeTolerance + randomSizeTolerance*FastMath.nextRandomFloat() : 1f;
+			store.endSizeX[i] = end.x * f;
+			store.endSizeY[i] = end.y * f;
+			store.endSizeZ[i] = end.z * f;
+		} else {
+			store.endSizeX[i] = store.startSizeX[i];
+			store.endSizeY[i] = store.startSizeY[i];
+			store.endSizeZ[i] = store.startSizeZ[i];
+		}
+		
+		store.sizeX[i] = store.startSizeX[i];
+		store.sizeY[i] = store.startSizeY[i];
+		store.sizeZ[i] = store.startSizeZ[i];
+	}
+	
 	private void updateSize(ParticleData p) {
 		p.sizeIndex++;
 		if (p.sizeIndex == sizes.size()-1)
@@ -247,6 +304,11 @@ public class SizeInfluencer implements ParticleInfluencer {
 		return this.enabled;
 	}
 
+	@Override
+	public boolean isThreadSafe() {
+		return !useRandomSize;
+	}
+	
 	@Override
 	public Class getInfluencerClass() {
 		return SizeInfluencer.class;
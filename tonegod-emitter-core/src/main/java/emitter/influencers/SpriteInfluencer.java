@@ -38,18 +38,18 @@ public class SpriteInfluencer implements ParticleInfluencer {
 	private void updateFrame(ParticleData p) {
 		if (frameSequence == null) {
 			p.spriteCol++;
-			if (p.spriteCol == p.emitter.getSpriteColCount()) {
+			if (p.spriteCol == p.emitter.getSimulationSettings().spriteCols) {
 				p.spriteCol = 0;
 				p.spriteRow++;
-				if (p.spriteRow == p.emitter.getSpriteRowCount())
+				if (p.spriteRow == p.emitter.getSimulationSettings().spriteRows)
 					p.spriteRow = 0;
 			}
 		} else {
 			p.spriteIndex++;
 			if (p.spriteIndex == frameSequence.length)
 				p.spriteIndex = 0;
-			p.spriteRow = (int)FastMath.floor(frameSequence[p.spriteIndex]/p.emitter.getSpriteRowCount())-2;
-			p.spriteCol = (int)frameSequence[p.spriteIndex]%p.emitter.getSpriteColCount();
+			p.spriteRow = (int)FastMath.floor(frameSequence[p.spriteIndex]/p.emitter.getSimulationSettings().spriteRows)-2;
+			p.spriteCol = (int)frameSequence[p.spriteIndex]%p.emitter.getSimulationSettings().spriteCols;
 		}
 		p.spriteInterval -= targetInterval;
 	}
@@ -57,26 +57,26 @@ public class SpriteInfluencer implements ParticleInfluencer {
 	@Override
 	public void initialize(ParticleData p) {
 		if (totalFrames == -1) {
-			totalFrames = p.emitter.getSpriteColCount()*p.emitter.getSpriteRowCount();
+			totalFrames = p.emitter.getSimulationSettings().spriteCols*p.emitter.getSimulationSettings().spriteRows;
 			if (totalFrames == 1) setAnimate(false);
 		}
 		if (useRandomImage) {
 			if (frameSequence == null) {
 				p.spriteIndex = FastMath.nextRandomInt(0,totalFrames-1);
-				p.spriteRow = (int)FastMath.floor(p.spriteIndex/p.emitter.getSpriteRowCount())-1;
-				p.spriteCol = (int)p.spriteIndex%p.emitter.getSpriteColCount();
+				p.spriteRow = (int)FastMath.floor(p.spriteIndex/p.emitter.getSimulationSettings().spriteRows)-1;
+				p.spriteCol = (int)p.spriteIndex%p.emitter.getSimulationSettings().spriteCols;
 			//	p.spriteCol = FastMath.nextRandomInt(0,frameSequence.length-1);
 			//	p.spriteRow = FastMath.nextRandomInt(0,frameSequence.length-1);
 			} else {
 				p.spriteIndex = FastMath.nextRandomInt(0,frameSequence.length-1);
-				p.spriteRow = (int)FastMath.floor(frameSequence[p.spriteIndex]/p.emitter.getSpriteRowCount())-1;
-				p.spriteCol = (int)frameSequence[p.spriteIndex]%p.emitter.getSpriteColCount();
+				p.spriteRow = (int)FastMath.floor(frameSequence[p.spriteIndex]/p.emitter.getSimulationSettings().spriteRows)-1;
+				p.spriteCol = (int)frameSequence[p.spriteIndex]%p.emitter.getSimulationSettings().spriteCols;
 			}
 		} else {
 			if (frameSequence != null) {
 				p.spriteIndex = frameSequence[0];
-				p.spriteRow = (int)FastMath.floor(frameSequence[p.spriteIndex]/p.emitter.getSpriteRowCount())-2;
-				p.spriteCol = (int)frameSequence[p.spriteIndex]%p.emitter.getSpriteColCount();
+				p.spriteRow = (int)FastMath.floor(frameSequence[p.spriteIndex]/p.emitter.getSimulationSettings().spriteRows)-2;
+				p.spriteCol = (int)frameSequence[p.spriteIndex]%p.emitter.getSimulationSettings().spriteCols;
 			} else {
 				p.spriteIndex = 0;
 				p.spriteRow = 0;
@@ -0,0 +1,279 @@
+package emitter.particle;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import emitter.Emitter;
+import emitter.Emitter.BillboardMode;
+
+/**
+ * Computes the up, left and dir vectors a particle is drawn along for the emitter's
+ * billboard mode.  The kernel for the mode is chosen once when the mode changes, the
+ * camera vectors are read once per frame and the emitter shape normal is the one each
+ * particle was emitted with.
+ */
+public class BillboardBasis {
+	private static final float COS_90 = FastMath.cos(FastMath.HALF_PI);
+	private static final float SIN_90 = FastMath.sin(FastMath.HALF_PI);
+	private static final float SIN_45 = FastMath.sin(FastMath.QUARTER_PI);
+	private static final float COS_45 = FastMath.cos(FastMath.QUARTER_PI);
+
+	/** Particle up vector, half the quad height once oriented */
+	public final Vector3f up = new Vector3f();
+	/** Particle left vector, half the quad width once oriented */
+	public final Vector3f left = new Vector3f();
+	/** Particle facing direction */
+	public final Vector3f dir = new Vector3f();
+	/** The rotation applied on top of the velocity frame by the Velocity_Z_Up modes, identity otherwise */
+	public final Quaternion rotation = new Quaternion();
+
+	private final Emitter emitter;
+	private BillboardMode mode;
+	private Kernel kernel;
+	private final Vector3f camUp = new Vector3f(), camLeft = new Vector3f(), camDir = new Vector3f();
+	private final Vector3f axis = new Vector3f();
+	private final Vector3f lock = new Vector3f(0,0.99f,0.01f);
+
+	public BillboardBasis(Emitter emitter) {
+		this.emitter = emitter;
+	}
+
+	/**
+	 * Prepares the basis for a new frame, must be called before the first particle is computed
+	 * @param cam The camera the particles are rendered for
+	 */
+	public void begin(Camera cam) {
+		BillboardMode current = emitter.getBillboardMode();
+		if (current != mode || kernel == null) {
+			mode = current;
+			kernel = select(current);
+		}
+		cam.getUp(camUp);
+		cam.getLeft(camLeft);
+		cam.getDirection(camDir);
+	}
+
+	/**
+	 * Computes the unscaled up, left and dir vectors of a particle
+	 * @param velocity The particle velocity
+	 * @param normal The emitter shape normal the particle was emitted with
+	 */
+	public void compute(Vector3f velocity, Vector3f normal) {
+		kernel.compute(velocity, normal);
+	}
+
+	/**
+	 * Stretches, sizes and rotates the basis computed by {@link #compute(Vector3f, Vector3f)}
+	 * @param velocity The particle velocity
+	 * @param sizeX The particle width
+	 * @param sizeY The particle height
+	 * @param angles The particle rotation about left (y), up (x) and dir (z)
+	 */
+	public void orient(Vector3f velocity, float sizeX, float sizeY, Vector3f angles) {
+		if (emitter.getUseVelocityStretching()) {
+			up.multLocal(velocity.length()*emitter.getVelocityStretchFactor());
+		}
+
+		up.multLocal(sizeY);
+		left.multLocal(sizeX);
+
+		// rotating about left leaves left in place, rotating about up leaves up in place
+		if (angles.y != 0) {
+			axis.set(left).normalizeLocal();
+			rotate(up, axis, FastMath.cos(angles.y), FastMath.sin(angles.y));
+		}
+		if (angles.x != 0) {
+			axis.set(up).normalizeLocal();
+			rotate(left, axis, FastMath.cos(angles.x), FastMath.sin(angles.x));
+		}
+		if (angles.z != 0) {
+			axis.set(dir).normalizeLocal();
+			float c = FastMath.cos(angles.z), s = FastMath.sin(angles.z);
+			rotate(left, axis, c, s);
+			rotate(up, axis, c, s);
+		}
+	}
+
+	/**
+	 * Rotates v in place about the unit length axis given the cosine and sine of the angle
+	 */
+	static void rotate(Vector3f v, Vector3f axis, float c, float s) {
+		if (axis.x == 0 && axis.y == 0 && axis.z == 0)
+			return;
+		float kx = axis.x, ky = axis.y, kz = axis.z;
+		float dot = (kx*v.x + ky*v.y + kz*v.z)*(1f-c);
+		float x = v.x*c + (ky*v.z - kz*v.y)*s + kx*dot;
+		float y = v.y*c + (kz*v.x - kx*v.z)*s + ky*dot;
+		float z = v.z*c + (kx*v.y - ky*v.x)*s + kz*dot;
+		v.set(x, y, z);
+	}
+
+	private Kernel select(BillboardMode mode) {
+		switch (mode) {
+			case Velocity:
+				return velocityKernel;
+			case Velocity_Z_Up:
+				return velocityZUp;
+			case Velocity_Z_Up_Y_Left:
+				return velocityZUpYLeft;
+			case Normal:
+				return normalKernel;
+			case Normal_Y_Up:
+				return normalYUp;
+			case Oriented_Self:
+				return orientedSelf;
+			// the oriented common kernel was never finished and renders as UNIT_X
+			case Oriented_Common:
+				return unitX;
+			case UNIT_X:
+				return unitX;
+			case UNIT_Y:
+				return unitY;
+			case UNIT_Z:
+				return unitZ;
+			// Perpendicular_Common is not implemented, face the camera
+			default:
+				return camera;
+		}
+	}
+
+	/**
+	 * Builds the frame following the velocity
+	 */
+	private void velocityFrame(Vector3f velocity) {
+		if (velocity.x != Vector3f.UNIT_Y.x &&
+			velocity.y != Vector3f.UNIT_Y.y &&
+			velocity.z != Vector3f.UNIT_Y.z)
+			up.set(velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
+		else
+			up.set(velocity).crossLocal(lock).normalizeLocal();
+		left.set(velocity).crossLocal(up).normalizeLocal();
+		dir.set(velocity);
+	}
+
+	/**
+	 * Sets rotation to a quarter turn about the unit length axis
+	 */
+	private void quarterTurn(Vector3f axis, boolean negative) {
+		float s = negative ? -SIN_45 : SIN_45;
+		if (axis.x == 0 && axis.y == 0 && axis.z == 0)
+			rotation.loadIdentity();
+		else
+			rotation.set(axis.x*s, axis.y*s, axis.z*s, COS_45);
+	}
+
+	private abstract class Kernel {
+		abstract void compute(Vector3f velocity, Vector3f normal);
+	}
+
+	private final Kernel velocityKernel = new Kernel() {
+		@Override
+		void compute(Vector3f velocity, Vector3f normal) {
+			rotation.loadIdentity();
+			velocityFrame(velocity);
+		}
+	};
+
+	private final Kernel velocityZUp = new Kernel() {
+		@Override
+		void compute(Vector3f velocity, Vector3f normal) {
+			velocityFrame(velocity);
+			// -90 degrees about left, left stays in place
+			axis.set(left).normalizeLocal();
+			quarterTurn(axis, true);
+			rotate(up, axis, COS_90, -SIN_90);
+		}
+	};
+
+	private final Kernel velocityZUpYLeft = new Kernel() {
+		@Override
+		void compute(Vector3f velocity, Vector3f normal) {
+			up.set(velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
+			left.set(velocity).crossLocal(up).normalizeLocal();
+			dir.set(velocity);
+			// 90 degrees about the velocity, then -90 degrees about the new left
+			axis.set(velocity).normalizeLocal();
+			rotate(left, axis, COS_90, SIN_90);
+			rotate(up, axis, COS_90, SIN_90);
+			axis.set(left).normalizeLocal();
+			quarterTurn(axis, true);
+			rotate(up, axis, COS_90, -SIN_90);
+		}
+	};
+
+	private final Kernel normalKernel = new Kernel() {
+		@Override
+		void compute(Vector3f velocity, Vector3f normal) {
+			rotation.loadIdentity();
+			up.set(normal).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
+			left.set(normal).crossLocal(up).normalizeLocal();
+			dir.set(normal);
+		}
+	};
+
+	private final Kernel normalYUp = new Kernel() {
+		@Override
+		void compute(Vector3f velocity, Vector3f normal) {
+			rotation.loadIdentity();
+			up.set(Vector3f.UNIT_Y);
+			left.set(velocity).crossLocal(up).normalizeLocal();
+			dir.set(velocity);
+		}
+	};
+
+	private final Kernel camera = new Kernel() {
+		@Override
+		void compute(Vector3f velocity, Vector3f normal) {
+			rotation.loadIdentity();
+			up.set(camUp);
+			left.set(camLeft);
+			dir.set(camDir);
+		}
+	};
+
+	private final Kernel orientedSelf = new Kernel() {
+		@Override
+		void compute(Vector3f velocity, Vector3f normal) {
+			rotation.loadIdentity();
+			if (velocity.x != Vector3f.UNIT_Y.x &&
+				velocity.y != Vector3f.UNIT_Y.y &&
+				velocity.z != Vector3f.UNIT_Y.z)
+				up.set(velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
+			else
+				up.set(velocity).crossLocal(lock).normalizeLocal();
+			left.set(camDir).crossLocal(up).normalizeLocal();
+			dir.set(velocity);
+		}
+	};
+
+	private final Kernel unitX = new Kernel() {
+		@Override
+		void compute(Vector3f velocity, Vector3f normal) {
+			rotation.loadIdentity();
+			up.set(Vector3f.UNIT_Y);
+			left.set(Vector3f.UNIT_Z);
+			dir.set(Vector3f.UNIT_X);
+		}
+	};
+
+	private final Kernel unitY = new Kernel() {
+		@Override
+		void compute(Vector3f velocity, Vector3f normal) {
+			rotation.loadIdentity();
+			up.set(Vector3f.UNIT_Z);
+			left.set(Vector3f.UNIT_X);
+			dir.set(Vector3f.UNIT_Y);
+		}
+	};
+
+	private final Kernel unitZ = new Kernel() {
+		@Override
+		void compute(Vector3f velocity, Vector3f normal) {
+			rotation.loadIdentity();
+			up.set(Vector3f.UNIT_X);
+			left.set(Vector3f.UNIT_Y);
+			dir.set(Vector3f.UNIT_Z);
+		}
+	};
+}
@@ -0,0 +1,165 @@
+package emitter.particle;
+
+import com.jme3.math.Vector3f;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Typed per-particle storage for influencers.  Each channel is claimed once by name
+ * and addressed through the returned handle, and its values live in a primitive
+ * array indexed by particle slot, so reading or writing a value neither hashes a
+ * key nor boxes the value.
+ *
+ * Handles stay valid when the emitter's particle count changes, but the channel
+ * values are cleared to 0.
+ */
+public class ParticleAttributes {
+	private int capacity = 0;
+	private final List<String> floatNames = new ArrayList<String>();
+	private final List<String> intNames = new ArrayList<String>();
+	private final List<String> vectorNames = new ArrayList<String>();
+	private float[][] floats = new float[0][];
+	private int[][] ints = new int[0][];
+	private float[][] vectors = new float[0][];
+
+	/**
+	 * Claims a float channel.  Registering an existing name returns the existing handle.
+	 * @param name The channel name
+	 * @return The channel handle
+	 */
+	public int registerFloat(String name) {
+		int handle = floatNames.indexOf(name);
+		if (handle == -1) {
+			handle = floatNames.size();
+			floatNames.add(name);
+			floats = grow(floats, capacity);
+		}
+		return handle;
+	}
+
+	/**
+	 * Claims an int channel.  Registering an existing name returns the existing handle.
+	 * @param name The channel name
+	 * @return The channel handle
+	 */
+	public int registerInt(String name) {
+		int handle = intNames.indexOf(name);
+		if (handle == -1) {
+			handle = intNames.size();
+			intNames.add(name);
+			int[][] grown = new int[handle+1][];
+			System.arraycopy(ints, 0, grown, 0, handle);
+			grown[handle] = new int[capacity];
+			ints = grown;
+		}
+		return handle;
+	}
+
+	/**
+	 * Claims a Vector3f channel.  Registering an existing name returns the existing handle.
+	 * @param name The channel name
+	 * @return The channel handle
+	 */
+	public int registerVector3f(String name) {
+		int handle = vectorNames.indexOf(name);
+		if (handle == -1) {
+			handle = vectorNames.size();
+			vectorNames.add(name);
+			vectors = grow(vectors, capacity*3);
+		}
+		return handle;
+	}
+
+	private float[][] grow(float[][] channels, int length) {
+		float[][] grown = new float[channels.length+1][];
+		System.arraycopy(channels, 0, grown, 0, channels.length);
+		grown[channels.length] = new float[length];
+		return grown;
+	}
+
+	/**
+	 * Resizes all channels to hold the specified number of particles, clearing their values
+	 * @param capacity The number of particle slots
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+		for (int i = 0; i < floats.length; i++)
+			floats[i] = new float[capacity];
+		for (int i = 0; i < ints.length; i++)
+			ints[i] = new int[capacity];
+		for (int i = 0; i < vectors.length; i++)
+			vectors[i] = new float[capacity*3];
+	}
+
+	/**
+	 * Returns the number of particle slots held by each channel
+	 * @return
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	public float getFloat(int handle, int slot) {
+		return floats[handle][slot];
+	}
+
+	public void setFloat(int handle, int slot, float value) {
+		floats[handle][slot] = value;
+	}
+
+	public int getInt(int handle, int slot) {
+		return ints[handle][slot];
+	}
+
+	public void setInt(int handle, int slot, int value) {
+		ints[handle][slot] = value;
+	}
+
+	/**
+	 * Copies a Vector3f channel value into store
+	 * @param handle The channel handle
+	 * @param slot The particle slot
+	 * @param store The vector to copy into
+	 * @return store
+	 */
+	public Vector3f getVector3f(int handle, int slot, Vector3f store) {
+		float[] v = vectors[handle];
+		return store.set(v[slot*3], v[slot*3+1], v[slot*3+2]);
+	}
+
+	public void setVector3f(int handle, int slot, float x, float y, float z) {
+		float[] v = vectors[handle];
+		v[slot*3] = x;
+		v[slot*3+1] = y;
+		v[slot*3+2] = z;
+	}
+
+	/**
+	 * Returns the backing array of a float channel, indexed by particle slot, for
+	 * use by ParticleStore kernels
+	 * @param handle The channel handle
+	 * @return
+	 */
+	public float[] getFloatChannel(int handle) {
+		return floats[handle];
+	}
+
+	/**
+	 * Returns the backing array of an int channel, indexed by particle slot
+	 * @param handle The channel handle
+	 * @return
+	 */
+	public int[] getIntChannel(int handle) {
+		return ints[handle];
+	}
+
+	/**
+	 * Returns the backing array of a Vector3f channel.  The components of a slot are
+	 * stored at slot*3, slot*3+1 and slot*3+2.
+	 * @param handle The channel handle
+	 * @return
+	 */
+	public float[] getVector3fChannel(int handle) {
+		return vectors[handle];
+	}
+}
@@ -0,0 +1,155 @@
+package emitter.particle;
+
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Format;
+import com.jme3.scene.VertexBuffer.Usage;
+import java.lang.ref.WeakReference;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Reference counted cache of the static buffers particle meshes have in common.
+ * Index data and default texcoords depend only on the mesh type and the particle
+ * count, so every emitter with the same quota can use a single copy.
+ * <p>
+ * The meshes own the buffers, the cache only finds them.  A mesh holds each buffer it
+ * acquired until it releases it, and the entry is dropped once the last mesh using it
+ * releases it.  The cache itself references buffers weakly, so buffers of meshes that are
+ * garbage collected without releasing them are dropped as well.
+ */
+public final class ParticleBufferCache {
+	/**
+	 * Fills a shared buffer.  A builder identifies the kind of buffer, so meshes must
+	 * use a single instance per kind, typically held in a static field.
+	 */
+	public static abstract class Builder {
+		private final VertexBuffer.Type type;
+		private final int components;
+
+		public Builder(VertexBuffer.Type type, int components) {
+			this.type = type;
+			this.components = components;
+		}
+
+		/**
+		 * Creates and fills the buffer for the specified number of particles
+		 * @param numParticles The particle count
+		 * @return The flipped buffer
+		 */
+		public abstract Buffer build(int numParticles);
+	}
+
+	private static class Key {
+		private final Builder builder;
+		private final int numParticles;
+
+		Key(Builder builder, int numParticles) {
+			this.builder = builder;
+			this.numParticles = numParticles;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key)o;
+			return k.builder == builder && k.numParticles == numParticles;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(builder) * 31 + numParticles;
+		}
+	}
+
+	private static class Entry {
+		private final WeakReference<VertexBuffer> buffer;
+		private int refCount = 0;
+
+		Entry(VertexBuffer buffer) {
+			this.buffer = new WeakReference<VertexBuffer>(buffer);
+		}
+	}
+
+	private static final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+	private ParticleBufferCache() {  }
+
+	/**
+	 * Returns the shared buffer built by builder for numParticles particles, building it
+	 * on first use.  Each call must be matched by a call to release.
+	 * @param builder The builder of the buffer
+	 * @param numParticles The particle count
+	 * @return The shared static VertexBuffer
+	 */
+	public static synchronized VertexBuffer acquire(Builder builder, int numParticles) {
+		purge();
+		Key key = new Key(builder, numParticles);
+		Entry entry = entries.get(key);
+		VertexBuffer vb = entry == null ? null : entry.buffer.get();
+		if (vb == null) {
+			Buffer data = builder.build(numParticles);
+			vb = new VertexBuffer(builder.type);
+			vb.setupData(Usage.Static, builder.components, getFormat(data), data);
+			entry = new Entry(vb);
+			entries.put(key, entry);
+		}
+		entry.refCount++;
+		return vb;
+	}
+
+	/**
+	 * Drops a reference to a shared buffer.  Releasing null or a buffer not held by the
+	 * cache has no effect.
+	 * @param buffer The buffer returned by acquire
+	 */
+	public static synchronized void release(VertexBuffer buffer) {
+		if (buffer == null)
+			return;
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (entry.buffer.get() == buffer) {
+				if (--entry.refCount == 0)
+					it.remove();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of buffers currently shared
+	 * @return
+	 */
+	public static synchronized int size() {
+		purge();
+		return entries.size();
+	}
+
+	/**
+	 * Drops the entries of buffers that were garbage collected
+	 */
+	private static void purge() {
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().buffer.get() == null)
+				it.remove();
+		}
+	}
+
+	private static Format getFormat(Buffer data) {
+		if (data instanceof FloatBuffer)
+			return Format.Float;
+		else if (data instanceof IntBuffer)
+			return Format.UnsignedInt;
+		else if (data instanceof ShortBuffer)
+			return Format.UnsignedShort;
+		else
+			return Format.UnsignedByte;
+	}
+}
@@ -7,6 +7,7 @@ import java.util.HashMap;
 import java.util.Map;
 import emitter.Emitter;
 import emitter.Interpolation;
+import emitter.SimulationSettings;
 import emitter.influencers.ParticleInfluencer;
 
 /**
@@ -47,7 +48,14 @@ public class ParticleData {
 	 */
 	public final Vector3f emitterPosition = new Vector3f();
 	public final Vector3f initialPosition = new Vector3f();
+	/**
+	 * The offset of the particle's emission point from the emission point of its face
+	 */
 	public final Vector3f randomOffset = new Vector3f();
+	/**
+	 * The emitter shape's surface normal at the particle's emission point
+	 */
+	public final Vector3f emissionNormal = new Vector3f();
     
 	/**
 	 * The parent particle emitter
@@ -161,16 +169,20 @@ public class ParticleData {
 	public float collisionInterval = 0;
 	
 	/**
-	 * A strage facility for per-particle data used by influencers
+	 * A strage facility for per-particle data used by influencers.  Allocated on first use.
 	 */
-	Map<String,Object> data = new HashMap();
+	Map<String,Object> data;
 	
 	/**
-	 * Sets data to store with the particle
+	 * Sets data to store with the particle.  This hashes the key and boxes primitive
+	 * values on every call, influencers should prefer the typed channels of
+	 * {@link ParticleAttributes}.
 	 * @param key The data's map key
 	 * @param data The data
 	 */
 	public void setData(String key, Object data) {
+		if (this.data == null)
+			this.data = new HashMap();
 		this.data.put(key, data);
 	}
 	
@@ -180,18 +192,74 @@ public class ParticleData {
 	 * @return The data
 	 */
 	public Object getData(String key) {
-		return this.data.get(key);
+		return this.data == null ? null : this.data.get(key);
+	}
+	
+	/**
+	 * Returns the particle's value of a float attribute channel
+	 * @param handle The handle returned by {@link ParticleAttributes#registerFloat(String)}
+	 * @return 
+	 */
+	public float getFloat(int handle) {
+		return emitter.getParticleAttributes().getFloat(handle, index);
+	}
+	
+	/**
+	 * Sets the particle's value of a float attribute channel
+	 * @param handle The handle returned by {@link ParticleAttributes#registerFloat(String)}
+	 * @param value The new value
+	 */
+	public void setFloat(int handle, float value) {
+		emitter.getParticleAttributes().setFloat(handle, index, value);
+	}
+	
+	/**
+	 * Returns the particle's value of an int attribute channel
+	 * @param handle The handle returned by {@link ParticleAttributes#registerInt(String)}
+	 * @return 
+	 */
+	public int getInt(int handle) {
+		return emitter.getParticleAttributes().getInt(handle, index);
+	}
+	
+	/**
+	 * Sets the particle's value of an int attribute channel
+	 * @param handle The handle returned by {@link ParticleAttributes#registerInt(String)}
+	 * @param value The new value
+	 */
+	public void setInt(int handle, int value) {
+		emitter.getParticleAttributes().setInt(handle, index, value);
+	}
+	
+	/**
+	 * Copies the particle's value of a Vector3f attribute channel into store
+	 * @param handle The handle returned by {@link ParticleAttributes#registerVector3f(String)}
+	 * @param store The vector to copy into
+	 * @return store
+	 */
+	public Vector3f getVector3f(int handle, Vector3f store) {
+		return emitter.getParticleAttributes().getVector3f(handle, index, store);
+	}
+	
+	/**
+	 * Copies value into the particle's entry of a Vector3f attribute channel
+	 * @param handle The handle returned by {@link ParticleAttributes#registerVector3f(String)}
+	 * @param value The new value
+	 */
+	public void setVector3f(int handle, Vector3f value) {
+		emitter.getParticleAttributes().setVector3f(handle, index, value.x, value.y, value.z);
 	}
 	
 	public void update(float tpf) {
-		if (!emitter.getUseStaticParticles()) {
+		SimulationSettings settings = emitter.getSimulationSettings();
+		if (!settings.useStaticParticles) {
 			life -= tpf;
 			if (life <= 0) {
-				reset();
+				emitter.killParticle(this);
 				return;
 			}
 			blend = 1.0f * (startlife-life) / startlife;
-			interpBlend = emitter.getInterpolation().apply(blend);
+			interpBlend = settings.interpolation.apply(blend);
 		}
 		for (ParticleInfluencer influencer : emitter.getInfluencers()) {
 			influencer.update(this, tpf);
@@ -201,13 +269,9 @@ public class ParticleData {
 		position.addLocal(tempV3);
 		
 		// TODO: Test this!
-		if (emitter.getUseStaticParticles()) {
+		if (settings.useStaticParticles) {
 			emitter.getShape().setNext(triangleIndex);
-			if (emitter.getUseRandomEmissionPoint()) {
-				position.set(emitter.getShape().getNextTranslation().addLocal(randomOffset));
-			} else {
-				position.set(emitter.getShape().getNextTranslation());
-			}
+			position.set(emitter.getShape().getNextTranslation()).addLocal(randomOffset);
 		}
 	}
 	
@@ -215,71 +279,94 @@ public class ParticleData {
 	 * Called once per particle use when the particle is emitted
 	 */
 	public void initialize() {
+		initializeEmission();
+		for (ParticleInfluencer influencer : emitter.getInfluencers()) {
+			influencer.initialize(this);
+		}
+		finishInitialize();
+	}
+	
+	/**
+	 * First stage of initialize.  Sets the particle's life and force and places it on
+	 * the next face of the emitter shape.
+	 */
+	public void initializeEmission() {
 		emitter.incActiveParticleCount();
 		active = true;
 		blend = 0;
 		size.set(0,0,0);
-		if (emitter.getLifeMin() != emitter.getLifeMax())
-			startlife = (emitter.getLifeMax() - emitter.getLifeMin()) * FastMath.nextRandomFloat() + emitter.getLifeMin();
+		SimulationSettings settings = emitter.getSimulationSettings();
+		if (settings.lifeMin != settings.lifeMax)
+			startlife = (settings.lifeMax - settings.lifeMin) * FastMath.nextRandomFloat() + settings.lifeMin;
 		else
-			startlife = emitter.getLifeMax();
+			startlife = settings.lifeMax;
 		life = startlife;
-		if (emitter.getForceMin() != emitter.getForceMax())
-			force = (emitter.getForceMax() - emitter.getForceMin()) * FastMath.nextRandomFloat() + emitter.getForceMin();
+		if (settings.forceMin != settings.forceMax)
+			force = (settings.forceMax - settings.forceMin) * FastMath.nextRandomFloat() + settings.forceMin;
 		else
-			force = emitter.getForceMax();
+			force = settings.forceMax;
 		emitter.getShape().setNext();
 		triangleIndex = emitter.getShape().getTriangleIndex();
-		if (!emitter.getUseRandomEmissionPoint()) {
-			position.set(
-				emitter.getShape().getNextTranslation()
-			);
-		} else {
-			randomOffset.set(emitter.getShape().getRandomTranslation());
-			position.set(
-				emitter.getShape().getNextTranslation().add(randomOffset)
-			);
-		}
+		// keep the point and normal, looking them up again by face would lose the offset
+		randomOffset.set(emitter.getShape().getRandomTranslation());
+		position.set(
+			emitter.getShape().getNextTranslation()
+		).addLocal(randomOffset);
+		emissionNormal.set(emitter.getShape().getNormal());
 		velocity.set(
 			emitter.getShape().getNextDirection()
 		).normalizeLocal().multLocal(force);
 		
 		initialLength = velocity.length();
 		initialPosition.set(
-			emitter.getEmitterNode().getWorldTranslation()
+			settings.translation
 		);
 	//	spriteIndex = 0;
 	//	spriteCol = 0;
 	//	spriteRow = 0;
-		
-		for (ParticleInfluencer influencer : emitter.getInfluencers()) {
-			influencer.initialize(this);
-		}
-		
-		switch (emitter.getParticleEmissionPoint()) {
+	}
+	
+	/**
+	 * Last stage of initialize, run once the influencers have been initialized.
+	 * Offsets the particle for the emission point and publishes it to the ParticleStore.
+	 * Reads the particle's own emission normal, so other particles may have been placed
+	 * on the emitter shape since initializeEmission was called.
+	 */
+	public void finishInitialize() {
+		switch (emitter.getSimulationSettings().particleEmissionPoint) {
 			case Particle_Edge_Bottom:
-				tempV3.set(emitter.getShape().getNextDirection()).normalizeLocal();
+				tempV3.set(emitter.getShape().getNextDirection(emissionNormal)).normalizeLocal();
 				tempV3.multLocal(startSize.getY());
 				position.addLocal(tempV3);
 				break;
 			case Particle_Edge_Top:
-				tempV3.set(emitter.getShape().getNextDirection()).normalizeLocal();
+				tempV3.set(emitter.getShape().getNextDirection(emissionNormal)).normalizeLocal();
 				tempV3.multLocal(startSize.getY());
 				position.subtractLocal(tempV3);
 				break;
 		}
+		
+		previousPosition.set(position);
+		
+		if (emitter.getParticleStore() != null)
+			emitter.getParticleStore().copyFrom(this, index);
 	}
 	
 	/**
 	 * Called once per particle use when the particle finishes it's life cycle
 	 */
 	public void reset() {
+		ParticleStore store = emitter.getParticleStore();
+		if (store != null)
+			store.copyTo(index, this);
 		active = false;
 		if (emitter.getActiveParticleCount() > 0)
 			emitter.decActiveParticleCount();
 		for (ParticleInfluencer influencer : emitter.getInfluencers()) {
 			influencer.reset(this);
 		}
+		if (store != null)
+			store.copyFrom(this, index);
 		emitter.setNextIndex(index);
 	}
 }
\ No newline at end of file
@@ -2,7 +2,6 @@ package emitter.particle;
 
 import com.jme3.math.FastMath;
 import com.jme3.math.Matrix3f;
-import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
 import com.jme3.scene.Mesh;
@@ -10,35 +9,32 @@ import com.jme3.scene.Node;
 import com.jme3.scene.VertexBuffer;
 import com.jme3.scene.VertexBuffer.Format;
 import com.jme3.scene.VertexBuffer.Usage;
+import com.jme3.scene.mesh.IndexBuffer;
 import com.jme3.util.BufferUtils;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 import emitter.Emitter;
-import static emitter.Emitter.BillboardMode.Camera;
-import static emitter.Emitter.BillboardMode.Normal;
-import static emitter.Emitter.BillboardMode.Normal_Y_Up;
-import static emitter.Emitter.BillboardMode.UNIT_X;
-import static emitter.Emitter.BillboardMode.UNIT_Y;
-import static emitter.Emitter.BillboardMode.UNIT_Z;
-import static emitter.Emitter.BillboardMode.Velocity;
-import static emitter.Emitter.BillboardMode.Velocity_Z_Up;
-import static emitter.Emitter.BillboardMode.Velocity_Z_Up_Y_Left;
 
 /**
  *
  * @author t0neg0d
  */
 public class ParticleDataImpostorMesh extends ParticleDataMesh {
+	private static final float COS_66 = FastMath.cos(33f*2f*FastMath.DEG_TO_RAD);
+	private static final float SIN_66 = FastMath.sin(33f*2f*FastMath.DEG_TO_RAD);
 
     private int imagesX = 1;
     private int imagesY = 1;
     private boolean uniqueTexCoords = false;
+    private boolean spriteFrames = false;
     private Emitter emitter;
-	private Vector3f left = new Vector3f(), left33 = new Vector3f(), left66 = new Vector3f(), tempLeft = new Vector3f();
-	private Vector3f up = new Vector3f(), tempUp = new Vector3f();
-	private Vector3f dir = new Vector3f();
+	private BillboardBasis basis;
+	private Vector3f left33 = new Vector3f(), left66 = new Vector3f(), tempLeft = new Vector3f();
+	private Vector3f tempUp = new Vector3f();
 	private Vector3f tempV3 = new Vector3f();
+	private Vector3f emitterOffset = new Vector3f();
+	private Vector3f axisStore = new Vector3f();
 	private Vector3f temp1V3 = new Vector3f();
 	private Vector3f temp2V3 = new Vector3f();
 	private Vector3f temp3V3 = new Vector3f();
@@ -51,19 +47,63 @@ public class ParticleDataImpostorMesh extends ParticleDataMesh {
 	private Vector3f temp2bV3 = new Vector3f();
 	private Vector3f temp3bV3 = new Vector3f();
 	private Vector3f temp4bV3 = new Vector3f();
-	private Quaternion rotStore = new Quaternion();
-	private Quaternion tempQ = new Quaternion(), q33 = new Quaternion();
 	private Node tempN = new Node();
 	private int imgX, imgY;
 	private float startX, startY, endX, endY;
-	private Vector3f lock = new Vector3f(0,0.99f,0.01f);
 	private Vector3f tangUp = new Vector3f();
 	
+    private static final ParticleBufferCache.Builder TEXCOORDS = new ParticleBufferCache.Builder(VertexBuffer.Type.TexCoord, 2) {
+        @Override
+        public Buffer build(int numParticles) {
+            FloatBuffer tb = BufferUtils.createVector2Buffer(numParticles * 12);
+            for (int i = 0; i < numParticles; i++){
+                tb.put(0f).put(1f);
+                tb.put(1f).put(1f);
+                tb.put(0f).put(0f);
+                tb.put(1f).put(0f);
+                tb.put(0f).put(1f);
+                tb.put(1f).put(1f);
+                tb.put(0f).put(0f);
+                tb.put(1f).put(0f);
+                tb.put(0f).put(1f);
+                tb.put(1f).put(1f);
+                tb.put(0f).put(0f);
+                tb.put(1f).put(0f);
+            }
+            tb.flip();
+            return tb;
+        }
+    };
+    
+    private static final ParticleBufferCache.Builder INDICES = new ParticleBufferCache.Builder(VertexBuffer.Type.Index, 3) {
+        @Override
+        public Buffer build(int numParticles) {
+            IndexBuffer ib = IndexBuffer.createIndexBuffer(numParticles * 12, numParticles * 18);
+            int n = 0;
+            for (int i = 0; i < numParticles; i++){
+                int startIdx = (i * 12);
+
+                // one quad per plane
+                for (int j = 0; j < 12; j += 4) {
+                    ib.put(n++, startIdx + j + 1);
+                    ib.put(n++, startIdx + j + 0);
+                    ib.put(n++, startIdx + j + 2);
+
+                    ib.put(n++, startIdx + j + 1);
+                    ib.put(n++, startIdx + j + 2);
+                    ib.put(n++, startIdx + j + 3);
+                }
+            }
+            return ib.getBuffer();
+        }
+    };
+	
     @Override
     public void initParticleData(Emitter emitter, int numParticles) {
         setMode(Mode.Triangles);
 
         this.emitter = emitter;
+        this.basis = new BillboardBasis(emitter);
 
 //        particlesCopy = new ParticleData[numParticles];
 
@@ -92,82 +132,20 @@ public class ParticleDataImpostorMesh extends ParticleDataMesh {
         }
 
         // set texcoords
-        FloatBuffer tb = BufferUtils.createVector2Buffer(numParticles * 12);
         uniqueTexCoords = false;
-        for (int i = 0; i < numParticles; i++){
-            tb.put(0f).put(1f);
-            tb.put(1f).put(1f);
-            tb.put(0f).put(0f);
-            tb.put(1f).put(0f);
-            tb.put(0f).put(1f);
-            tb.put(1f).put(1f);
-            tb.put(0f).put(0f);
-            tb.put(1f).put(0f);
-            tb.put(0f).put(1f);
-            tb.put(1f).put(1f);
-            tb.put(0f).put(0f);
-            tb.put(1f).put(0f);
-        }
-        tb.flip();
-        
-        buf = getBuffer(VertexBuffer.Type.TexCoord);
-        if (buf != null) {
-            buf.updateData(tb);
-        } else {
-            VertexBuffer tvb = new VertexBuffer(VertexBuffer.Type.TexCoord);
-            tvb.setupData(Usage.Static, 2, Format.Float, tb);
-            setBuffer(tvb);
-        }
-
-        // set indices
-        ShortBuffer ib = BufferUtils.createShortBuffer(numParticles * 18);
-        for (int i = 0; i < numParticles; i++){
-            int startIdx = (i * 12);
-			
-            // triangle 1
-            ib.put((short)(startIdx + 1))
-              .put((short)(startIdx + 0))
-              .put((short)(startIdx + 2));
+        setSharedTexCoordBuffer(TEXCOORDS, numParticles);
 
-            // triangle 2
-            ib.put((short)(startIdx + 1))
-              .put((short)(startIdx + 2))
-              .put((short)(startIdx + 3));
-			
-            // triangle 3
-            ib.put((short)(startIdx + 5))
-              .put((short)(startIdx + 4))
-              .put((short)(startIdx + 6));
-
-            // triangle 4
-            ib.put((short)(startIdx + 5))
-              .put((short)(startIdx + 6))
-              .put((short)(startIdx + 7));
-			
-            // triangle 5
-            ib.put((short)(startIdx + 9))
-              .put((short)(startIdx + 8))
-              .put((short)(startIdx + 10));
-
-            // triangle 6
-            ib.put((short)(startIdx + 9))
-              .put((short)(startIdx + 10))
-              .put((short)(startIdx + 11));
-        }
-        ib.flip();
+        // set sprite frames
+        spriteFrames = false;
+        if (emitter.getUseShaderSpriteUVs())
+            setSpriteFrameBuffer(numParticles * 12);
+        else if (getBuffer(VertexBuffer.Type.TexCoord2) != null)
+            clearBuffer(VertexBuffer.Type.TexCoord2);
 
-        buf = getBuffer(VertexBuffer.Type.Index);
-        if (buf != null) {
-            buf.updateData(ib);
-        } else {
-            VertexBuffer ivb = new VertexBuffer(VertexBuffer.Type.Index);
-            ivb.setupData(Usage.Static, 3, Format.UnsignedShort, ib);
-            setBuffer(ivb);
-        }
+        // set indices
+        setSharedIndexBuffer(INDICES, numParticles);
         
         updateCounts();
-		
-		q33 = q33.fromAngleAxis(33f*2f*FastMath.DEG_TO_RAD, Vector3f.UNIT_Y);
 	}
     
     @Override
@@ -175,8 +153,21 @@ public class ParticleDataImpostorMesh extends ParticleDataMesh {
         this.imagesX = imagesX;
         this.imagesY = imagesY;
         if (imagesX != 1 || imagesY != 1){
-            uniqueTexCoords = true;
-            getBuffer(VertexBuffer.Type.TexCoord).setUsage(Usage.Stream);
+            if (emitter.getUseShaderSpriteUVs()) {
+                spriteFrames = true;
+            } else {
+                uniqueTexCoords = true;
+                useUniqueTexCoords(emitter.getUseCompactTexCoords());
+            }
+        } else if (spriteFrames) {
+            // back to a single image, reset every particle to frame 0
+            spriteFrames = false;
+            ByteBuffer frames = (ByteBuffer) getBuffer(VertexBuffer.Type.TexCoord2).getData();
+            frames.clear();
+            while (frames.hasRemaining())
+                frames.put((byte)0);
+            frames.flip();
+            getBuffer(VertexBuffer.Type.TexCoord2).updateData(frames);
         }
     }
 	
@@ -191,110 +182,34 @@ public class ParticleDataImpostorMesh extends ParticleDataMesh {
         VertexBuffer cvb = getBuffer(VertexBuffer.Type.Color);
         ByteBuffer colors = (ByteBuffer) cvb.getData();
 
-        VertexBuffer tvb = getBuffer(VertexBuffer.Type.TexCoord);
-        FloatBuffer texcoords = (FloatBuffer) tvb.getData();
+        FloatBuffer texcoords = getTexCoordData();
+
+        ByteBuffer frames = spriteFrames ? (ByteBuffer) getBuffer(VertexBuffer.Type.TexCoord2).getData() : null;
+        if (spriteFrames)
+            frames.clear();
 
         // update data in vertex buffers
         positions.clear();
         colors.clear();
         texcoords.clear();
         
-        for (int i = 0; i < particles.length; i++){
-            ParticleData p = particles[i];
+        basis.begin(cam);
+        resetParticleBound(emitter);
+        Vector3f up = basis.up, left = basis.left;
+        
+        // live particles are packed at the front of the buffers
+        int[] live = emitter.getRenderLive();
+        int liveCount = emitter.getRenderLiveCount();
+        int drawn = 0;
+        
+        for (int k = 0; k < liveCount; k++){
+            ParticleData p = particles[live[k]];
             if (p.life == 0 || !p.active) {
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
                 continue;
             }
+            drawn++;
 			
-			switch (emitter.getBillboardMode()) {
-				case Velocity:
-					if (p.velocity.x != Vector3f.UNIT_Y.x &&
-						p.velocity.y != Vector3f.UNIT_Y.y &&
-						p.velocity.z != Vector3f.UNIT_Y.z)
-						up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-					else
-						up.set(p.velocity).crossLocal(lock).normalizeLocal();
-					left.set(p.velocity).crossLocal(up).normalizeLocal();
-					dir.set(p.velocity);
-					break;
-				case Velocity_Z_Up:
-					if (p.velocity.x != Vector3f.UNIT_Y.x &&
-						p.velocity.y != Vector3f.UNIT_Y.y &&
-						p.velocity.z != Vector3f.UNIT_Y.z)
-						up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-					else
-						up.set(p.velocity).crossLocal(lock).normalizeLocal();
-					left.set(p.velocity).crossLocal(up).normalizeLocal();
-					dir.set(p.velocity);
-					rotStore = tempQ.fromAngleAxis(-90*FastMath.DEG_TO_RAD, left);
-					left = rotStore.mult(left);
-					up = rotStore.mult(up);
-					break;
-				case Velocity_Z_Up_Y_Left:
-					up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-					left.set(p.velocity).crossLocal(up).normalizeLocal();
-					dir.set(p.velocity);
-					tempV3.set(left).crossLocal(up).normalizeLocal();
-					rotStore = tempQ.fromAngleAxis(90*FastMath.DEG_TO_RAD, p.velocity);
-					left = rotStore.mult(left);
-					up = rotStore.mult(up);
-					rotStore = tempQ.fromAngleAxis(-90*FastMath.DEG_TO_RAD, left);
-					up = rotStore.mult(up);
-					break;
-				case Normal:
-					emitter.getShape().setNext(p.triangleIndex);
-					tempV3.set(emitter.getShape().getNormal());
-					if (tempV3 == Vector3f.UNIT_Y)
-						tempV3.set(p.velocity);
-					
-					up.set(tempV3).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-					left.set(tempV3).crossLocal(up).normalizeLocal();
-					dir.set(tempV3);
-					break;
-				case Normal_Y_Up:
-					emitter.getShape().setNext(p.triangleIndex);
-					tempV3.set(p.velocity);
-					if (tempV3 == Vector3f.UNIT_Y)
-						tempV3.set(Vector3f.UNIT_X);
-					
-					up.set(Vector3f.UNIT_Y);
-					left.set(tempV3).crossLocal(up).normalizeLocal();
-					dir.set(tempV3);
-					break;
-				case Perpendicular_Common:
-					break;
-				case Camera:
-					up.set(cam.getUp());
-					left.set(cam.getLeft());
-					dir.set(cam.getDirection());
-					break;
-				case UNIT_X:
-					up.set(Vector3f.UNIT_Y);
-					left.set(Vector3f.UNIT_Z);
-					dir.set(Vector3f.UNIT_X);
-					break;
-				case UNIT_Y:
-					up.set(Vector3f.UNIT_Z);
-					left.set(Vector3f.UNIT_X);
-					dir.set(Vector3f.UNIT_Y);
-					break;
-				case UNIT_Z:
-					up.set(Vector3f.UNIT_X);
-					left.set(Vector3f.UNIT_Y);
-					dir.set(Vector3f.UNIT_Z);
-					break;
-			}
+			basis.compute(p.velocity, p.emissionNormal);
 			/*
 			switch (emitter.getBillboardMode()) {
 				case Velocity:
@@ -306,9 +221,9 @@ public class ParticleDataImpostorMesh extends ParticleDataMesh {
 					up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
 					left.set(p.velocity).crossLocal(up).normalizeLocal();
 					dir.set(p.velocity);
-					rotStore = tempQ.fromAngleAxis(-90*FastMath.DEG_TO_RAD, left);
-					left = rotStore.mult(left);
-					up = rotStore.mult(up);
+					rotStore = tempQ.fromAngleNormalAxis(-90*FastMath.DEG_TO_RAD, axisStore.set(left).normalizeLocal());
+					rotStore.multLocal(left);
+					rotStore.multLocal(up);
 					break;
 				case Normal:
 					emitter.getShape().setNext(p.triangleIndex);
@@ -325,9 +240,9 @@ public class ParticleDataImpostorMesh extends ParticleDataMesh {
 					dir.set(tempV3);
 					break;
 				case Camera:
-					up.set(cam.getUp());
-					left.set(cam.getLeft());
-					dir.set(cam.getDirection());
+					cam.getUp(up);
+					cam.getLeft(left);
+					cam.getDirection(dir);
 					break;
 				case UNIT_X:
 					up.set(Vector3f.UNIT_Y);
@@ -348,47 +263,22 @@ public class ParticleDataImpostorMesh extends ParticleDataMesh {
 			*/
 			p.upVec.set(up);
 			
-			if (p.emitter.getUseVelocityStretching()) {
-				up.multLocal(p.velocity.length()*p.emitter.getVelocityStretchFactor());
-			/*	
-				switch (p.emitter.getForcedStretchAxis()) {
-					case X:
-						left.multLocal(p.velocity.length()*p.emitter.getVelocityStretchFactor());
-						break;
-					case Y:
-						up.multLocal(p.velocity.length()*p.emitter.getVelocityStretchFactor());
-						break;
-					case Z:
-						dir.multLocal(p.velocity.length()*p.emitter.getVelocityStretchFactor());
-						break;
-				}
-			*/
-			}
-			
-			up.multLocal(p.size.y);
-			left.multLocal(p.size.x);
-
-			rotStore = tempQ.fromAngleAxis(p.angles.y, left);
-			left = rotStore.mult(left);
-			up = rotStore.mult(up);
-
-			rotStore = tempQ.fromAngleAxis(p.angles.x, up);
-			left = rotStore.mult(left);
-			up = rotStore.mult(up);
-
-			rotStore = tempQ.fromAngleAxis(p.angles.z, dir);
-			left = rotStore.mult(left);
-			up = rotStore.mult(up);
+			basis.orient(p.velocity, p.size.x, p.size.y, p.angles);
 			
 			if (emitter.getParticlesFollowEmitter()) {
 				tempV3.set(p.position);
 			} else {
-				tempV3.set(p.position).subtractLocal(emitter.getParticleNode().getWorldTranslation().subtract(p.initialPosition));//.divide(8f));
+				tempV3.set(p.position).subtractLocal(emitterOffset.set(emitter.getParticleNode().getWorldTranslation()).subtractLocal(p.initialPosition));//.divide(8f));
 			}
 			
-			q33 = q33.fromAngleAxis(33f*2f*FastMath.DEG_TO_RAD, up);
-			left33 = q33.mult(left);
-			left66 = q33.mult(left33);
+			// the two extra faces are left turned 66 and 132 degrees about up
+			axisStore.set(up).normalizeLocal();
+			BillboardBasis.rotate(left33.set(left), axisStore, COS_66, SIN_66);
+			BillboardBasis.rotate(left66.set(left33), axisStore, COS_66, SIN_66);
+			includeParticleBound(tempV3.x, tempV3.y, tempV3.z,
+				Math.max(FastMath.abs(left.x), Math.max(FastMath.abs(left33.x), FastMath.abs(left66.x))) + FastMath.abs(up.x),
+				Math.max(FastMath.abs(left.y), Math.max(FastMath.abs(left33.y), FastMath.abs(left66.y))) + FastMath.abs(up.y),
+				Math.max(FastMath.abs(left.z), Math.max(FastMath.abs(left33.z), FastMath.abs(left66.z))) + FastMath.abs(up.z));
 			
 			temp1V3.set(tempV3.x + left.x + up.x,tempV3.y + left.y + up.y,tempV3.z + left.z + up.z);
 			temp2V3.set(tempV3.x - left.x + up.x,tempV3.y - left.y + up.y,tempV3.z - left.z + up.z);
@@ -469,6 +359,10 @@ public class ParticleDataImpostorMesh extends ParticleDataMesh {
 				texcoords.put(endX).put(endY);
 				texcoords.put(startX).put(startY);
 				texcoords.put(endX).put(startY);
+			} else if (spriteFrames) {
+				int frame = spriteFrame(p.spriteCol, p.spriteRow);
+				for (int v = 0; v < 12; v++)
+					frames.putInt(frame);
 			}
 
 			p.color.a *= p.alpha;
@@ -488,18 +382,23 @@ public class ParticleDataImpostorMesh extends ParticleDataMesh {
         }
 		
 	//	this.setBuffer(VertexBuffer.Type.Position, 3, positions);
-        positions.clear();
-        colors.clear();
+        positions.flip();
+        colors.flip();
         if (!uniqueTexCoords)
             texcoords.clear();
         else{
-            texcoords.clear();
-            tvb.updateData(texcoords);
+            texcoords.flip();
+            updateTexCoords(texcoords);
+        }
+        if (spriteFrames) {
+            frames.flip();
+            getBuffer(VertexBuffer.Type.TexCoord2).updateData(frames);
         }
 
         // force renderer to re-send data to GPU
         pvb.updateData(positions);
         cvb.updateData(colors);
+		setLiveParticleCount(drawn, 18);
 		
 		updateBound();
     }
@@ -0,0 +1,209 @@
+package emitter.particle;
+
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Matrix3f;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Format;
+import com.jme3.scene.VertexBuffer.Usage;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.jme3.util.BufferUtils;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import emitter.Emitter;
+
+/**
+ * Hardware instanced billboard particles.  All particles draw a single shared quad, and
+ * each live particle writes one instance record, which emitter/shaders/ParticleInstanced.vert
+ * expands into a camera facing quad:
+ * <ul>
+ * <li>TexCoord2 - position xyz and rotation around the view axis</li>
+ * <li>TexCoord3 - size xy, sprite column and sprite row</li>
+ * <li>Color - packed colour with the particle alpha applied</li>
+ * </ul>
+ * Particles always face the camera, the emitter's billboard mode is ignored.  Requires
+ * mesh instancing support (Caps.MeshInstancing) and the ParticleInstanced.j3md material,
+ * which the emitter selects for this mesh type.
+ */
+public class ParticleDataInstancedMesh extends ParticleDataMesh {
+
+    private Emitter emitter;
+    private ColorRGBA tempC = new ColorRGBA();
+    private Vector3f tempV3 = new Vector3f();
+    private FloatBuffer transforms;
+    private FloatBuffer sizes;
+    private ByteBuffer colors;
+    private int instances;
+
+    @Override
+    public void initParticleData(Emitter emitter, int numParticles) {
+        setMode(Mode.Triangles);
+
+        this.emitter = emitter;
+
+        // shared quad, laid out like a single ParticleDataTriMesh particle
+        FloatBuffer pb = BufferUtils.createVector3Buffer(4);
+        pb.put(-1f).put(1f).put(0f);
+        pb.put(1f).put(1f).put(0f);
+        pb.put(-1f).put(-1f).put(0f);
+        pb.put(1f).put(-1f).put(0f);
+        pb.flip();
+        VertexBuffer buf = new VertexBuffer(VertexBuffer.Type.Position);
+        buf.setupData(Usage.Static, 3, Format.Float, pb);
+        setBuffer(buf);
+
+        FloatBuffer tb = BufferUtils.createVector2Buffer(4);
+        tb.put(0f).put(1f);
+        tb.put(1f).put(1f);
+        tb.put(0f).put(0f);
+        tb.put(1f).put(0f);
+        tb.flip();
+        buf = new VertexBuffer(VertexBuffer.Type.TexCoord);
+        buf.setupData(Usage.Static, 2, Format.Float, tb);
+        setBuffer(buf);
+
+        IndexBuffer ib = IndexBuffer.createIndexBuffer(4, 6);
+        ib.put(0, 1);
+        ib.put(1, 0);
+        ib.put(2, 2);
+        ib.put(3, 1);
+        ib.put(4, 2);
+        ib.put(5, 3);
+        setIndexBuffer(ib);
+
+        // per particle instance data
+        buf = new VertexBuffer(VertexBuffer.Type.TexCoord2);
+        buf.setupData(Usage.Stream, 4, Format.Float, BufferUtils.createFloatBuffer(numParticles * 4));
+        buf.setInstanced(true);
+        setBuffer(buf);
+
+        buf = new VertexBuffer(VertexBuffer.Type.TexCoord3);
+        buf.setupData(Usage.Stream, 4, Format.Float, BufferUtils.createFloatBuffer(numParticles * 4));
+        buf.setInstanced(true);
+        setBuffer(buf);
+
+        buf = new VertexBuffer(VertexBuffer.Type.Color);
+        buf.setupData(Usage.Stream, 4, Format.UnsignedByte, BufferUtils.createByteBuffer(numParticles * 4));
+        buf.setNormalized(true);
+        buf.setInstanced(true);
+        setBuffer(buf);
+
+        updateCounts();
+    }
+
+    @Override
+    public void setImagesXY(int imagesX, int imagesY) {
+        // sprite cells are selected in the shader, see the SpriteSize material parameter
+    }
+
+    @Override
+    public void extractTemplateFromMesh(Mesh mesh) {  }
+
+    @Override
+    public void updateParticleData(ParticleData[] particles, Camera cam, Matrix3f inverseRotation) {
+        beginInstances();
+
+        boolean follow = emitter.getParticlesFollowEmitter();
+        Vector3f emitterTranslation = emitter.getEmitterNode().getWorldTranslation();
+
+        int[] live = emitter.getRenderLive();
+        int liveCount = emitter.getRenderLiveCount();
+
+        for (int k = 0; k < liveCount; k++){
+            ParticleData p = particles[live[k]];
+            if (p.life == 0 || !p.active)
+                continue;
+            tempV3.set(p.position);
+            if (!follow)
+                tempV3.subtractLocal(emitterTranslation).addLocal(p.initialPosition);
+            tempC.set(p.color);
+            tempC.a *= p.alpha;
+            putInstance(tempV3, p.angles.z, p.size.x, p.size.y, p.spriteCol, p.spriteRow, tempC.asIntABGR());
+        }
+
+        endInstances();
+    }
+
+    @Override
+    public void updateParticleData(ParticleStore store, ParticleData[] particles, Camera cam, Matrix3f inverseRotation) {
+        beginInstances();
+
+        boolean follow = emitter.getParticlesFollowEmitter();
+        Vector3f emitterTranslation = emitter.getEmitterNode().getWorldTranslation();
+
+        int[] live = emitter.getRenderLive();
+        int liveCount = emitter.getRenderLiveCount();
+
+        for (int k = 0; k < liveCount; k++){
+            int i = live[k];
+            if (store.life[i] == 0 || !store.active[i])
+                continue;
+            tempV3.set(store.positionX[i], store.positionY[i], store.positionZ[i]);
+            if (!follow) {
+                tempV3.x -= emitterTranslation.x - store.initialPositionX[i];
+                tempV3.y -= emitterTranslation.y - store.initialPositionY[i];
+                tempV3.z -= emitterTranslation.z - store.initialPositionZ[i];
+            }
+            tempC.set(store.colorR[i], store.colorG[i], store.colorB[i], store.colorA[i]*store.alpha[i]);
+            putInstance(tempV3, store.anglesZ[i], store.sizeX[i], store.sizeY[i], store.spriteCol[i], store.spriteRow[i], tempC.asIntABGR());
+        }
+
+        endInstances();
+    }
+
+    private void beginInstances() {
+        transforms = (FloatBuffer) getBuffer(VertexBuffer.Type.TexCoord2).getData();
+        sizes = (FloatBuffer) getBuffer(VertexBuffer.Type.TexCoord3).getData();
+        colors = (ByteBuffer) getBuffer(VertexBuffer.Type.Color).getData();
+        transforms.clear();
+        sizes.clear();
+        colors.clear();
+        instances = 0;
+        resetParticleBound(emitter);
+    }
+
+    private void putInstance(Vector3f pos, float rotation, float sizeX, float sizeY, int spriteCol, int spriteRow, int abgr) {
+        transforms.put(pos.x).put(pos.y).put(pos.z).put(rotation);
+        sizes.put(sizeX).put(sizeY).put(spriteCol).put(spriteRow);
+        colors.putInt(abgr);
+
+        // a rotated quad stays within the circle through its corners
+        float extent = (float) Math.sqrt(sizeX*sizeX + sizeY*sizeY);
+        includeParticleBound(pos.x, pos.y, pos.z, extent, extent, extent);
+        instances++;
+    }
+
+    private void endInstances() {
+        VertexBuffer tvb = getBuffer(VertexBuffer.Type.TexCoord2);
+        VertexBuffer svb = getBuffer(VertexBuffer.Type.TexCoord3);
+        VertexBuffer cvb = getBuffer(VertexBuffer.Type.Color);
+
+        if (instances == 0) {
+            // the instance count can not be 0, draw a single empty quad instead
+            transforms.put(0).put(0).put(0).put(0);
+            sizes.put(0).put(0).put(0).put(0);
+            colors.putInt(0);
+        }
+
+        transforms.flip();
+        sizes.flip();
+        colors.flip();
+        tvb.updateData(transforms);
+        svb.updateData(sizes);
+        cvb.updateData(colors);
+        // the instance count is taken from the instanced buffer limits
+        updateCounts();
+
+        updateBound();
+    }
+
+    /**
+     * Returns the number of particles written to the instance buffers by the last update
+     * @return
+     */
+    public int getLiveInstanceCount() {
+        return this.instances;
+    }
+}
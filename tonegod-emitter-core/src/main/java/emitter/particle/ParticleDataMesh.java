@@ -1,15 +1,38 @@
 package emitter.particle;
 
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingVolume;
 import com.jme3.math.Matrix3f;
+import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
 import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Format;
+import com.jme3.scene.VertexBuffer.Usage;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.jme3.util.BufferUtils;
 import emitter.Emitter;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 /**
  *
  * @author t0neg0d
  */
 public abstract class ParticleDataMesh extends Mesh {
+	private int uploadedIndexCount = 0;
+	private VertexBuffer sharedIndices = null;
+	private VertexBuffer sharedTexCoords = null;
+	// kept across releaseSharedBuffers so reacquireSharedBuffers can restore them
+	private ParticleBufferCache.Builder sharedIndexBuilder = null, sharedTexCoordBuilder = null;
+	private int sharedIndexCount, sharedTexCoordCount;
+	private FloatBuffer texCoordStaging = null;
+	private float boundMinX, boundMinY, boundMinZ;
+	private float boundMaxX, boundMaxY, boundMaxZ;
+	private int boundFrames = 0;
+	private final Vector3f boundMin = new Vector3f(), boundMax = new Vector3f();
 	
 	/**
 	 * The template mesh to use for defining a particle
@@ -36,5 +59,290 @@ public abstract class ParticleDataMesh extends Mesh {
      * Update the particle visual data. Typically called every frame.
      */
     public abstract void updateParticleData(ParticleData[] particles, Camera cam, Matrix3f inverseRotation);
-
+    
+    /**
+     * Update the particle visual data from the emitter's ParticleStore.  The default
+     * implementation refreshes the ParticleData view of each live particle and delegates
+     * to the object based update.
+     */
+    public void updateParticleData(ParticleStore store, ParticleData[] particles, Camera cam, Matrix3f inverseRotation) {
+        Emitter emitter = store.getEmitter();
+        int[] live = emitter.getRenderLive();
+        int liveCount = emitter.getRenderLiveCount();
+        for (int k = 0; k < liveCount; k++) {
+            store.copyTo(live[k], particles[live[k]]);
+        }
+        updateParticleData(particles, cam, inverseRotation);
+    }
+    
+    /**
+     * Assigns the particle indices.  Indices created with IndexBuffer.createIndexBuffer
+     * switch from 16-bit to 32-bit once the vertex count no longer fits an unsigned short,
+     * in which case the index buffer is replaced rather than updated.
+     * @param ib The indices of all particles
+     */
+    protected void setIndexBuffer(IndexBuffer ib) {
+        ParticleBufferCache.release(sharedIndices);
+        sharedIndices = null;
+        sharedIndexBuilder = null;
+        setIndexData(ib.getBuffer());
+    }
+    
+    private void setIndexData(Buffer data) {
+        data.clear();
+        Format format = data instanceof IntBuffer ? Format.UnsignedInt : Format.UnsignedShort;
+        VertexBuffer ivb = getBuffer(VertexBuffer.Type.Index);
+        if (ivb != null && ivb.getFormat() == format) {
+            ivb.updateData(data);
+        } else {
+            if (ivb != null)
+                clearBuffer(VertexBuffer.Type.Index);
+            ivb = new VertexBuffer(VertexBuffer.Type.Index);
+            ivb.setupData(Usage.Static, 3, format, data);
+            setBuffer(ivb);
+        }
+    }
+    
+    /**
+     * Assigns the particle indices from the shared buffer cache.  The index data is
+     * shared, but each mesh draws through its own view of it, as the index limit set
+     * by setLiveParticleCount differs per mesh.
+     * @param builder The builder of the indices
+     * @param numParticles The particle count
+     */
+    protected void setSharedIndexBuffer(ParticleBufferCache.Builder builder, int numParticles) {
+        VertexBuffer shared = ParticleBufferCache.acquire(builder, numParticles);
+        ParticleBufferCache.release(sharedIndices);
+        sharedIndices = shared;
+        sharedIndexBuilder = builder;
+        sharedIndexCount = numParticles;
+        Buffer data = shared.getData();
+        if (data instanceof IntBuffer)
+            setIndexData(((IntBuffer)data).duplicate());
+        else
+            setIndexData(((ShortBuffer)data).duplicate());
+    }
+    
+    /**
+     * Assigns texcoords from the shared buffer cache.  The VertexBuffer itself is shared,
+     * so the mesh must not write to it, see useUniqueTexCoords.
+     * @param builder The builder of the texcoords
+     * @param numParticles The particle count
+     */
+    protected void setSharedTexCoordBuffer(ParticleBufferCache.Builder builder, int numParticles) {
+        VertexBuffer shared = ParticleBufferCache.acquire(builder, numParticles);
+        ParticleBufferCache.release(sharedTexCoords);
+        sharedTexCoords = shared;
+        sharedTexCoordBuilder = builder;
+        sharedTexCoordCount = numParticles;
+        texCoordStaging = null;
+        if (getBuffer(VertexBuffer.Type.TexCoord) != null)
+            clearBuffer(VertexBuffer.Type.TexCoord);
+        setBuffer(shared);
+    }
+    
+    /**
+     * Replaces shared texcoords with a stream buffer owned by this mesh, for meshes that
+     * write per-particle texcoords.
+     * @param compact Upload the texcoords as 16-bit normalized values, see setStreamTexCoordBuffer
+     */
+    protected void useUniqueTexCoords(boolean compact) {
+        sharedTexCoordBuilder = null;
+        VertexBuffer tvb = getBuffer(VertexBuffer.Type.TexCoord);
+        if (sharedTexCoords == null || tvb != sharedTexCoords) {
+            if (texCoordStaging == null && !compact) {
+                tvb.setUsage(Usage.Stream);
+                return;
+            }
+            // switching format, the writer refills the buffer on its next update
+            setStreamTexCoordBuffer(2, tvb.getNumElements(), compact);
+            return;
+        }
+        FloatBuffer src = ((FloatBuffer)sharedTexCoords.getData()).duplicate();
+        src.clear();
+        clearBuffer(VertexBuffer.Type.TexCoord);
+        ParticleBufferCache.release(sharedTexCoords);
+        sharedTexCoords = null;
+        setStreamTexCoordBuffer(2, src.capacity()/2, compact);
+        FloatBuffer tb = getTexCoordData();
+        tb.clear();
+        tb.put(src).flip();
+        updateTexCoords(tb);
+    }
+    
+    /**
+     * Creates the stream texcoord buffer written through getTexCoordData and updateTexCoords.
+     * jME's renderer has no half float vertex format, so compact texcoords are uploaded
+     * as normalized unsigned shorts instead, which requires texcoords within 0..1.  The
+     * writer then fills a float staging buffer that is packed on update.
+     * @param components The number of components per vertex
+     * @param numVertices The number of vertices
+     * @param compact Upload the texcoords as 16-bit normalized values
+     */
+    protected void setStreamTexCoordBuffer(int components, int numVertices, boolean compact) {
+        if (getBuffer(VertexBuffer.Type.TexCoord) != null)
+            clearBuffer(VertexBuffer.Type.TexCoord);
+        VertexBuffer tvb = new VertexBuffer(VertexBuffer.Type.TexCoord);
+        if (compact) {
+            texCoordStaging = BufferUtils.createFloatBuffer(numVertices * components);
+            tvb.setupData(Usage.Stream, components, Format.UnsignedShort, BufferUtils.createShortBuffer(numVertices * components));
+            tvb.setNormalized(true);
+        } else {
+            texCoordStaging = null;
+            tvb.setupData(Usage.Stream, components, Format.Float, BufferUtils.createFloatBuffer(numVertices * components));
+        }
+        setBuffer(tvb);
+    }
+    
+    /**
+     * Returns the buffer the mesh writes texcoords into, the staging buffer for compact
+     * texcoords, otherwise the texcoord data itself.
+     * @return 
+     */
+    protected FloatBuffer getTexCoordData() {
+        if (texCoordStaging != null)
+            return texCoordStaging;
+        return (FloatBuffer) getBuffer(VertexBuffer.Type.TexCoord).getData();
+    }
+    
+    /**
+     * Uploads texcoords written to the buffer returned by getTexCoordData
+     * @param texcoords The flipped texcoord buffer
+     */
+    protected void updateTexCoords(FloatBuffer texcoords) {
+        VertexBuffer tvb = getBuffer(VertexBuffer.Type.TexCoord);
+        if (texcoords != texCoordStaging) {
+            tvb.updateData(texcoords);
+            return;
+        }
+        ShortBuffer packed = (ShortBuffer) tvb.getData();
+        packed.clear();
+        int limit = texcoords.limit();
+        for (int i = 0; i < limit; i++) {
+            packed.put((short) (texcoords.get(i) * 65535f + 0.5f));
+        }
+        packed.flip();
+        tvb.updateData(packed);
+    }
+    
+    /**
+     * Creates the sprite frame attribute (TexCoord2) used when the emitter derives sprite
+     * texcoords in the shader, see Emitter.setUseShaderSpriteUVs.  Each vertex holds its
+     * particle's sprite column and row as unsigned bytes, written with spriteFrame.
+     * @param numVertices The number of vertices
+     */
+    protected void setSpriteFrameBuffer(int numVertices) {
+        if (getBuffer(VertexBuffer.Type.TexCoord2) != null)
+            clearBuffer(VertexBuffer.Type.TexCoord2);
+        VertexBuffer fvb = new VertexBuffer(VertexBuffer.Type.TexCoord2);
+        fvb.setupData(Usage.Stream, 4, Format.UnsignedByte, BufferUtils.createByteBuffer(numVertices * 4));
+        setBuffer(fvb);
+    }
+    
+    /**
+     * Packs a sprite column and row into a single sprite frame attribute value
+     * @param col The sprite column, 0-255
+     * @param row The sprite row, 0-255
+     * @return 
+     */
+    protected static int spriteFrame(int col, int row) {
+        // byte order matches the packed colours, column first
+        return (col & 0xFF) | (row & 0xFF) << 8;
+    }
+    
+    /**
+     * Drops the mesh's references to buffers in the shared buffer cache.  The mesh keeps
+     * drawing from the buffers it already has, they are just no longer shared with meshes
+     * created later.  Called by the emitter when the mesh is replaced and when the
+     * emitter is detached from its spatial.
+     */
+    public void releaseSharedBuffers() {
+        ParticleBufferCache.release(sharedIndices);
+        ParticleBufferCache.release(sharedTexCoords);
+        sharedIndices = null;
+        sharedTexCoords = null;
+    }
+    
+    /**
+     * Takes back the references dropped by releaseSharedBuffers, switching to the cached
+     * buffers again.  Called by the emitter when it is attached to a spatial.  Has no
+     * effect on buffers the mesh still holds or has replaced with its own.
+     */
+    public void reacquireSharedBuffers() {
+        if (sharedIndexBuilder != null && sharedIndices == null)
+            setSharedIndexBuffer(sharedIndexBuilder, sharedIndexCount);
+        if (sharedTexCoordBuilder != null && sharedTexCoords == null)
+            setSharedTexCoordBuffer(sharedTexCoordBuilder, sharedTexCoordCount);
+    }
+    
+    /**
+     * Limits the index buffer to the first count particles so only the live particles
+     * packed at the front of the vertex buffers are drawn.  The index data never changes,
+     * so it is only re-sent to the GPU when the limit grows past what was last uploaded.
+     * @param count The number of particles packed at the front of the vertex buffers
+     * @param indicesPerParticle The number of indices used by a single particle
+     */
+    protected void setLiveParticleCount(int count, int indicesPerParticle) {
+        VertexBuffer ivb = getBuffer(VertexBuffer.Type.Index);
+        Buffer indices = ivb.getData();
+        int limit = count*indicesPerParticle;
+        indices.clear();
+        indices.limit(limit);
+        if (ivb.isUpdateNeeded()) {
+            uploadedIndexCount = limit;
+        } else if (limit > uploadedIndexCount) {
+            ivb.setUpdateNeeded();
+            uploadedIndexCount = limit;
+        }
+    }
+    
+    /**
+     * Starts the particle bound for a new mesh update.  The mesh writers grow it with
+     * includeParticleBound as they write each live particle, so updateBound never has
+     * to rescan the vertex buffers.  With grow-only bounds enabled on the emitter the
+     * previous box is kept and only grown, and is rebuilt every
+     * getGrowOnlyBoundsInterval() updates.
+     * @param emitter The emitter owning the mesh
+     */
+    protected void resetParticleBound(Emitter emitter) {
+        if (emitter.getUseGrowOnlyBounds() && ++boundFrames < emitter.getGrowOnlyBoundsInterval())
+            return;
+        boundFrames = 0;
+        boundMinX = boundMinY = boundMinZ = Float.POSITIVE_INFINITY;
+        boundMaxX = boundMaxY = boundMaxZ = Float.NEGATIVE_INFINITY;
+    }
+    
+    /**
+     * Grows the particle bound to contain a box centered on x, y, z
+     * @param ex The half extent of the box along x
+     * @param ey The half extent of the box along y
+     * @param ez The half extent of the box along z
+     */
+    protected final void includeParticleBound(float x, float y, float z, float ex, float ey, float ez) {
+        if (x - ex < boundMinX) boundMinX = x - ex;
+        if (y - ey < boundMinY) boundMinY = y - ey;
+        if (z - ez < boundMinZ) boundMinZ = z - ez;
+        if (x + ex > boundMaxX) boundMaxX = x + ex;
+        if (y + ey > boundMaxY) boundMaxY = y + ey;
+        if (z + ez > boundMaxZ) boundMaxZ = z + ez;
+    }
+    
+    /**
+     * Sets the bound from the particles included since the last resetParticleBound.
+     * An empty emitter gets an empty box at the origin.
+     */
+    @Override
+    public void updateBound() {
+        BoundingVolume bv = getBound();
+        BoundingBox bb = bv instanceof BoundingBox ? (BoundingBox) bv : new BoundingBox();
+        if (boundMinX > boundMaxX) {
+            boundMin.set(0, 0, 0);
+            boundMax.set(0, 0, 0);
+        } else {
+            boundMin.set(boundMinX, boundMinY, boundMinZ);
+            boundMax.set(boundMaxX, boundMaxY, boundMaxZ);
+        }
+        bb.setMinMax(boundMin, boundMax);
+        setBound(bb);
+    }
 }
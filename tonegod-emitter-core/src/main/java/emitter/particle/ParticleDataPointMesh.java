@@ -1,5 +1,6 @@
 package emitter.particle;
 
+import com.jme3.math.ColorRGBA;
 import com.jme3.math.Matrix3f;
 import com.jme3.renderer.Camera;
 import com.jme3.scene.Mesh;
@@ -21,6 +22,8 @@ public class ParticleDataPointMesh extends ParticleDataMesh {
 
     private int imagesX = 1;
     private int imagesY = 1;
+    private boolean spriteFrames = false;
+    private ColorRGBA tempC = new ColorRGBA();
 
     @Override
     public void setImagesXY(int imagesX, int imagesY) {
@@ -75,16 +78,16 @@ public class ParticleDataPointMesh extends ParticleDataMesh {
             setBuffer(svb);
         }
 
-        // set UV-scale
-        FloatBuffer tb = BufferUtils.createFloatBuffer(numParticles*4);
-        
-        buf = getBuffer(VertexBuffer.Type.TexCoord);
-        if (buf != null) {
-            buf.updateData(tb);
+        // set UV-scale, or sprite frames when texcoords are derived in the shader
+        spriteFrames = emitter.getUseShaderSpriteUVs();
+        if (spriteFrames) {
+            if (getBuffer(VertexBuffer.Type.TexCoord) != null)
+                clearBuffer(VertexBuffer.Type.TexCoord);
+            setSpriteFrameBuffer(numParticles);
         } else {
-            VertexBuffer tvb = new VertexBuffer(VertexBuffer.Type.TexCoord);
-            tvb.setupData(Usage.Stream, 4, Format.Float, tb);
-            setBuffer(tvb);
+            if (getBuffer(VertexBuffer.Type.TexCoord2) != null)
+                clearBuffer(VertexBuffer.Type.TexCoord2);
+            setStreamTexCoordBuffer(4, numParticles, emitter.getUseCompactTexCoords());
         }
         
         updateCounts();
@@ -101,28 +104,43 @@ public class ParticleDataPointMesh extends ParticleDataMesh {
         VertexBuffer svb = getBuffer(VertexBuffer.Type.Size);
         FloatBuffer sizes = (FloatBuffer) svb.getData();
 
-        VertexBuffer tvb = getBuffer(VertexBuffer.Type.TexCoord);
-        FloatBuffer texcoords = (FloatBuffer) tvb.getData();
+        FloatBuffer texcoords = spriteFrames ? null : getTexCoordData();
+        ByteBuffer frames = spriteFrames ? (ByteBuffer) getBuffer(VertexBuffer.Type.TexCoord2).getData() : null;
 
         //float sizeScale = emitter.getWorldScale().x;
 
         // update data in vertex buffers
-        positions.rewind();
-        colors.rewind();
-        sizes.rewind();
-        texcoords.rewind();
-        for (int i = 0; i < particles.length; i++){
-            ParticleData p = particles[i];
+        positions.clear();
+        colors.clear();
+        sizes.clear();
+        if (spriteFrames)
+            frames.clear();
+        else
+            texcoords.clear();
+        resetParticleBound(emitter);
+        
+        // live particles are packed at the front of the buffers
+        int[] live = emitter.getRenderLive();
+        int liveCount = emitter.getRenderLiveCount();
+        
+        for (int k = 0; k < liveCount; k++){
+            ParticleData p = particles[live[k]];
             
             positions.put(p.position.x)
                      .put(p.position.y)
                      .put(p.position.z);
 
             sizes.put(p.size.x); // * worldSace);
+            includeParticleBound(p.position.x, p.position.y, p.position.z, p.size.x, p.size.x, p.size.x);
 			
 			p.color.a *= p.alpha;
             colors.putInt(p.color.asIntABGR());
 
+            if (spriteFrames) {
+                frames.putInt(spriteFrame(p.spriteCol, p.spriteRow));
+                continue;
+            }
+
             int imgX = p.spriteCol; //p.imageIndex % imagesX;
             int imgY = p.spriteRow; //(p.imageIndex - imgX) / imagesY;
 
@@ -136,13 +154,90 @@ public class ParticleDataPointMesh extends ParticleDataMesh {
         positions.flip();
         colors.flip();
         sizes.flip();
-        texcoords.flip();
 
         // force renderer to re-send data to GPU
         pvb.updateData(positions);
         cvb.updateData(colors);
         svb.updateData(sizes);
-        tvb.updateData(texcoords);
+        if (spriteFrames) {
+            frames.flip();
+            getBuffer(VertexBuffer.Type.TexCoord2).updateData(frames);
+        } else {
+            texcoords.flip();
+            updateTexCoords(texcoords);
+        }
+        // draw only the live particles
+        updateCounts();
+		this.updateBound();
+    }
+
+    @Override
+    public void updateParticleData(ParticleStore store, ParticleData[] particles, Camera cam, Matrix3f inverseRotation) {
+        VertexBuffer pvb = getBuffer(VertexBuffer.Type.Position);
+        FloatBuffer positions = (FloatBuffer) pvb.getData();
+
+        VertexBuffer cvb = getBuffer(VertexBuffer.Type.Color);
+        ByteBuffer colors = (ByteBuffer) cvb.getData();
+
+        VertexBuffer svb = getBuffer(VertexBuffer.Type.Size);
+        FloatBuffer sizes = (FloatBuffer) svb.getData();
+
+        FloatBuffer texcoords = spriteFrames ? null : getTexCoordData();
+        ByteBuffer frames = spriteFrames ? (ByteBuffer) getBuffer(VertexBuffer.Type.TexCoord2).getData() : null;
+
+        positions.clear();
+        colors.clear();
+        sizes.clear();
+        if (spriteFrames)
+            frames.clear();
+        else
+            texcoords.clear();
+        resetParticleBound(emitter);
+        
+        // live particles are packed at the front of the buffers
+        int[] live = emitter.getRenderLive();
+        int liveCount = emitter.getRenderLiveCount();
+        
+        for (int k = 0; k < liveCount; k++){
+            int i = live[k];
+            positions.put(store.positionX[i])
+                     .put(store.positionY[i])
+                     .put(store.positionZ[i]);
+
+            sizes.put(store.sizeX[i]);
+            includeParticleBound(store.positionX[i], store.positionY[i], store.positionZ[i], store.sizeX[i], store.sizeX[i], store.sizeX[i]);
+			
+			tempC.set(store.colorR[i], store.colorG[i], store.colorB[i], store.colorA[i]*store.alpha[i]);
+            colors.putInt(tempC.asIntABGR());
+
+            if (spriteFrames) {
+                frames.putInt(spriteFrame(store.spriteCol[i], store.spriteRow[i]));
+                continue;
+            }
+
+            float startX = ((float) store.spriteCol[i]) / imagesX;
+            float startY = ((float) store.spriteRow[i]) / imagesY;
+            float endX   = startX + (1f / imagesX);
+            float endY   = startY + (1f / imagesY);
+
+            texcoords.put(startX).put(startY).put(endX).put(endY);
+        }
+        positions.flip();
+        colors.flip();
+        sizes.flip();
+
+        pvb.updateData(positions);
+        cvb.updateData(colors);
+        svb.updateData(sizes);
+        if (spriteFrames) {
+            frames.flip();
+            getBuffer(VertexBuffer.Type.TexCoord2).updateData(frames);
+        } else {
+            texcoords.flip();
+            updateTexCoords(texcoords);
+        }
+        // draw only the live particles
+        updateCounts();
 		this.updateBound();
     }
 
@@ -10,21 +10,13 @@ import com.jme3.renderer.Camera;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
 import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Format;
 import com.jme3.scene.VertexBuffer.Usage;
 import com.jme3.scene.mesh.IndexBuffer;
 import com.jme3.util.BufferUtils;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 import emitter.Emitter;
-import static emitter.Emitter.BillboardMode.Camera;
-import static emitter.Emitter.BillboardMode.Normal;
-import static emitter.Emitter.BillboardMode.Normal_Y_Up;
-import static emitter.Emitter.BillboardMode.UNIT_X;
-import static emitter.Emitter.BillboardMode.UNIT_Y;
-import static emitter.Emitter.BillboardMode.UNIT_Z;
-import static emitter.Emitter.BillboardMode.Velocity;
-import static emitter.Emitter.BillboardMode.Velocity_Z_Up;
-import static emitter.Emitter.BillboardMode.Velocity_Z_Up_Y_Left;
 
 /**
  *
@@ -36,13 +28,12 @@ public class ParticleDataTemplateMesh extends ParticleDataMesh {
     private int imagesY = 1;
     private boolean uniqueTexCoords = false;
     private Emitter emitter;
-	private Vector3f left = new Vector3f(), tempLeft = new Vector3f();
-	private Vector3f up = new Vector3f(), tempUp = new Vector3f();
-	private Vector3f dir = new Vector3f();
+	private Vector3f tempLeft = new Vector3f();
+	private Vector3f tempUp = new Vector3f();
 	private Vector3f tempV3 = new Vector3f();
+	private Vector3f emitterOffset = new Vector3f();
 	private ColorRGBA tempV4 = new ColorRGBA();
 	private Quaternion rotStore = new Quaternion();
-	private Quaternion tempQ = new Quaternion();
 	private Node tempN = new Node();
 	private int imgX, imgY;
 	private float startX, startY, endX, endY;
@@ -51,18 +42,25 @@ public class ParticleDataTemplateMesh extends ParticleDataMesh {
 	private FloatBuffer	templateCoords;
 	private IndexBuffer	templateIndexes;
 	private FloatBuffer	templateNormals;
-	private FloatBuffer	templateColors;
 	
 	private FloatBuffer	finVerts;
 	private FloatBuffer	finCoords;
-	private ShortBuffer	finIndexes;
+	private IndexBuffer	finIndexes;
 	private FloatBuffer	finNormals;
-	private FloatBuffer	finColors;
+	private ByteBuffer	finColors;
+	
+	private BillboardBasis basis;
+	private Vector3f velocity = new Vector3f();
+	private Vector3f normal = new Vector3f();
+	private Vector3f size = new Vector3f();
+	private Vector3f angles = new Vector3f();
+	private Vector3f translation = new Vector3f();
+	private float templateExtentX, templateExtentY, templateExtentZ;
 	
 	Matrix3f mat3 = new Matrix3f();
+	Matrix3f transform = new Matrix3f();
 	Matrix4f mat4 = new Matrix4f();
 	
-	private Vector3f lock = new Vector3f(0,0.99f,0.01f);
 	
 	@Override
 	public void extractTemplateFromMesh(Mesh mesh) {
@@ -71,7 +69,6 @@ public class ParticleDataTemplateMesh extends ParticleDataMesh {
 		templateCoords = MeshUtils.getTexCoordBuffer(mesh);
 		templateIndexes = MeshUtils.getIndexBuffer(mesh);
 		templateNormals = MeshUtils.getNormalsBuffer(mesh);
-		templateColors = BufferUtils.createFloatBuffer(templateVerts.capacity()/3*4);
 	}
 	
 	public Mesh getTemplateMesh() { return this.template; }
@@ -81,12 +78,22 @@ public class ParticleDataTemplateMesh extends ParticleDataMesh {
         setMode(Mode.Triangles);
 		
         this.emitter = emitter;
+        this.basis = new BillboardBasis(emitter);
 		
 		this.finVerts = BufferUtils.createFloatBuffer(templateVerts.capacity()*numParticles);
 		try { this.finCoords = BufferUtils.createFloatBuffer(templateCoords.capacity()*numParticles); } catch (Exception e) {  }
-		this.finIndexes = BufferUtils.createShortBuffer(templateIndexes.size()*numParticles);
-		this.finNormals = BufferUtils.createFloatBuffer(templateNormals.capacity()*numParticles);
-		this.finColors = BufferUtils.createFloatBuffer(templateVerts.capacity()/3*4*numParticles);
+		this.finIndexes = IndexBuffer.createIndexBuffer(templateVerts.capacity()/3*numParticles, templateIndexes.size()*numParticles);
+		// normals are only needed when they are transformed for a lighting material
+		this.finNormals = null;
+		this.finColors = BufferUtils.createByteBuffer(templateVerts.capacity()/3*4*numParticles);
+		
+		// largest template coordinate per axis, for bounding transformed particles
+		templateExtentX = templateExtentY = templateExtentZ = 0;
+		for (int v = 0; v < templateVerts.capacity(); v += 3) {
+			templateExtentX = Math.max(templateExtentX, FastMath.abs(templateVerts.get(v)));
+			templateExtentY = Math.max(templateExtentY, FastMath.abs(templateVerts.get(v+1)));
+			templateExtentZ = Math.max(templateExtentZ, FastMath.abs(templateVerts.get(v+2)));
+		}
 		
 		int index = 0, index2 = 0, index3 = 0, index4 = 0, index5 = 0;
 		int indexOffset = 0;
@@ -110,20 +117,14 @@ public class ParticleDataTemplateMesh extends ParticleDataMesh {
 				}
 			} catch (Exception e) {  }
 			for (int v = 0; v < templateIndexes.size(); v++) {
-				finIndexes.put(index3, (short)(templateIndexes.get(v)+indexOffset));
+				finIndexes.put(index3, templateIndexes.get(v)+indexOffset);
 				index3++;
 			}
 			indexOffset += templateVerts.capacity()/3;
-			
-			templateNormals.rewind();
-			for (int v = 0; v < templateNormals.capacity(); v++) {
-				finNormals.put(index4, templateNormals.get(v));
-				index4++;
-			}
-			
-			for (int v = 0; v < finColors.capacity(); v++) {
-				finColors.put(v, 1.0f);
-			}
+		}
+		
+		for (int v = 0; v < finColors.capacity(); v++) {
+			finColors.put(v, (byte)0xFF);
 		}
 		
 		// Help GC
@@ -138,15 +139,42 @@ public class ParticleDataTemplateMesh extends ParticleDataMesh {
 		this.setBuffer(VertexBuffer.Type.Position,	3, finVerts);
 		this.clearBuffer(VertexBuffer.Type.TexCoord);
 		try { this.setBuffer(VertexBuffer.Type.TexCoord, 2, finCoords); } catch (Exception e) {  }
-		this.clearBuffer(VertexBuffer.Type.Index);
-		this.setBuffer(VertexBuffer.Type.Index,	3, finIndexes);
+		this.setIndexBuffer(finIndexes);
 		this.clearBuffer(VertexBuffer.Type.Normal);
-		this.setBuffer(VertexBuffer.Type.Normal, 3, finNormals);
+		if (emitter.getApplyLightingTransform())
+			initNormals(numParticles);
 		this.clearBuffer(VertexBuffer.Type.Color);
-		this.setBuffer(VertexBuffer.Type.Color, 4, finColors);
+		VertexBuffer cvb = new VertexBuffer(VertexBuffer.Type.Color);
+		cvb.setupData(Usage.Stream, 4, Format.UnsignedByte, finColors);
+		cvb.setNormalized(true);
+		this.setBuffer(cvb);
+		// rewritten every frame
+		getBuffer(VertexBuffer.Type.Position).setUsage(Usage.Stream);
 		this.updateBound();
     }
     
+	/**
+	 * Creates the Normal buffer, filled with the untransformed template normals.
+	 * Called from initParticleData, or on the first update after a lighting
+	 * material is applied to an already initialized emitter
+	 * @param numParticles The number of particle slots in the mesh
+	 */
+	private void initNormals(int numParticles) {
+		if (templateNormals == null)
+			return;
+		finNormals = BufferUtils.createFloatBuffer(templateNormals.capacity()*numParticles);
+		int index = 0;
+		for (int i = 0; i < numParticles; i++) {
+			for (int v = 0; v < templateNormals.capacity(); v++) {
+				finNormals.put(index, templateNormals.get(v));
+				index++;
+			}
+		}
+		this.clearBuffer(VertexBuffer.Type.Normal);
+		this.setBuffer(VertexBuffer.Type.Normal, 3, finNormals);
+		getBuffer(VertexBuffer.Type.Normal).setUsage(Usage.Stream);
+	}
+	
     @Override
     public void setImagesXY(int imagesX, int imagesY) {
         this.imagesX = imagesX;
@@ -162,144 +190,162 @@ public class ParticleDataTemplateMesh extends ParticleDataMesh {
 	
     @Override
     public void updateParticleData(ParticleData[] particles, Camera cam, Matrix3f inverseRotation) {
+		boolean follow = emitter.getParticlesFollowEmitter();
+		Vector3f emitterTranslation = emitter.getEmitterNode().getWorldTranslation();
+		
+		// live particles are packed at the front of the buffers
+		int[] live = emitter.getRenderLive();
+		int liveCount = emitter.getRenderLiveCount();
+		int drawn = 0;
+		
+		// the material may have switched to lighting after the mesh was built
+		if (finNormals == null && emitter.getApplyLightingTransform())
+			initNormals(finVerts.capacity()/templateVerts.capacity());
+		
+		finVerts.clear();
+		if (finNormals != null)
+			finNormals.clear();
+		finColors.clear();
+		
+		basis.begin(cam);
+		resetParticleBound(emitter);
 		
-        for (int i = 0; i < particles.length; i++){
-            ParticleData p = particles[i];
-			int offset = templateVerts.capacity()*i;
-			int colorOffset = templateColors.capacity()*i;
+        for (int k = 0; k < liveCount; k++){
+            ParticleData p = particles[live[k]];
 			if (p.life == 0 || !p.active) {
-				for (int x = 0; x < templateVerts.capacity(); x += 3) {
-					finVerts.put(offset+x,0);
-					finVerts.put(offset+x+1,0);
-					finVerts.put(offset+x+2,0);
-				}
 				continue;
 			}
+			computeTransform(p.velocity, p.emissionNormal, p.size, p.angles);
 			
-			for (int x = 0; x < templateVerts.capacity(); x += 3) {
-				switch (emitter.getBillboardMode()) {
-					case Velocity:
-						if (p.velocity.x != Vector3f.UNIT_Y.x &&
-							p.velocity.y != Vector3f.UNIT_Y.y &&
-							p.velocity.z != Vector3f.UNIT_Y.z)
-							up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-						else
-							up.set(p.velocity).crossLocal(lock).normalizeLocal();
-						left.set(p.velocity).crossLocal(up).normalizeLocal();
-						dir.set(p.velocity);
-						break;
-					case Velocity_Z_Up:
-						if (p.velocity.x != Vector3f.UNIT_Y.x &&
-							p.velocity.y != Vector3f.UNIT_Y.y &&
-							p.velocity.z != Vector3f.UNIT_Y.z)
-							up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-						else
-							up.set(p.velocity).crossLocal(lock).normalizeLocal();
-						left.set(p.velocity).crossLocal(up).normalizeLocal();
-						dir.set(p.velocity);
-						rotStore = tempQ.fromAngleAxis(-90*FastMath.DEG_TO_RAD, left);
-						left = rotStore.mult(left);
-						up = rotStore.mult(up);
-						break;
-					case Velocity_Z_Up_Y_Left:
-						up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-						left.set(p.velocity).crossLocal(up).normalizeLocal();
-						dir.set(p.velocity);
-						tempV3.set(left).crossLocal(up).normalizeLocal();
-						rotStore = tempQ.fromAngleAxis(90*FastMath.DEG_TO_RAD, p.velocity);
-						left = rotStore.mult(left);
-						up = rotStore.mult(up);
-						rotStore = tempQ.fromAngleAxis(-90*FastMath.DEG_TO_RAD, left);
-						up = rotStore.mult(up);
-						break;
-					case Normal:
-						emitter.getShape().setNext(p.triangleIndex);
-						tempV3.set(emitter.getShape().getNormal());
-						if (tempV3 == Vector3f.UNIT_Y)
-							tempV3.set(p.velocity);
-
-						up.set(tempV3).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-						left.set(tempV3).crossLocal(up).normalizeLocal();
-						dir.set(tempV3);
-						break;
-					case Normal_Y_Up:
-						emitter.getShape().setNext(p.triangleIndex);
-						tempV3.set(p.velocity);
-						if (tempV3 == Vector3f.UNIT_Y)
-							tempV3.set(Vector3f.UNIT_X);
-
-						up.set(Vector3f.UNIT_Y);
-						left.set(tempV3).crossLocal(up).normalizeLocal();
-						dir.set(tempV3);
-						break;
-					case Camera:
-						up.set(cam.getUp());
-						left.set(cam.getLeft());
-						dir.set(cam.getDirection());
-						break;
-					case UNIT_X:
-						up.set(Vector3f.UNIT_Y);
-						left.set(Vector3f.UNIT_Z);
-						dir.set(Vector3f.UNIT_X);
-						break;
-					case UNIT_Y:
-						up.set(Vector3f.UNIT_Z);
-						left.set(Vector3f.UNIT_X);
-						dir.set(Vector3f.UNIT_Y);
-						break;
-					case UNIT_Z:
-						up.set(Vector3f.UNIT_X);
-						left.set(Vector3f.UNIT_Y);
-						dir.set(Vector3f.UNIT_Z);
-						break;
-				}
-				
-				tempV3.set(templateVerts.get(x),templateVerts.get(x+1),templateVerts.get(x+2));
-				tempV3 = rotStore.mult(tempV3);
-				tempV3.multLocal(p.size);
-				
-				rotStore.fromAngles(p.angles.x, p.angles.y, p.angles.z);
-				tempV3 = rotStore.mult(tempV3);
-				
-				tempV3.addLocal(p.position);
-				if (!emitter.getParticlesFollowEmitter()) {
-					tempV3.subtractLocal(emitter.getEmitterNode().getWorldTranslation().subtract(p.initialPosition));//.divide(8f));
-				}
-				
-				finVerts.put(offset+x,tempV3.getX());
-				finVerts.put(offset+x+1,tempV3.getY());
-				finVerts.put(offset+x+2,tempV3.getZ());
-				
-			}
-			if (p.emitter.getApplyLightingTransform()) {
-				for (int v = 0; v < templateNormals.capacity(); v += 3) {
-					tempV3.set(templateNormals.get(v),templateNormals.get(v+1),templateNormals.get(v+2));
-
-					rotStore.fromAngles(p.angles.x, p.angles.y, p.angles.z);
-					mat3.set(rotStore.toRotationMatrix());
-					float vx = tempV3.x, vy = tempV3.y, vz = tempV3.z;
-					tempV3.x = mat3.get(0,0) * vx + mat3.get(0,1) * vy + mat3.get(0,2) * vz;
-					tempV3.y = mat3.get(1,0) * vx + mat3.get(1,1) * vy + mat3.get(1,2) * vz;
-					tempV3.z = mat3.get(2,0) * vx + mat3.get(2,1) * vy + mat3.get(2,2) * vz;
-
-					finNormals.put(offset+v, tempV3.getX());
-					finNormals.put(offset+v+1, tempV3.getY());
-					finNormals.put(offset+v+2, tempV3.getZ());
-				}
+			translation.set(p.position);
+			if (!follow)
+				translation.subtractLocal(emitterTranslation).addLocal(p.initialPosition);
+			
+			tempV4.set(p.color);
+			tempV4.a *= p.alpha;
+			putParticle(drawn, tempV4.asIntABGR());
+			drawn++;
+        }
+		
+		updateBuffers(drawn);
+    }
+	
+    @Override
+    public void updateParticleData(ParticleStore store, ParticleData[] particles, Camera cam, Matrix3f inverseRotation) {
+		boolean follow = emitter.getParticlesFollowEmitter();
+		Vector3f emitterTranslation = emitter.getEmitterNode().getWorldTranslation();
+		
+		int[] live = emitter.getRenderLive();
+		int liveCount = emitter.getRenderLiveCount();
+		int drawn = 0;
+		
+		// the material may have switched to lighting after the mesh was built
+		if (finNormals == null && emitter.getApplyLightingTransform())
+			initNormals(finVerts.capacity()/templateVerts.capacity());
+		
+		finVerts.clear();
+		if (finNormals != null)
+			finNormals.clear();
+		finColors.clear();
+		
+		basis.begin(cam);
+		resetParticleBound(emitter);
+		
+        for (int k = 0; k < liveCount; k++){
+			int i = live[k];
+			if (store.life[i] == 0 || !store.active[i]) {
+				continue;
 			}
-			for (int v = 0; v < templateColors.capacity(); v += 4) {
-				finColors.put(colorOffset+v,p.color.r)
-						.put(colorOffset+v+1,p.color.g)
-						.put(colorOffset+v+2,p.color.b)
-						.put(colorOffset+v+3,p.color.a*p.alpha);
+			velocity.set(store.velocityX[i], store.velocityY[i], store.velocityZ[i]);
+			size.set(store.sizeX[i], store.sizeY[i], store.sizeZ[i]);
+			normal.set(store.emissionNormalX[i], store.emissionNormalY[i], store.emissionNormalZ[i]);
+			angles.set(store.anglesX[i], store.anglesY[i], store.anglesZ[i]);
+			computeTransform(velocity, normal, size, angles);
+			
+			translation.set(store.positionX[i], store.positionY[i], store.positionZ[i]);
+			if (!follow) {
+				translation.x -= emitterTranslation.x - store.initialPositionX[i];
+				translation.y -= emitterTranslation.y - store.initialPositionY[i];
+				translation.z -= emitterTranslation.z - store.initialPositionZ[i];
 			}
+			
+			tempV4.set(store.colorR[i], store.colorG[i], store.colorB[i], store.colorA[i]*store.alpha[i]);
+			putParticle(drawn, tempV4.asIntABGR());
+			drawn++;
         }
 		
-		this.setBuffer(VertexBuffer.Type.Position, 3, finVerts);
-		if (particles[0].emitter.getApplyLightingTransform())
-			this.setBuffer(VertexBuffer.Type.Normal, 3, finNormals);
-		this.setBuffer(VertexBuffer.Type.Color, 4, finColors);
+		updateBuffers(drawn);
+    }
+	
+	/**
+	 * Builds the particle's vertex transform: billboard rotation, then size, then the
+	 * particle rotation.  The normal transform is the particle rotation alone.
+	 */
+	private void computeTransform(Vector3f velocity, Vector3f normal, Vector3f size, Vector3f angles) {
+		basis.compute(velocity, normal);
+		basis.rotation.toRotationMatrix(transform);
+		for (int c = 0; c < 3; c++) {
+			transform.set(0, c, transform.get(0, c)*size.x);
+			transform.set(1, c, transform.get(1, c)*size.y);
+			transform.set(2, c, transform.get(2, c)*size.z);
+		}
+		rotStore.fromAngles(angles.x, angles.y, angles.z);
+		rotStore.toRotationMatrix(mat3);
+		mat3.mult(transform, transform);
+	}
+	
+	/**
+	 * Writes the transformed template into the slot of the drawn'th particle
+	 */
+	private void putParticle(int drawn, int abgr) {
+		float m00 = transform.get(0,0), m01 = transform.get(0,1), m02 = transform.get(0,2);
+		float m10 = transform.get(1,0), m11 = transform.get(1,1), m12 = transform.get(1,2);
+		float m20 = transform.get(2,0), m21 = transform.get(2,1), m22 = transform.get(2,2);
+		float tx = translation.x, ty = translation.y, tz = translation.z;
+		includeParticleBound(tx, ty, tz,
+			FastMath.abs(m00)*templateExtentX + FastMath.abs(m01)*templateExtentY + FastMath.abs(m02)*templateExtentZ,
+			FastMath.abs(m10)*templateExtentX + FastMath.abs(m11)*templateExtentY + FastMath.abs(m12)*templateExtentZ,
+			FastMath.abs(m20)*templateExtentX + FastMath.abs(m21)*templateExtentY + FastMath.abs(m22)*templateExtentZ);
+		
+		int vertCount = templateVerts.capacity();
+		int offset = vertCount*drawn;
+		for (int x = 0; x < vertCount; x += 3) {
+			float vx = templateVerts.get(x), vy = templateVerts.get(x+1), vz = templateVerts.get(x+2);
+			finVerts.put(offset+x,   m00 * vx + m01 * vy + m02 * vz + tx);
+			finVerts.put(offset+x+1, m10 * vx + m11 * vy + m12 * vz + ty);
+			finVerts.put(offset+x+2, m20 * vx + m21 * vy + m22 * vz + tz);
+		}
+		
+		if (finNormals != null && emitter.getApplyLightingTransform()) {
+			m00 = mat3.get(0,0); m01 = mat3.get(0,1); m02 = mat3.get(0,2);
+			m10 = mat3.get(1,0); m11 = mat3.get(1,1); m12 = mat3.get(1,2);
+			m20 = mat3.get(2,0); m21 = mat3.get(2,1); m22 = mat3.get(2,2);
+			for (int v = 0; v < templateNormals.capacity(); v += 3) {
+				float vx = templateNormals.get(v), vy = templateNormals.get(v+1), vz = templateNormals.get(v+2);
+				finNormals.put(offset+v,   m00 * vx + m01 * vy + m02 * vz);
+				finNormals.put(offset+v+1, m10 * vx + m11 * vy + m12 * vz);
+				finNormals.put(offset+v+2, m20 * vx + m21 * vy + m22 * vz);
+			}
+		}
+		
+		int colorCount = vertCount/3*4;
+		int colorOffset = colorCount*drawn;
+		for (int v = 0; v < colorCount; v += 4) {
+			finColors.putInt(colorOffset+v, abgr);
+		}
+	}
+	
+	private void updateBuffers(int drawn) {
+		finVerts.limit(templateVerts.capacity()*drawn);
+		finColors.limit(templateVerts.capacity()/3*4*drawn);
+		getBuffer(VertexBuffer.Type.Position).updateData(finVerts);
+		if (finNormals != null && emitter.getApplyLightingTransform()) {
+			finNormals.limit(templateNormals.capacity()*drawn);
+			getBuffer(VertexBuffer.Type.Normal).updateData(finNormals);
+		}
+		getBuffer(VertexBuffer.Type.Color).updateData(finColors);
+		setLiveParticleCount(drawn, templateIndexes.size());
 		
 		updateBound();
-    }
-}
\ No newline at end of file
+	}
+}
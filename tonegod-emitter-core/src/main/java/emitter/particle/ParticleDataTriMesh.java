@@ -3,19 +3,18 @@ package emitter.particle;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.FastMath;
 import com.jme3.math.Matrix3f;
-import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.VertexBuffer;
 import com.jme3.scene.VertexBuffer.Format;
 import com.jme3.scene.VertexBuffer.Usage;
+import com.jme3.scene.mesh.IndexBuffer;
 import com.jme3.util.BufferUtils;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 import emitter.Emitter;
-import static emitter.Emitter.BillboardMode.Velocity_Z_Up;
 
 /**
  *
@@ -26,26 +25,66 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
     private int imagesX = 1;
     private int imagesY = 1;
     private boolean uniqueTexCoords = false;
+    private boolean spriteFrames = false;
     private Emitter emitter;
-	private Vector3f left = new Vector3f(), tempLeft = new Vector3f();
-	private Vector3f up = new Vector3f(), tempUp = new Vector3f();
-	private Vector3f dir = new Vector3f();
+	private BillboardBasis basis;
+	private Vector3f tempLeft = new Vector3f();
+	private Vector3f tempUp = new Vector3f();
 	private Vector3f tempV3 = new Vector3f();
+	private Vector3f emitterOffset = new Vector3f();
 	private Vector3f tempV3a = new Vector3f();
 	private Vector3f tempV3b = new Vector3f();
-	private Quaternion rotStore = new Quaternion();
-	private Quaternion tempQ = new Quaternion();
 	private int imgX, imgY;
 	private float startX, startY, endX, endY;
 	private ColorRGBA tempC = new ColorRGBA();
-	private Vector3f lock = new Vector3f(0,0.99f,0.01f);
 	private Vector3f tangUp = new Vector3f();
+	private Vector3f velocity = new Vector3f();
+	private Vector3f normal = new Vector3f();
+	private Vector3f angles = new Vector3f();
+	
+    private static final ParticleBufferCache.Builder TEXCOORDS = new ParticleBufferCache.Builder(VertexBuffer.Type.TexCoord, 2) {
+        @Override
+        public Buffer build(int numParticles) {
+            FloatBuffer tb = BufferUtils.createVector2Buffer(numParticles * 4);
+            for (int i = 0; i < numParticles; i++){
+                tb.put(0f).put(1f);
+                tb.put(1f).put(1f);
+                tb.put(0f).put(0f);
+                tb.put(1f).put(0f);
+            }
+            tb.flip();
+            return tb;
+        }
+    };
+    
+    private static final ParticleBufferCache.Builder INDICES = new ParticleBufferCache.Builder(VertexBuffer.Type.Index, 3) {
+        @Override
+        public Buffer build(int numParticles) {
+            IndexBuffer ib = IndexBuffer.createIndexBuffer(numParticles * 4, numParticles * 6);
+            int n = 0;
+            for (int i = 0; i < numParticles; i++){
+                int startIdx = (i * 4);
+
+                // triangle 1
+                ib.put(n++, startIdx + 1);
+                ib.put(n++, startIdx + 0);
+                ib.put(n++, startIdx + 2);
+
+                // triangle 2
+                ib.put(n++, startIdx + 1);
+                ib.put(n++, startIdx + 2);
+                ib.put(n++, startIdx + 3);
+            }
+            return ib.getBuffer();
+        }
+    };
 	
     @Override
     public void initParticleData(Emitter emitter, int numParticles) {
         setMode(Mode.Triangles);
 
         this.emitter = emitter;
+        this.basis = new BillboardBasis(emitter);
 
 //        particlesCopy = new ParticleData[numParticles];
 
@@ -74,50 +113,18 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
         }
 
         // set texcoords
-        FloatBuffer tb = BufferUtils.createVector2Buffer(numParticles * 4);
         uniqueTexCoords = false;
-        for (int i = 0; i < numParticles; i++){
-            tb.put(0f).put(1f);
-            tb.put(1f).put(1f);
-            tb.put(0f).put(0f);
-            tb.put(1f).put(0f);
-        }
-        tb.flip();
-        
-        buf = getBuffer(VertexBuffer.Type.TexCoord);
-        if (buf != null) {
-            buf.updateData(tb);
-        } else {
-            VertexBuffer tvb = new VertexBuffer(VertexBuffer.Type.TexCoord);
-            tvb.setupData(Usage.Static, 2, Format.Float, tb);
-            setBuffer(tvb);
-        }
-
-        // set indices
-        ShortBuffer ib = BufferUtils.createShortBuffer(numParticles * 6);
-        for (int i = 0; i < numParticles; i++){
-            int startIdx = (i * 4);
-
-            // triangle 1
-            ib.put((short)(startIdx + 1))
-              .put((short)(startIdx + 0))
-              .put((short)(startIdx + 2));
+        setSharedTexCoordBuffer(TEXCOORDS, numParticles);
 
-            // triangle 2
-            ib.put((short)(startIdx + 1))
-              .put((short)(startIdx + 2))
-              .put((short)(startIdx + 3));
-        }
-        ib.flip();
+        // set sprite frames
+        spriteFrames = false;
+        if (emitter.getUseShaderSpriteUVs())
+            setSpriteFrameBuffer(numParticles * 4);
+        else if (getBuffer(VertexBuffer.Type.TexCoord2) != null)
+            clearBuffer(VertexBuffer.Type.TexCoord2);
 
-        buf = getBuffer(VertexBuffer.Type.Index);
-        if (buf != null) {
-            buf.updateData(ib);
-        } else {
-            VertexBuffer ivb = new VertexBuffer(VertexBuffer.Type.Index);
-            ivb.setupData(Usage.Static, 3, Format.UnsignedShort, ib);
-            setBuffer(ivb);
-        }
+        // set indices
+        setSharedIndexBuffer(INDICES, numParticles);
         
         updateCounts();
     }
@@ -127,8 +134,21 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
         this.imagesX = imagesX;
         this.imagesY = imagesY;
         if (imagesX != 1 || imagesY != 1){
-            uniqueTexCoords = true;
-            getBuffer(VertexBuffer.Type.TexCoord).setUsage(Usage.Stream);
+            if (emitter.getUseShaderSpriteUVs()) {
+                spriteFrames = true;
+            } else {
+                uniqueTexCoords = true;
+                useUniqueTexCoords(emitter.getUseCompactTexCoords());
+            }
+        } else if (spriteFrames) {
+            // back to a single image, reset every particle to frame 0
+            spriteFrames = false;
+            ByteBuffer frames = (ByteBuffer) getBuffer(VertexBuffer.Type.TexCoord2).getData();
+            frames.clear();
+            while (frames.hasRemaining())
+                frames.put((byte)0);
+            frames.flip();
+            getBuffer(VertexBuffer.Type.TexCoord2).updateData(frames);
         }
     }
 	
@@ -143,16 +163,26 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
         VertexBuffer cvb = getBuffer(VertexBuffer.Type.Color);
         ByteBuffer colors = (ByteBuffer) cvb.getData();
 
-        VertexBuffer tvb = getBuffer(VertexBuffer.Type.TexCoord);
-        FloatBuffer texcoords = (FloatBuffer) tvb.getData();
+        FloatBuffer texcoords = getTexCoordData();
+
+        ByteBuffer frames = spriteFrames ? (ByteBuffer) getBuffer(VertexBuffer.Type.TexCoord2).getData() : null;
+        if (spriteFrames)
+            frames.clear();
 
         // update data in vertex buffers
         positions.clear();
         colors.clear();
         texcoords.clear();
         
-        for (int i = 0; i < particles.length; i++){
-            ParticleData p = particles[i];
+        basis.begin(cam);
+        resetParticleBound(emitter);
+        
+        // live particles are packed at the front of the buffers
+        int[] live = emitter.getRenderLive();
+        int liveCount = emitter.getRenderLiveCount();
+        
+        for (int k = 0; k < liveCount; k++){
+            ParticleData p = particles[live[k]];
             if (p.life == 0 || !p.active) {
                 positions.put(0).put(0).put(0);
                 positions.put(0).put(0).put(0);
@@ -182,146 +212,19 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
 				*/
             } else {
 			
-				switch (emitter.getBillboardMode()) {
-					case Velocity:
-						if (p.velocity.x != Vector3f.UNIT_Y.x &&
-							p.velocity.y != Vector3f.UNIT_Y.y &&
-							p.velocity.z != Vector3f.UNIT_Y.z)
-							up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-						else
-							up.set(p.velocity).crossLocal(lock).normalizeLocal();
-						left.set(p.velocity).crossLocal(up).normalizeLocal();
-						dir.set(p.velocity);
-						break;
-					case Velocity_Z_Up:
-						if (p.velocity.x != Vector3f.UNIT_Y.x &&
-							p.velocity.y != Vector3f.UNIT_Y.y &&
-							p.velocity.z != Vector3f.UNIT_Y.z)
-							up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-						else
-							up.set(p.velocity).crossLocal(lock).normalizeLocal();
-						left.set(p.velocity).crossLocal(up).normalizeLocal();
-						dir.set(p.velocity);
-						rotStore = tempQ.fromAngleAxis(-90*FastMath.DEG_TO_RAD, left);
-						left = rotStore.mult(left);
-						up = rotStore.mult(up);
-						break;
-					case Velocity_Z_Up_Y_Left:
-						up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-						left.set(p.velocity).crossLocal(up).normalizeLocal();
-						dir.set(p.velocity);
-						tempV3.set(left).crossLocal(up).normalizeLocal();
-						rotStore = tempQ.fromAngleAxis(90*FastMath.DEG_TO_RAD, p.velocity);
-						left = rotStore.mult(left);
-						up = rotStore.mult(up);
-						rotStore = tempQ.fromAngleAxis(-90*FastMath.DEG_TO_RAD, left);
-						up = rotStore.mult(up);
-						break;
-					case Normal:
-						emitter.getShape().setNext(p.triangleIndex);
-						tempV3.set(emitter.getShape().getNormal());
-						if (tempV3 == Vector3f.UNIT_Y)
-							tempV3.set(p.velocity);
-
-						up.set(tempV3).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-						left.set(tempV3).crossLocal(up).normalizeLocal();
-						dir.set(tempV3);
-						break;
-					case Normal_Y_Up:
-						emitter.getShape().setNext(p.triangleIndex);
-						tempV3.set(p.velocity);
-						if (tempV3 == Vector3f.UNIT_Y)
-							tempV3.set(Vector3f.UNIT_X);
-
-						up.set(Vector3f.UNIT_Y);
-						left.set(tempV3).crossLocal(up).normalizeLocal();
-						dir.set(tempV3);
-					case Camera:
-						up.set(cam.getUp());
-						left.set(cam.getLeft());
-						dir.set(cam.getDirection());
-						break;
-					case Oriented_Self:
-						if (p.velocity.x != Vector3f.UNIT_Y.x &&
-							p.velocity.y != Vector3f.UNIT_Y.y &&
-							p.velocity.z != Vector3f.UNIT_Y.z)
-							up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
-						else
-							up.set(p.velocity).crossLocal(lock).normalizeLocal();
-						left.set(cam.getDirection()).crossLocal(up).normalizeLocal();
-						dir.set(left);
-						dir.set(p.velocity);
-						break;
-					case Oriented_Common:
-						emitter.getShape().setNext(p.triangleIndex);
-						tempV3.set(p.velocity);
-						if (tempV3 == Vector3f.UNIT_Y)
-							tempV3.set(Vector3f.UNIT_X);
-						up.set(p.emitter.getCommonDirection());
-						left.set(cam.getDirection()).crossLocal(up).normalizeLocal();
-						dir.set(tempV3);
-//						break;
-					case UNIT_X:
-						up.set(Vector3f.UNIT_Y);
-						left.set(Vector3f.UNIT_Z);
-						dir.set(Vector3f.UNIT_X);
-						break;
-					case UNIT_Y:
-						up.set(Vector3f.UNIT_Z);
-						left.set(Vector3f.UNIT_X);
-						dir.set(Vector3f.UNIT_Y);
-						break;
-					case UNIT_Z:
-						up.set(Vector3f.UNIT_X);
-						left.set(Vector3f.UNIT_Y);
-						dir.set(Vector3f.UNIT_Z);
-						break;
-				}
-
-				p.upVec.set(up);
-
-				if (p.emitter.getUseVelocityStretching()) {
-					up.multLocal(p.velocity.length()*p.emitter.getVelocityStretchFactor());
-				}
-
-				up.multLocal(p.size.y);
-				left.multLocal(p.size.x);
-
-				rotStore = tempQ.fromAngleAxis(p.angles.y, left);
-				left = rotStore.mult(left);
-				up = rotStore.mult(up);
-
-				rotStore = tempQ.fromAngleAxis(p.angles.x, up);
-				left = rotStore.mult(left);
-				up = rotStore.mult(up);
-
-				rotStore = tempQ.fromAngleAxis(p.angles.z, dir);
-				left = rotStore.mult(left);
-				up = rotStore.mult(up);
+				basis.compute(p.velocity, p.emissionNormal);
+				p.upVec.set(basis.up);
+				basis.orient(p.velocity, p.size.x, p.size.y, p.angles);
 
 				if (emitter.getParticlesFollowEmitter()) {
 					tempV3.set(p.position);
 				} else {
 					tempV3.set(p.position).subtractLocal(
-						emitter.getEmitterNode().getWorldTranslation().subtract(p.initialPosition)
+						emitterOffset.set(emitter.getEmitterNode().getWorldTranslation()).subtractLocal(p.initialPosition)
 					);
 				}
 
-				positions.put(tempV3.x + left.x + up.x)
-						 .put(tempV3.y + left.y + up.y)
-						 .put(tempV3.z + left.z + up.z);
-
-				positions.put(tempV3.x - left.x + up.x)
-						 .put(tempV3.y - left.y + up.y)
-						 .put(tempV3.z - left.z + up.z);
-
-				positions.put(tempV3.x + left.x - up.x)
-						 .put(tempV3.y + left.y - up.y)
-						 .put(tempV3.z + left.z - up.z);
-
-				positions.put(tempV3.x - left.x - up.x)
-						 .put(tempV3.y - left.y - up.y)
-						 .put(tempV3.z - left.z - up.z);
+				putQuad(positions);
 			}
 			
 			if (uniqueTexCoords){
@@ -334,6 +237,9 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
 				texcoords.put(endX).put(endY);
 				texcoords.put(startX).put(startY);
 				texcoords.put(endX).put(startY);
+			} else if (spriteFrames) {
+				int frame = spriteFrame(p.spriteCol, p.spriteRow);
+				frames.putInt(frame).putInt(frame).putInt(frame).putInt(frame);
 			}
 
 			tempC.set(p.color);
@@ -346,21 +252,150 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
         }
 		
 	//	this.setBuffer(VertexBuffer.Type.Position, 3, positions);
+        positions.flip();
+        colors.flip();
+        if (!uniqueTexCoords)
+            texcoords.clear();
+        else{
+            texcoords.flip();
+            updateTexCoords(texcoords);
+        }
+        if (spriteFrames) {
+            frames.flip();
+            getBuffer(VertexBuffer.Type.TexCoord2).updateData(frames);
+        }
+
+        // force renderer to re-send data to GPU
+        pvb.updateData(positions);
+        cvb.updateData(colors);
+		setLiveParticleCount(liveCount, 6);
+		
+		updateBound();
+    }
+
+    @Override
+    public void updateParticleData(ParticleStore store, ParticleData[] particles, Camera cam, Matrix3f inverseRotation) {
+        VertexBuffer pvb = getBuffer(VertexBuffer.Type.Position);
+        FloatBuffer positions = (FloatBuffer) pvb.getData();
+
+        VertexBuffer cvb = getBuffer(VertexBuffer.Type.Color);
+        ByteBuffer colors = (ByteBuffer) cvb.getData();
+
+        FloatBuffer texcoords = getTexCoordData();
+
+        ByteBuffer frames = spriteFrames ? (ByteBuffer) getBuffer(VertexBuffer.Type.TexCoord2).getData() : null;
+        if (spriteFrames)
+            frames.clear();
+
         positions.clear();
         colors.clear();
+        texcoords.clear();
+        
+        basis.begin(cam);
+        resetParticleBound(emitter);
+		
+		boolean follow = emitter.getParticlesFollowEmitter();
+		Vector3f emitterTranslation = emitter.getEmitterNode().getWorldTranslation();
+		float spriteW = 1f/emitter.getSpriteColCount();
+		float spriteH = 1f/emitter.getSpriteRowCount();
+        
+		int[] live = emitter.getRenderLive();
+		int liveCount = emitter.getRenderLiveCount();
+        
+        for (int k = 0; k < liveCount; k++){
+			int i = live[k];
+            if (store.life[i] == 0 || !store.active[i]) {
+                positions.put(0).put(0).put(0);
+                positions.put(0).put(0).put(0);
+                positions.put(0).put(0).put(0);
+                positions.put(0).put(0).put(0);
+            } else {
+				velocity.set(store.velocityX[i], store.velocityY[i], store.velocityZ[i]);
+				normal.set(store.emissionNormalX[i], store.emissionNormalY[i], store.emissionNormalZ[i]);
+				angles.set(store.anglesX[i], store.anglesY[i], store.anglesZ[i]);
+				
+				basis.compute(velocity, normal);
+				basis.orient(velocity, store.sizeX[i], store.sizeY[i], angles);
+				
+				tempV3.set(store.positionX[i], store.positionY[i], store.positionZ[i]);
+				if (!follow) {
+					tempV3.x -= emitterTranslation.x - store.initialPositionX[i];
+					tempV3.y -= emitterTranslation.y - store.initialPositionY[i];
+					tempV3.z -= emitterTranslation.z - store.initialPositionZ[i];
+				}
+				
+				putQuad(positions);
+			}
+			
+			if (uniqueTexCoords){
+				startX = spriteW*store.spriteCol[i];
+				startY = spriteH*store.spriteRow[i];
+				endX   = startX + spriteW;
+				endY   = startY + spriteH;
+				
+				texcoords.put(startX).put(endY);
+				texcoords.put(endX).put(endY);
+				texcoords.put(startX).put(startY);
+				texcoords.put(endX).put(startY);
+			} else if (spriteFrames) {
+				int frame = spriteFrame(store.spriteCol[i], store.spriteRow[i]);
+				frames.putInt(frame).putInt(frame).putInt(frame).putInt(frame);
+			}
+			
+			tempC.set(store.colorR[i], store.colorG[i], store.colorB[i], store.colorA[i]*store.alpha[i]);
+			int abgr = tempC.asIntABGR();
+            colors.putInt(abgr);
+            colors.putInt(abgr);
+            colors.putInt(abgr);
+            colors.putInt(abgr);
+        }
+		
+        positions.flip();
+        colors.flip();
         if (!uniqueTexCoords)
             texcoords.clear();
         else{
-            texcoords.clear();
-            tvb.updateData(texcoords);
+            texcoords.flip();
+            updateTexCoords(texcoords);
+        }
+        if (spriteFrames) {
+            frames.flip();
+            getBuffer(VertexBuffer.Type.TexCoord2).updateData(frames);
         }
 
-        // force renderer to re-send data to GPU
         pvb.updateData(positions);
         cvb.updateData(colors);
+		setLiveParticleCount(liveCount, 6);
 		
 		updateBound();
     }
+	
+	/**
+	 * Writes the four corners of the particle quad centered on tempV3 and grows the bound
+	 * to contain them
+	 */
+	private void putQuad(FloatBuffer positions) {
+		Vector3f left = basis.left, up = basis.up;
+		includeParticleBound(tempV3.x, tempV3.y, tempV3.z,
+			FastMath.abs(left.x) + FastMath.abs(up.x),
+			FastMath.abs(left.y) + FastMath.abs(up.y),
+			FastMath.abs(left.z) + FastMath.abs(up.z));
+		positions.put(tempV3.x + left.x + up.x)
+				 .put(tempV3.y + left.y + up.y)
+				 .put(tempV3.z + left.z + up.z);
+
+		positions.put(tempV3.x - left.x + up.x)
+				 .put(tempV3.y - left.y + up.y)
+				 .put(tempV3.z - left.z + up.z);
+
+		positions.put(tempV3.x + left.x - up.x)
+				 .put(tempV3.y + left.y - up.y)
+				 .put(tempV3.z + left.z - up.z);
+
+		positions.put(tempV3.x - left.x - up.x)
+				 .put(tempV3.y - left.y - up.y)
+				 .put(tempV3.z - left.z - up.z);
+	}
 
 	@Override
 	public void extractTemplateFromMesh(Mesh mesh) {  }
@@ -0,0 +1,130 @@
+package emitter.particle;
+
+import com.jme3.math.Vector3f;
+import java.util.Arrays;
+
+/**
+ * Orders live particle slots back to front along a view axis so translucent particles
+ * blend correctly.  Depths are sorted with a least significant digit radix sort over the
+ * float bits (three 11 bit passes), so cost grows linearly with the live count.  Passes
+ * whose digit is the same for every particle are skipped, which is common from frame to
+ * frame as depths drift slowly.
+ */
+public class ParticleDepthSorter {
+	private static final int RADIX_BITS = 11;
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int MASK = RADIX - 1;
+
+	private int[] order = new int[0], orderSwap = new int[0];
+	private int[] keys = new int[0], keySwap = new int[0];
+	private final int[] counts = new int[3*RADIX];
+
+	/**
+	 * Sorts the given live slots back to front
+	 * @param store The particle store holding the particle positions
+	 * @param live The live particle slots
+	 * @param count The number of valid entries in live
+	 * @param axis The camera direction in the particle mesh's space
+	 * @param follow If the particles follow the emitter.  When they do not the mesh writers
+	 * offset each particle by its initial position.
+	 * @return The sorted slots, valid for count entries until the next call
+	 */
+	public int[] sort(ParticleStore store, int[] live, int count, Vector3f axis, boolean follow) {
+		ensureCapacity(count);
+		float ax = axis.x, ay = axis.y, az = axis.z;
+		for (int k = 0; k < count; k++) {
+			int i = live[k];
+			float x = store.positionX[i], y = store.positionY[i], z = store.positionZ[i];
+			if (!follow) {
+				x += store.initialPositionX[i];
+				y += store.initialPositionY[i];
+				z += store.initialPositionZ[i];
+			}
+			order[k] = i;
+			keys[k] = key(ax*x + ay*y + az*z);
+		}
+		radixSort(count);
+		return order;
+	}
+
+	/**
+	 * Sorts the given live slots back to front
+	 * @param particles The particles indexed by slot
+	 * @param live The live particle slots
+	 * @param count The number of valid entries in live
+	 * @param axis The camera direction in the particle mesh's space
+	 * @param follow If the particles follow the emitter.  When they do not the mesh writers
+	 * offset each particle by its initial position.
+	 * @return The sorted slots, valid for count entries until the next call
+	 */
+	public int[] sort(ParticleData[] particles, int[] live, int count, Vector3f axis, boolean follow) {
+		ensureCapacity(count);
+		float ax = axis.x, ay = axis.y, az = axis.z;
+		for (int k = 0; k < count; k++) {
+			int i = live[k];
+			ParticleData p = particles[i];
+			float x = p.position.x, y = p.position.y, z = p.position.z;
+			if (!follow) {
+				x += p.initialPosition.x;
+				y += p.initialPosition.y;
+				z += p.initialPosition.z;
+			}
+			order[k] = i;
+			keys[k] = key(ax*x + ay*y + az*z);
+		}
+		radixSort(count);
+		return order;
+	}
+
+	/**
+	 * Maps a depth to an int whose unsigned order is descending depth
+	 */
+	private static int key(float depth) {
+		int bits = Float.floatToRawIntBits(depth);
+		// flip negatives entirely and positives' sign bit so unsigned order follows the
+		// float order, then invert for farthest first
+		return ~(bits ^ ((bits >> 31) | 0x80000000));
+	}
+
+	private void ensureCapacity(int count) {
+		if (order.length < count) {
+			order = new int[count];
+			orderSwap = new int[count];
+			keys = new int[count];
+			keySwap = new int[count];
+		}
+	}
+
+	private void radixSort(int count) {
+		if (count == 0)
+			return;
+		// histogram all three digits in one read of the keys
+		Arrays.fill(counts, 0);
+		for (int k = 0; k < count; k++) {
+			int key = keys[k];
+			counts[key & MASK]++;
+			counts[RADIX + ((key >>> RADIX_BITS) & MASK)]++;
+			counts[2*RADIX + (key >>> 2*RADIX_BITS)]++;
+		}
+		for (int pass = 0; pass < 3; pass++) {
+			int base = pass*RADIX, shift = pass*RADIX_BITS;
+			// every key shares this digit, the pass would not move anything
+			if (counts[base + ((keys[0] >>> shift) & MASK)] == count)
+				continue;
+			int sum = 0;
+			for (int d = base; d < base + RADIX; d++) {
+				int c = counts[d];
+				counts[d] = sum;
+				sum += c;
+			}
+			for (int k = 0; k < count; k++) {
+				int key = keys[k];
+				int dst = counts[base + ((key >>> shift) & MASK)]++;
+				keySwap[dst] = key;
+				orderSwap[dst] = order[k];
+			}
+			int[] t = keys; keys = keySwap; keySwap = t;
+			t = order; order = orderSwap; orderSwap = t;
+		}
+	}
+}
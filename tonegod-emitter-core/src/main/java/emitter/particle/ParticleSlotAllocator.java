@@ -0,0 +1,177 @@
+package emitter.particle;
+
+/**
+ * Tracks which particle slots are in use.  Free slots are kept on a stack and
+ * live slots in a dense list, so allocating, releasing and iterating live
+ * particles never scans the full particle array.  Releasing a slot swaps the
+ * last live slot into its place, so the order of the live list is not stable.
+ *
+ * Kills requested while the live list is being iterated are queued and
+ * applied in one batch once iteration has finished.
+ */
+public class ParticleSlotAllocator {
+	private final int capacity;
+	private final int[] free;
+	private int freeCount;
+	private final int[] live;
+	private final int[] livePosition;
+	private int liveCount;
+	private final int[] killQueue;
+	private final boolean[] pendingKill;
+	private int killCount;
+
+	/**
+	 * Creates a new allocator with all slots free
+	 * @param capacity The number of particle slots
+	 */
+	public ParticleSlotAllocator(int capacity) {
+		this.capacity = capacity;
+		free = new int[capacity];
+		live = new int[capacity];
+		livePosition = new int[capacity];
+		killQueue = new int[capacity];
+		pendingKill = new boolean[capacity];
+		clear();
+	}
+
+	/**
+	 * Marks all slots as free and drops any queued kills
+	 */
+	public final void clear() {
+		// Lowest slots are handed out first
+		for (int i = 0; i < capacity; i++) {
+			free[i] = capacity - 1 - i;
+			livePosition[i] = -1;
+			pendingKill[i] = false;
+		}
+		freeCount = capacity;
+		liveCount = 0;
+		killCount = 0;
+	}
+
+	/**
+	 * Takes a free slot and appends it to the live list
+	 * @return The allocated slot or -1 if all slots are in use
+	 */
+	public int allocate() {
+		if (freeCount == 0)
+			return -1;
+		int slot = free[--freeCount];
+		livePosition[slot] = liveCount;
+		live[liveCount++] = slot;
+		return slot;
+	}
+
+	/**
+	 * Takes up to count free slots at once.  The allocated slots are appended to the
+	 * end of the live list, starting at the live count prior to the call.
+	 * @param count The number of slots wanted
+	 * @return The number of slots actually allocated
+	 */
+	public int allocate(int count) {
+		int n = Math.min(count, freeCount);
+		for (int j = 0; j < n; j++) {
+			int slot = free[--freeCount];
+			livePosition[slot] = liveCount;
+			live[liveCount++] = slot;
+		}
+		return n;
+	}
+
+	/**
+	 * Removes a slot from the live list and returns it to the free stack.  Releasing
+	 * a slot that is not live has no effect.
+	 * @param slot The slot to release
+	 */
+	public void release(int slot) {
+		int pos = livePosition[slot];
+		if (pos == -1)
+			return;
+		int last = live[--liveCount];
+		live[pos] = last;
+		livePosition[last] = pos;
+		livePosition[slot] = -1;
+		free[freeCount++] = slot;
+	}
+
+	/**
+	 * Queues a live slot to be killed by the next call to drainKills
+	 * @param slot The slot to kill
+	 */
+	public void queueKill(int slot) {
+		if (pendingKill[slot] || livePosition[slot] == -1)
+			return;
+		pendingKill[slot] = true;
+		killQueue[killCount++] = slot;
+	}
+
+	/**
+	 * Returns if the slot has been queued for killing
+	 * @param slot
+	 * @return
+	 */
+	public boolean isPendingKill(int slot) {
+		return pendingKill[slot];
+	}
+
+	/**
+	 * Returns the number of queued kills
+	 * @return
+	 */
+	public int getKillCount() {
+		return killCount;
+	}
+
+	/**
+	 * Removes and returns the most recently queued kill
+	 * @return The slot to kill or -1 if the queue is empty
+	 */
+	public int pollKill() {
+		if (killCount == 0)
+			return -1;
+		int slot = killQueue[--killCount];
+		pendingKill[slot] = false;
+		return slot;
+	}
+
+	/**
+	 * Returns if the slot is currently live
+	 * @param slot
+	 * @return
+	 */
+	public boolean isLive(int slot) {
+		return livePosition[slot] != -1;
+	}
+
+	/**
+	 * Returns the dense list of live slots.  Only the first getLiveCount() entries are valid.
+	 * @return
+	 */
+	public int[] getLive() {
+		return live;
+	}
+
+	/**
+	 * Returns the number of live slots
+	 * @return
+	 */
+	public int getLiveCount() {
+		return liveCount;
+	}
+
+	/**
+	 * Returns the number of free slots
+	 * @return
+	 */
+	public int getFreeCount() {
+		return freeCount;
+	}
+
+	/**
+	 * Returns the total number of slots
+	 * @return
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+}
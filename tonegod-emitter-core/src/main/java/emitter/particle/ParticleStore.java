@@ -0,0 +1,424 @@
+package emitter.particle;
+
+import emitter.Emitter;
+import emitter.Interpolation;
+
+/**
+ * Structure-of-arrays storage for the per-particle channels touched every frame.
+ * Each channel is a flat primitive array indexed by particle slot, so kernels
+ * can stream over a single channel without chasing ParticleData references.
+ *
+ * Channels not mirrored here remain owned by the ParticleData instance of the
+ * same slot, which acts as the compatibility view for influencers that only
+ * implement the object based update.
+ */
+public class ParticleStore {
+	private final Emitter emitter;
+	private final int capacity;
+
+	public final boolean[] active;
+
+	public final float[] positionX, positionY, positionZ;
+	public final float[] previousPositionX, previousPositionY, previousPositionZ;
+	public final float[] velocityX, velocityY, velocityZ;
+	public final float[] reverseVelocityX, reverseVelocityY, reverseVelocityZ;
+	public final float[] initialPositionX, initialPositionY, initialPositionZ;
+	public final float[] randomOffsetX, randomOffsetY, randomOffsetZ;
+	public final float[] emissionNormalX, emissionNormalY, emissionNormalZ;
+	public final float[] initialLength;
+
+	public final float[] life, startlife, blend, interpBlend;
+
+	public final float[] colorR, colorG, colorB, colorA;
+	public final int[] colorIndex;
+	public final float[] colorInterval, colorDuration;
+	public final Interpolation[] colorInterpolation;
+
+	public final float[] alpha;
+	public final int[] alphaIndex;
+	public final float[] alphaInterval, alphaDuration;
+	public final Interpolation[] alphaInterpolation;
+
+	public final float[] sizeX, sizeY, sizeZ;
+	public final float[] startSizeX, startSizeY, startSizeZ;
+	public final float[] endSizeX, endSizeY, endSizeZ;
+	public final int[] sizeIndex;
+	public final float[] sizeInterval, sizeDuration;
+	public final Interpolation[] sizeInterpolation;
+
+	public final float[] anglesX, anglesY, anglesZ;
+	public final float[] rotationSpeedX, rotationSpeedY, rotationSpeedZ;
+	public final float[] startRotationSpeedX, startRotationSpeedY, startRotationSpeedZ;
+	public final float[] endRotationSpeedX, endRotationSpeedY, endRotationSpeedZ;
+	public final int[] rotationIndex;
+	public final float[] rotationInterval, rotationDuration;
+	public final Interpolation[] rotationInterpolation;
+	public final boolean[] rotateDirectionX, rotateDirectionY, rotateDirectionZ;
+
+	public final int[] triangleIndex;
+	public final int[] spriteCol, spriteRow;
+
+	/**
+	 * Creates a new store able to hold the specified number of particles
+	 * @param emitter The emitter owning the particles
+	 * @param capacity The maximum number of particles
+	 */
+	public ParticleStore(Emitter emitter, int capacity) {
+		this.emitter = emitter;
+		this.capacity = capacity;
+
+		active = new boolean[capacity];
+
+		positionX = new float[capacity];
+		positionY = new float[capacity];
+		positionZ = new float[capacity];
+		previousPositionX = new float[capacity];
+		previousPositionY = new float[capacity];
+		previousPositionZ = new float[capacity];
+		velocityX = new float[capacity];
+		velocityY = new float[capacity];
+		velocityZ = new float[capacity];
+		reverseVelocityX = new float[capacity];
+		reverseVelocityY = new float[capacity];
+		reverseVelocityZ = new float[capacity];
+		initialPositionX = new float[capacity];
+		initialPositionY = new float[capacity];
+		initialPositionZ = new float[capacity];
+		randomOffsetX = new float[capacity];
+		randomOffsetY = new float[capacity];
+		randomOffsetZ = new float[capacity];
+		emissionNormalX = new float[capacity];
+		emissionNormalY = new float[capacity];
+		emissionNormalZ = new float[capacity];
+		initialLength = new float[capacity];
+
+		life = new float[capacity];
+		startlife = new float[capacity];
+		blend = new float[capacity];
+		interpBlend = new float[capacity];
+
+		colorR = new float[capacity];
+		colorG = new float[capacity];
+		colorB = new float[capacity];
+		colorA = new float[capacity];
+		colorIndex = new int[capacity];
+		colorInterval = new float[capacity];
+		colorDuration = new float[capacity];
+		colorInterpolation = new Interpolation[capacity];
+
+		alpha = new float[capacity];
+		alphaIndex = new int[capacity];
+		alphaInterval = new float[capacity];
+		alphaDuration = new float[capacity];
+		alphaInterpolation = new Interpolation[capacity];
+
+		sizeX = new float[capacity];
+		sizeY = new float[capacity];
+		sizeZ = new float[capacity];
+		startSizeX = new float[capacity];
+		startSizeY = new float[capacity];
+		startSizeZ = new float[capacity];
+		endSizeX = new float[capacity];
+		endSizeY = new float[capacity];
+		endSizeZ = new float[capacity];
+		sizeIndex = new int[capacity];
+		sizeInterval = new float[capacity];
+		sizeDuration = new float[capacity];
+		sizeInterpolation = new Interpolation[capacity];
+
+		anglesX = new float[capacity];
+		anglesY = new float[capacity];
+		anglesZ = new float[capacity];
+		rotationSpeedX = new float[capacity];
+		rotationSpeedY = new float[capacity];
+		rotationSpeedZ = new float[capacity];
+		startRotationSpeedX = new float[capacity];
+		startRotationSpeedY = new float[capacity];
+		startRotationSpeedZ = new float[capacity];
+		endRotationSpeedX = new float[capacity];
+		endRotationSpeedY = new float[capacity];
+		endRotationSpeedZ = new float[capacity];
+		rotationIndex = new int[capacity];
+		rotationInterval = new float[capacity];
+		rotationDuration = new float[capacity];
+		rotationInterpolation = new Interpolation[capacity];
+		rotateDirectionX = new boolean[capacity];
+		rotateDirectionY = new boolean[capacity];
+		rotateDirectionZ = new boolean[capacity];
+
+		triangleIndex = new int[capacity];
+		spriteCol = new int[capacity];
+		spriteRow = new int[capacity];
+	}
+
+	/**
+	 * Returns the emitter owning the stored particles
+	 * @return
+	 */
+	public Emitter getEmitter() {
+		return this.emitter;
+	}
+
+	/**
+	 * Returns the maximum number of particles the store can hold
+	 * @return
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Copies the stored channels of the specified slot into the particle view
+	 * @param i The particle slot
+	 * @param p The ParticleData to update
+	 */
+	public void copyTo(int i, ParticleData p) {
+		p.active = active[i];
+
+		p.position.set(positionX[i], positionY[i], positionZ[i]);
+		p.previousPosition.set(previousPositionX[i], previousPositionY[i], previousPositionZ[i]);
+		p.velocity.set(velocityX[i], velocityY[i], velocityZ[i]);
+		p.reverseVelocity.set(reverseVelocityX[i], reverseVelocityY[i], reverseVelocityZ[i]);
+		p.initialPosition.set(initialPositionX[i], initialPositionY[i], initialPositionZ[i]);
+		p.randomOffset.set(randomOffsetX[i], randomOffsetY[i], randomOffsetZ[i]);
+		p.emissionNormal.set(emissionNormalX[i], emissionNormalY[i], emissionNormalZ[i]);
+		p.initialLength = initialLength[i];
+
+		p.life = life[i];
+		p.startlife = startlife[i];
+		p.blend = blend[i];
+		p.interpBlend = interpBlend[i];
+
+		p.color.set(colorR[i], colorG[i], colorB[i], colorA[i]);
+		p.colorIndex = colorIndex[i];
+		p.colorInterval = colorInterval[i];
+		p.colorDuration = colorDuration[i];
+		p.colorInterpolation = colorInterpolation[i];
+
+		p.alpha = alpha[i];
+		p.alphaIndex = alphaIndex[i];
+		p.alphaInterval = alphaInterval[i];
+		p.alphaDuration = alphaDuration[i];
+		p.alphaInterpolation = alphaInterpolation[i];
+
+		p.size.set(sizeX[i], sizeY[i], sizeZ[i]);
+		p.startSize.set(startSizeX[i], startSizeY[i], startSizeZ[i]);
+		p.endSize.set(endSizeX[i], endSizeY[i], endSizeZ[i]);
+		p.sizeIndex = sizeIndex[i];
+		p.sizeInterval = sizeInterval[i];
+		p.sizeDuration = sizeDuration[i];
+		p.sizeInterpolation = sizeInterpolation[i];
+
+		p.angles.set(anglesX[i], anglesY[i], anglesZ[i]);
+		p.rotationSpeed.set(rotationSpeedX[i], rotationSpeedY[i], rotationSpeedZ[i]);
+		p.startRotationSpeed.set(startRotationSpeedX[i], startRotationSpeedY[i], startRotationSpeedZ[i]);
+		p.endRotationSpeed.set(endRotationSpeedX[i], endRotationSpeedY[i], endRotationSpeedZ[i]);
+		p.rotationIndex = rotationIndex[i];
+		p.rotationInterval = rotationInterval[i];
+		p.rotationDuration = rotationDuration[i];
+		p.rotationInterpolation = rotationInterpolation[i];
+		p.rotateDirectionX = rotateDirectionX[i];
+		p.rotateDirectionY = rotateDirectionY[i];
+		p.rotateDirectionZ = rotateDirectionZ[i];
+
+		p.triangleIndex = triangleIndex[i];
+		p.spriteCol = spriteCol[i];
+		p.spriteRow = spriteRow[i];
+	}
+
+	/**
+	 * Copies the channels read by the mesh writers for the specified slot into another store
+	 * @param i The particle slot
+	 * @param target The store to copy into
+	 */
+	public void copySnapshot(int i, ParticleStore target) {
+		target.active[i] = active[i];
+		target.positionX[i] = positionX[i];
+		target.positionY[i] = positionY[i];
+		target.positionZ[i] = positionZ[i];
+		target.previousPositionX[i] = previousPositionX[i];
+		target.previousPositionY[i] = previousPositionY[i];
+		target.previousPositionZ[i] = previousPositionZ[i];
+		target.velocityX[i] = velocityX[i];
+		target.velocityY[i] = velocityY[i];
+		target.velocityZ[i] = velocityZ[i];
+		target.initialPositionX[i] = initialPositionX[i];
+		target.initialPositionY[i] = initialPositionY[i];
+		target.initialPositionZ[i] = initialPositionZ[i];
+		target.emissionNormalX[i] = emissionNormalX[i];
+		target.emissionNormalY[i] = emissionNormalY[i];
+		target.emissionNormalZ[i] = emissionNormalZ[i];
+		target.life[i] = life[i];
+		target.colorR[i] = colorR[i];
+		target.colorG[i] = colorG[i];
+		target.colorB[i] = colorB[i];
+		target.colorA[i] = colorA[i];
+		target.alpha[i] = alpha[i];
+		target.sizeX[i] = sizeX[i];
+		target.sizeY[i] = sizeY[i];
+		target.sizeZ[i] = sizeZ[i];
+		target.anglesX[i] = anglesX[i];
+		target.anglesY[i] = anglesY[i];
+		target.anglesZ[i] = anglesZ[i];
+		target.triangleIndex[i] = triangleIndex[i];
+		target.spriteCol[i] = spriteCol[i];
+		target.spriteRow[i] = spriteRow[i];
+	}
+
+	/**
+	 * Copies the particle view into the stored channels of the specified slot
+	 * @param p The ParticleData to read from
+	 * @param i The particle slot
+	 */
+	public void copyFrom(ParticleData p, int i) {
+		active[i] = p.active;
+
+		positionX[i] = p.position.x;
+		positionY[i] = p.position.y;
+		positionZ[i] = p.position.z;
+		previousPositionX[i] = p.previousPosition.x;
+		previousPositionY[i] = p.previousPosition.y;
+		previousPositionZ[i] = p.previousPosition.z;
+		velocityX[i] = p.velocity.x;
+		velocityY[i] = p.velocity.y;
+		velocityZ[i] = p.velocity.z;
+		reverseVelocityX[i] = p.reverseVelocity.x;
+		reverseVelocityY[i] = p.reverseVelocity.y;
+		reverseVelocityZ[i] = p.reverseVelocity.z;
+		initialPositionX[i] = p.initialPosition.x;
+		initialPositionY[i] = p.initialPosition.y;
+		initialPositionZ[i] = p.initialPosition.z;
+		randomOffsetX[i] = p.randomOffset.x;
+		randomOffsetY[i] = p.randomOffset.y;
+		randomOffsetZ[i] = p.randomOffset.z;
+		emissionNormalX[i] = p.emissionNormal.x;
+		emissionNormalY[i] = p.emissionNormal.y;
+		emissionNormalZ[i] = p.emissionNormal.z;
+		initialLength[i] = p.initialLength;
+
+		life[i] = p.life;
+		startlife[i] = p.startlife;
+		blend[i] = p.blend;
+		interpBlend[i] = p.interpBlend;
+
+		colorR[i] = p.color.r;
+		colorG[i] = p.color.g;
+		colorB[i] = p.color.b;
+		colorA[i] = p.color.a;
+		colorIndex[i] = p.colorIndex;
+		colorInterval[i] = p.colorInterval;
+		colorDuration[i] = p.colorDuration;
+		colorInterpolation[i] = p.colorInterpolation;
+
+		alpha[i] = p.alpha;
+		alphaIndex[i] = p.alphaIndex;
+		alphaInterval[i] = p.alphaInterval;
+		alphaDuration[i] = p.alphaDuration;
+		alphaInterpolation[i] = p.alphaInterpolation;
+
+		sizeX[i] = p.size.x;
+		sizeY[i] = p.size.y;
+		sizeZ[i] = p.size.z;
+		startSizeX[i] = p.startSize.x;
+		startSizeY[i] = p.startSize.y;
+		startSizeZ[i] = p.startSize.z;
+		endSizeX[i] = p.endSize.x;
+		endSizeY[i] = p.endSize.y;
+		endSizeZ[i] = p.endSize.z;
+		sizeIndex[i] = p.sizeIndex;
+		sizeInterval[i] = p.sizeInterval;
+		sizeDuration[i] = p.sizeDuration;
+		sizeInterpolation[i] = p.sizeInterpolation;
+
+		anglesX[i] = p.angles.x;
+		anglesY[i] = p.angles.y;
+		anglesZ[i] = p.angles.z;
+		rotationSpeedX[i] = p.rotationSpeed.x;
+		rotationSpeedY[i] = p.rotationSpeed.y;
+		rotationSpeedZ[i] = p.rotationSpeed.z;
+		startRotationSpeedX[i] = p.startRotationSpeed.x;
+		startRotationSpeedY[i] = p.startRotationSpeed.y;
+		startRotationSpeedZ[i] = p.startRotationSpeed.z;
+		endRotationSpeedX[i] = p.endRotationSpeed.x;
+		endRotationSpeedY[i] = p.endRotationSpeed.y;
+		endRotationSpeedZ[i] = p.endRotationSpeed.z;
+		rotationIndex[i] = p.rotationIndex;
+		rotationInterval[i] = p.rotationInterval;
+		rotationDuration[i] = p.rotationDuration;
+		rotationInterpolation[i] = p.rotationInterpolation;
+		rotateDirectionX[i] = p.rotateDirectionX;
+		rotateDirectionY[i] = p.rotateDirectionY;
+		rotateDirectionZ[i] = p.rotateDirectionZ;
+
+		triangleIndex[i] = p.triangleIndex;
+		spriteCol[i] = p.spriteCol;
+		spriteRow[i] = p.spriteRow;
+	}
+
+	/**
+	 * Copies the channels that change over a particle's life into the particle view.
+	 * The rest are set when the particle is emitted, which copies the whole view, and keep
+	 * those values in the view.  Bookkeeping of ParticleStoreInfluencers, such as the
+	 * color or size index and interval, is not copied.
+	 * @param i The particle slot
+	 * @param p The ParticleData to update
+	 */
+	public void copyStateTo(int i, ParticleData p) {
+		p.position.set(positionX[i], positionY[i], positionZ[i]);
+		p.previousPosition.set(previousPositionX[i], previousPositionY[i], previousPositionZ[i]);
+		p.velocity.set(velocityX[i], velocityY[i], velocityZ[i]);
+
+		p.life = life[i];
+		p.blend = blend[i];
+		p.interpBlend = interpBlend[i];
+
+		p.color.set(colorR[i], colorG[i], colorB[i], colorA[i]);
+		p.alpha = alpha[i];
+		p.size.set(sizeX[i], sizeY[i], sizeZ[i]);
+		p.angles.set(anglesX[i], anglesY[i], anglesZ[i]);
+		p.rotationSpeed.set(rotationSpeedX[i], rotationSpeedY[i], rotationSpeedZ[i]);
+
+		p.spriteCol = spriteCol[i];
+		p.spriteRow = spriteRow[i];
+	}
+
+	/**
+	 * Copies the channels that change over a particle's life from the particle view into
+	 * the specified slot.  The counterpart of copyStateTo.
+	 * @param p The ParticleData to read from
+	 * @param i The particle slot
+	 */
+	public void copyStateFrom(ParticleData p, int i) {
+		positionX[i] = p.position.x;
+		positionY[i] = p.position.y;
+		positionZ[i] = p.position.z;
+		previousPositionX[i] = p.previousPosition.x;
+		previousPositionY[i] = p.previousPosition.y;
+		previousPositionZ[i] = p.previousPosition.z;
+		velocityX[i] = p.velocity.x;
+		velocityY[i] = p.velocity.y;
+		velocityZ[i] = p.velocity.z;
+
+		life[i] = p.life;
+		blend[i] = p.blend;
+		interpBlend[i] = p.interpBlend;
+
+		colorR[i] = p.color.r;
+		colorG[i] = p.color.g;
+		colorB[i] = p.color.b;
+		colorA[i] = p.color.a;
+		alpha[i] = p.alpha;
+		sizeX[i] = p.size.x;
+		sizeY[i] = p.size.y;
+		sizeZ[i] = p.size.z;
+		anglesX[i] = p.angles.x;
+		anglesY[i] = p.angles.y;
+		anglesZ[i] = p.angles.z;
+		rotationSpeedX[i] = p.rotationSpeed.x;
+		rotationSpeedY[i] = p.rotationSpeed.y;
+		rotationSpeedZ[i] = p.rotationSpeed.z;
+
+		spriteCol[i] = p.spriteCol;
+		spriteRow[i] = p.spriteRow;
+	}
+}
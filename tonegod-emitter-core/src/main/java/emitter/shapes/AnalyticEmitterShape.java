@@ -0,0 +1,183 @@
+package emitter.shapes;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import emitter.EmissionSampler;
+import emitter.EmitterShape;
+import java.nio.FloatBuffer;
+
+/**
+ * Base of the emitter shapes sampled directly from their geometry instead of from the
+ * faces of a mesh.  Every draw takes expected O(1) time and covers the volume or surface
+ * of the shape evenly.
+ * <p>
+ * An analytic shape has a single face, index 0, whose emission point is the shape origin
+ * and whose normal is the shape axis.  Each particle is emitted from the origin offset by a
+ * sampled point, whether or not random emission points are enabled on the emitter, so
+ * influencers that look the emission point up again by face, such as static particles,
+ * keep the sampled point through the particle's random offset.
+ */
+public abstract class AnalyticEmitterShape extends EmitterShape {
+	// bounds the rejection loop of shapes that reject samples
+	private static final int MAX_ATTEMPTS = 32;
+	private final Vector3f center = new Vector3f(), offset = new Vector3f(), normal = new Vector3f();
+	private final Vector3f point = new Vector3f(), pointNormal = new Vector3f(), random = new Vector3f();
+	private final float[] centers = new float[3], normals = new float[3];
+	private boolean tablesValid = false;
+	private final Quaternion tableRotation = new Quaternion();
+	private final Vector3f tableScale = new Vector3f();
+	private Mesh mesh;
+
+	/**
+	 * Maps uniform values to a point of the shape in shape space.  The same values must
+	 * always give the same point, so evenly spread values give evenly spread points.
+	 * @param random Uniform values in [0, 1) drawn by the emitter's position sampler, as
+	 * many as the shape needs up to three
+	 * @param point Receives the point
+	 * @param normal Receives the unit length surface normal at, or outward direction of, the point
+	 */
+	protected abstract void sample(Vector3f random, Vector3f point, Vector3f normal);
+
+	/**
+	 * Decides whether the last sampled point is kept.  A shape whose mapping crowds points
+	 * in parts of it rejects some of them there, and the point is sampled again from new
+	 * values.
+	 * @param random The values the point was sampled from
+	 * @return false to sample the point again
+	 */
+	protected boolean accept(Vector3f random) {
+		return true;
+	}
+
+	/**
+	 * Returns the unit length axis of the shape in shape space, the normal of face 0
+	 * @param store Receives the axis
+	 */
+	protected abstract void getAxis(Vector3f store);
+
+	/**
+	 * Builds the mesh displaying the shape
+	 * @return
+	 */
+	protected abstract Mesh createMesh();
+
+	@Override
+	public void setNext() {
+		validate();
+		EmissionSampler sampler = emitter.getSimulationSettings().positionSampler;
+		int attempts = 0;
+		do {
+			sample(sampler.next(random), point, pointNormal);
+		} while (!accept(random) && ++attempts < MAX_ATTEMPTS);
+		transformPoint(point);
+		transformNormal(pointNormal);
+		center.set(centers[0], centers[1], centers[2]);
+		offset.set(point).subtractLocal(center);
+		normal.set(pointNormal);
+	}
+
+	@Override
+	public void setNext(int triangleIndex) {
+		validate();
+		center.set(centers[0], centers[1], centers[2]);
+		normal.set(normals[0], normals[1], normals[2]);
+	}
+
+	@Override
+	public int getTriangleIndex() {
+		return 0;
+	}
+
+	@Override
+	public Vector3f getNextTranslation() {
+		return center;
+	}
+
+	@Override
+	public Vector3f getRandomTranslation() {
+		return offset;
+	}
+
+	@Override
+	public Vector3f getNormal() {
+		return normal;
+	}
+
+	@Override
+	public float[] getTriangleCenters() {
+		return centers;
+	}
+
+	@Override
+	public float[] getTriangleNormals() {
+		return normals;
+	}
+
+	@Override
+	public Mesh getMesh() {
+		if (mesh == null)
+			mesh = createMesh();
+		return mesh;
+	}
+
+	/**
+	 * Rebuilds face 0 if the emitter's rotation or scale changed
+	 */
+	@Override
+	public void validate() {
+		Quaternion rotation = emitter.getSimulationSettings().rotation;
+		Vector3f scale = emitter.getSimulationSettings().scale;
+		if (tablesValid && tableRotation.equals(rotation) && tableScale.equals(scale))
+			return;
+		tableRotation.set(rotation);
+		tableScale.set(scale);
+		// the origin stays in place under rotation and scale
+		centers[0] = centers[1] = centers[2] = 0;
+		getAxis(pointNormal);
+		transformNormal(pointNormal);
+		normals[0] = pointNormal.x;
+		normals[1] = pointNormal.y;
+		normals[2] = pointNormal.z;
+		tablesValid = true;
+	}
+
+	@Override
+	public void invalidate() {
+		tablesValid = false;
+	}
+
+	/**
+	 * Scales then rotates a shape space point by the emitter's local transform
+	 */
+	private void transformPoint(Vector3f v) {
+		tableRotation.multLocal(v.multLocal(tableScale));
+	}
+
+	/**
+	 * Transforms a shape space normal by the inverse transpose of the emitter's local
+	 * transform, so normals stay perpendicular to non-uniformly scaled surfaces
+	 */
+	private void transformNormal(Vector3f n) {
+		if (tableScale.x != 0) n.x /= tableScale.x;
+		if (tableScale.y != 0) n.y /= tableScale.y;
+		if (tableScale.z != 0) n.z /= tableScale.z;
+		tableRotation.multLocal(n).normalizeLocal();
+	}
+
+	/**
+	 * Scales the positions of a display mesh in place
+	 */
+	protected static Mesh scalePositions(Mesh mesh, float x, float y, float z) {
+		FloatBuffer pb = mesh.getFloatBuffer(VertexBuffer.Type.Position);
+		for (int i = 0; i < pb.limit(); i += 3) {
+			pb.put(i, pb.get(i)*x);
+			pb.put(i+1, pb.get(i+1)*y);
+			pb.put(i+2, pb.get(i+2)*z);
+		}
+		mesh.getBuffer(VertexBuffer.Type.Position).updateData(pb);
+		mesh.updateBound();
+		return mesh;
+	}
+}
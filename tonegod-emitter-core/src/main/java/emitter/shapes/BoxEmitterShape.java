@@ -0,0 +1,81 @@
+package emitter.shapes;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.shape.Box;
+import java.io.IOException;
+
+/**
+ * Emits from the volume of a box centered on the emitter origin.  The normal of a point is
+ * its direction from the origin.
+ */
+public class BoxEmitterShape extends AnalyticEmitterShape {
+	private final Vector3f extents = new Vector3f(0.5f, 0.5f, 0.5f);
+
+	/**
+	 * Creates a unit box
+	 */
+	public BoxEmitterShape() {  }
+
+	/**
+	 * Creates a box of the given half extents
+	 * @param x The half width
+	 * @param y The half height
+	 * @param z The half depth
+	 */
+	public BoxEmitterShape(float x, float y, float z) {
+		extents.set(x, y, z);
+	}
+
+	/**
+	 * Returns the half extents of the box
+	 * @return
+	 */
+	public Vector3f getExtents() {
+		return extents;
+	}
+
+	@Override
+	protected void sample(Vector3f random, Vector3f point, Vector3f normal) {
+		point.set(
+			(random.x*2f - 1f)*extents.x,
+			(random.y*2f - 1f)*extents.y,
+			(random.z*2f - 1f)*extents.z
+		);
+		if (point.x == 0 && point.y == 0 && point.z == 0)
+			normal.set(Vector3f.UNIT_Y);
+		else
+			normal.set(point).normalizeLocal();
+	}
+
+	@Override
+	protected void getAxis(Vector3f store) {
+		store.set(Vector3f.UNIT_Y);
+	}
+
+	@Override
+	protected Mesh createMesh() {
+		return new Box(extents.x, extents.y, extents.z);
+	}
+
+	@Override
+	public BoxEmitterShape clone() {
+		return new BoxEmitterShape(extents.x, extents.y, extents.z);
+	}
+
+	@Override
+	public void write(JmeExporter ex) throws IOException {
+		OutputCapsule oc = ex.getCapsule(this);
+		oc.write(extents, "extents", null);
+	}
+
+	@Override
+	public void read(JmeImporter im) throws IOException {
+		InputCapsule ic = im.getCapsule(this);
+		extents.set((Vector3f)ic.readSavable("extents", new Vector3f(0.5f, 0.5f, 0.5f)));
+	}
+}
@@ -0,0 +1,82 @@
+package emitter.shapes;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.shape.Cylinder;
+import java.io.IOException;
+
+/**
+ * Emits from the volume of a cylinder centered on the emitter origin.  Like jME's Cylinder
+ * its axis is z.  The normal of a point is its direction from the axis.
+ */
+public class CylinderEmitterShape extends AnalyticEmitterShape {
+	private float radius = 0.5f;
+	private float height = 1;
+
+	/**
+	 * Creates a cylinder of unit diameter and height
+	 */
+	public CylinderEmitterShape() {  }
+
+	/**
+	 * Creates a cylinder
+	 * @param radius The cylinder radius
+	 * @param height The length of the cylinder along z
+	 */
+	public CylinderEmitterShape(float radius, float height) {
+		this.radius = radius;
+		this.height = height;
+	}
+
+	public float getRadius() {
+		return radius;
+	}
+
+	public float getHeight() {
+		return height;
+	}
+
+	@Override
+	protected void sample(Vector3f random, Vector3f point, Vector3f normal) {
+		float angle = random.x*FastMath.TWO_PI;
+		float c = FastMath.cos(angle), s = FastMath.sin(angle);
+		// the square root spreads points evenly over the disc
+		float r = radius*FastMath.sqrt(random.y);
+		point.set(c*r, s*r, (random.z - 0.5f)*height);
+		normal.set(c, s, 0);
+	}
+
+	@Override
+	protected void getAxis(Vector3f store) {
+		store.set(Vector3f.UNIT_Z);
+	}
+
+	@Override
+	protected Mesh createMesh() {
+		return new Cylinder(2, 16, radius, height, true);
+	}
+
+	@Override
+	public CylinderEmitterShape clone() {
+		return new CylinderEmitterShape(radius, height);
+	}
+
+	@Override
+	public void write(JmeExporter ex) throws IOException {
+		OutputCapsule oc = ex.getCapsule(this);
+		oc.write(radius, "radius", 0.5f);
+		oc.write(height, "height", 1);
+	}
+
+	@Override
+	public void read(JmeImporter im) throws IOException {
+		InputCapsule ic = im.getCapsule(this);
+		radius = ic.readFloat("radius", 0.5f);
+		height = ic.readFloat("height", 1);
+	}
+}
@@ -0,0 +1,27 @@
+package emitter.shapes;
+
+/**
+ * Emits from a flat disc in the xy plane centered on the emitter origin, facing z
+ */
+public class DiscEmitterShape extends RingEmitterShape {
+
+	/**
+	 * Creates a disc of unit diameter
+	 */
+	public DiscEmitterShape() {
+		super(0.5f, 0);
+	}
+
+	/**
+	 * Creates a disc
+	 * @param radius The disc radius
+	 */
+	public DiscEmitterShape(float radius) {
+		super(radius, 0);
+	}
+
+	@Override
+	public DiscEmitterShape clone() {
+		return new DiscEmitterShape(getRadius());
+	}
+}
@@ -0,0 +1,123 @@
+package emitter.shapes;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.shape.Sphere;
+import emitter.UniformDirections;
+import java.io.IOException;
+
+/**
+ * Emits from the volume of an ellipsoid centered on the emitter origin, or from a hollow
+ * shell of it.  The inner ratio is the size of the hollow as a fraction of the radii: 0
+ * fills the whole volume, 1 emits from the surface only.  The normal of a point is the
+ * ellipsoid's surface normal in its direction.
+ * <p>
+ * Points are directions on the unit sphere scaled by the radii.  Scaling keeps a volume
+ * uniform, but crowds the surface where the radii are short, so surface points are
+ * rejected in proportion to that crowding.
+ */
+public class EllipsoidEmitterShape extends AnalyticEmitterShape {
+	private final Vector3f radii = new Vector3f(0.5f, 0.5f, 0.5f);
+	private float innerRatio = 0;
+	private final Vector3f dir = new Vector3f();
+
+	/**
+	 * Creates a sphere of unit diameter
+	 */
+	public EllipsoidEmitterShape() {  }
+
+	/**
+	 * Creates a solid sphere
+	 * @param radius The sphere radius
+	 */
+	public EllipsoidEmitterShape(float radius) {
+		radii.set(radius, radius, radius);
+	}
+
+	/**
+	 * Creates an ellipsoid
+	 * @param radii The radius along each axis
+	 * @param innerRatio The hollow as a fraction of the radii, 0 for a solid ellipsoid, 1
+	 * for its surface
+	 */
+	public EllipsoidEmitterShape(Vector3f radii, float innerRatio) {
+		this.radii.set(radii);
+		this.innerRatio = FastMath.clamp(innerRatio, 0, 1);
+	}
+
+	public Vector3f getRadii() {
+		return radii;
+	}
+
+	public float getInnerRatio() {
+		return innerRatio;
+	}
+
+	@Override
+	protected void sample(Vector3f random, Vector3f point, Vector3f normal) {
+		UniformDirections.sphere(random.x, random.y, dir);
+		float r = 1;
+		if (innerRatio < 1) {
+			// uniform in volume between the inner and outer shells
+			float inner3 = innerRatio*innerRatio*innerRatio;
+			r = (float)Math.cbrt(inner3 + random.z*(1f - inner3));
+		}
+		point.set(dir.x*radii.x*r, dir.y*radii.y*r, dir.z*radii.z*r);
+		normal.set(
+			radii.x != 0 ? dir.x/radii.x : 0,
+			radii.y != 0 ? dir.y/radii.y : 0,
+			radii.z != 0 ? dir.z/radii.z : 0
+		).normalizeLocal();
+	}
+
+	/**
+	 * Keeps a surface point with probability proportional to the area the ellipsoid gives
+	 * the unit sphere around its direction, drawn against the value sample leaves unused
+	 */
+	@Override
+	protected boolean accept(Vector3f random) {
+		if (innerRatio < 1)
+			return true;
+		// area scale of the mapping over abc: |(x*b*c, y*a*c, z*a*b)|
+		float yz = radii.y*radii.z, xz = radii.x*radii.z, xy = radii.x*radii.y;
+		float max = Math.max(yz, Math.max(xz, xy));
+		if (max == 0)
+			return true;
+		float x = dir.x*yz, y = dir.y*xz, z = dir.z*xy;
+		return random.z*max < FastMath.sqrt(x*x + y*y + z*z);
+	}
+
+	@Override
+	protected void getAxis(Vector3f store) {
+		store.set(Vector3f.UNIT_Y);
+	}
+
+	@Override
+	protected Mesh createMesh() {
+		return scalePositions(new Sphere(16, 16, 1f), radii.x, radii.y, radii.z);
+	}
+
+	@Override
+	public EllipsoidEmitterShape clone() {
+		return new EllipsoidEmitterShape(radii, innerRatio);
+	}
+
+	@Override
+	public void write(JmeExporter ex) throws IOException {
+		OutputCapsule oc = ex.getCapsule(this);
+		oc.write(radii, "radii", null);
+		oc.write(innerRatio, "innerRatio", 0);
+	}
+
+	@Override
+	public void read(JmeImporter im) throws IOException {
+		InputCapsule ic = im.getCapsule(this);
+		radii.set((Vector3f)ic.readSavable("radii", new Vector3f(0.5f, 0.5f, 0.5f)));
+		innerRatio = ic.readFloat("innerRatio", 0);
+	}
+}
@@ -0,0 +1,92 @@
+package emitter.shapes;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.shape.Line;
+import java.io.IOException;
+
+/**
+ * Emits from a line segment.  The normal of every point is perpendicular to the line,
+ * toward y where the line allows it.
+ */
+public class LineEmitterShape extends AnalyticEmitterShape {
+	private final Vector3f start = new Vector3f(-0.5f, 0, 0);
+	private final Vector3f end = new Vector3f(0.5f, 0, 0);
+	private final Vector3f axis = new Vector3f();
+
+	/**
+	 * Creates a line of unit length along x
+	 */
+	public LineEmitterShape() {
+		updateAxis();
+	}
+
+	/**
+	 * Creates a line between two points
+	 * @param start The start of the line
+	 * @param end The end of the line
+	 */
+	public LineEmitterShape(Vector3f start, Vector3f end) {
+		this.start.set(start);
+		this.end.set(end);
+		updateAxis();
+	}
+
+	public Vector3f getStart() {
+		return start;
+	}
+
+	public Vector3f getEnd() {
+		return end;
+	}
+
+	private void updateAxis() {
+		Vector3f dir = end.subtract(start).normalizeLocal();
+		// the part of y perpendicular to the line, or z for a vertical line
+		axis.set(Vector3f.UNIT_Y).subtractLocal(dir.mult(dir.y));
+		if (axis.lengthSquared() < FastMath.ZERO_TOLERANCE)
+			axis.set(Vector3f.UNIT_Z).subtractLocal(dir.mult(dir.z));
+		axis.normalizeLocal();
+	}
+
+	@Override
+	protected void sample(Vector3f random, Vector3f point, Vector3f normal) {
+		point.interpolateLocal(start, end, random.x);
+		normal.set(axis);
+	}
+
+	@Override
+	protected void getAxis(Vector3f store) {
+		store.set(axis);
+	}
+
+	@Override
+	protected Mesh createMesh() {
+		return new Line(start, end);
+	}
+
+	@Override
+	public LineEmitterShape clone() {
+		return new LineEmitterShape(start, end);
+	}
+
+	@Override
+	public void write(JmeExporter ex) throws IOException {
+		OutputCapsule oc = ex.getCapsule(this);
+		oc.write(start, "start", null);
+		oc.write(end, "end", null);
+	}
+
+	@Override
+	public void read(JmeImporter im) throws IOException {
+		InputCapsule ic = im.getCapsule(this);
+		start.set((Vector3f)ic.readSavable("start", new Vector3f(-0.5f, 0, 0)));
+		end.set((Vector3f)ic.readSavable("end", new Vector3f(0.5f, 0, 0)));
+		updateAxis();
+	}
+}
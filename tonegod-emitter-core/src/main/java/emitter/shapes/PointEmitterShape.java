@@ -0,0 +1,31 @@
+package emitter.shapes;
+
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+
+/**
+ * Emits every particle from the emitter origin
+ */
+public class PointEmitterShape extends AnalyticEmitterShape {
+
+	@Override
+	protected void sample(Vector3f random, Vector3f point, Vector3f normal) {
+		point.set(0, 0, 0);
+		normal.set(Vector3f.UNIT_Y);
+	}
+
+	@Override
+	protected void getAxis(Vector3f store) {
+		store.set(Vector3f.UNIT_Y);
+	}
+
+	@Override
+	protected Mesh createMesh() {
+		return new TriangleEmitterShape(0.1f);
+	}
+
+	@Override
+	public PointEmitterShape clone() {
+		return new PointEmitterShape();
+	}
+}
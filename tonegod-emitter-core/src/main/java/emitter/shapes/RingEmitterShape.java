@@ -0,0 +1,84 @@
+package emitter.shapes;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.shape.Torus;
+import java.io.IOException;
+
+/**
+ * Emits from a flat ring in the xy plane centered on the emitter origin, the area between
+ * the inner and outer radius.  Like jME's Torus the ring faces z, which is the normal of
+ * every point.
+ */
+public class RingEmitterShape extends AnalyticEmitterShape {
+	private float radius = 0.5f;
+	private float innerRadius = 0.25f;
+
+	/**
+	 * Creates a ring of unit diameter with a hollow of half that
+	 */
+	public RingEmitterShape() {  }
+
+	/**
+	 * Creates a ring
+	 * @param radius The outer radius
+	 * @param innerRadius The radius of the hollow, 0 for a disc
+	 */
+	public RingEmitterShape(float radius, float innerRadius) {
+		this.radius = radius;
+		this.innerRadius = innerRadius;
+	}
+
+	public float getRadius() {
+		return radius;
+	}
+
+	public float getInnerRadius() {
+		return innerRadius;
+	}
+
+	@Override
+	protected void sample(Vector3f random, Vector3f point, Vector3f normal) {
+		float angle = random.x*FastMath.TWO_PI;
+		// uniform in area between the two radii
+		float inner2 = innerRadius*innerRadius;
+		float r = FastMath.sqrt(inner2 + random.y*(radius*radius - inner2));
+		point.set(FastMath.cos(angle)*r, FastMath.sin(angle)*r, 0);
+		normal.set(Vector3f.UNIT_Z);
+	}
+
+	@Override
+	protected void getAxis(Vector3f store) {
+		store.set(Vector3f.UNIT_Z);
+	}
+
+	@Override
+	protected Mesh createMesh() {
+		float tube = (radius - innerRadius)/2f;
+		return new Torus(32, 8, tube, innerRadius + tube);
+	}
+
+	@Override
+	public RingEmitterShape clone() {
+		return new RingEmitterShape(radius, innerRadius);
+	}
+
+	@Override
+	public void write(JmeExporter ex) throws IOException {
+		OutputCapsule oc = ex.getCapsule(this);
+		oc.write(radius, "radius", 0.5f);
+		oc.write(innerRadius, "innerRadius", 0.25f);
+	}
+
+	@Override
+	public void read(JmeImporter im) throws IOException {
+		InputCapsule ic = im.getCapsule(this);
+		radius = ic.readFloat("radius", 0.5f);
+		innerRadius = ic.readFloat("innerRadius", 0.25f);
+	}
+}
@@ -19,6 +19,13 @@ const float SIZE_MULTIPLIER = 4.0;
 attribute float inSize;
 #endif
 
+#ifdef SPRITE_FRAME
+// sprite sheet columns & rows
+uniform vec2 m_SpriteCount;
+// sprite column & row of the particle
+attribute vec4 inTexCoord2;
+#endif
+
 void main(){
     vec4 pos = vec4(inPosition, 1.0);
 
@@ -26,7 +33,15 @@ void main(){
     color = inColor;
 
     #ifdef USE_TEXTURE
-        texCoord = inTexCoord;
+        #ifdef SPRITE_FRAME
+            #ifdef POINT_SPRITE
+                texCoord = vec4(inTexCoord2.xy, inTexCoord2.xy + 1.0) / m_SpriteCount.xyxy;
+            #else
+                texCoord = vec4((inTexCoord2.xy + inTexCoord.xy) / m_SpriteCount, 0.0, 0.0);
+            #endif
+        #else
+            texCoord = inTexCoord;
+        #endif
     #endif
 
     #ifdef POINT_SPRITE
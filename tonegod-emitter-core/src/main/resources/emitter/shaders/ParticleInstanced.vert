@@ -0,0 +1,30 @@
+uniform mat4 g_WorldViewMatrix;
+uniform mat4 g_ProjectionMatrix;
+uniform vec2 m_SpriteSize;
+
+// shared quad, corners at -1..1
+attribute vec3 inPosition;
+attribute vec2 inTexCoord;
+
+// per particle: position & rotation, size & sprite cell, colour
+attribute vec4 inTexCoord2;
+attribute vec4 inTexCoord3;
+attribute vec4 inColor;
+
+varying vec4 color;
+varying vec4 texCoord;
+
+void main(){
+    vec2 corner = inPosition.xy * inTexCoord3.xy;
+    float c = cos(inTexCoord2.w);
+    float s = sin(inTexCoord2.w);
+    corner = vec2(corner.x * c + corner.y * s, corner.y * c - corner.x * s);
+
+    // expand the quad in view space so it always faces the camera
+    vec4 viewPos = g_WorldViewMatrix * vec4(inTexCoord2.xyz, 1.0);
+    viewPos.xy += corner;
+    gl_Position = g_ProjectionMatrix * viewPos;
+
+    color = inColor;
+    texCoord = vec4((inTexCoord3.zw + inTexCoord) * m_SpriteSize, 0.0, 0.0);
+}
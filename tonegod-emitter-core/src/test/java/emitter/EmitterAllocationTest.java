@@ -0,0 +1,89 @@
+package emitter;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.shape.Sphere;
+import emitter.particle.ParticleDataTriMesh;
+import java.lang.management.ManagementFactory;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a warmed up emitter allocates nothing on the update and render path.
+ * <p>
+ * Allocated bytes are read per thread from the JVM, so only the calling thread's
+ * allocations count.  A frame can allocate once while the JIT swaps compiled code, so
+ * several windows of frames are measured and the quietest must allocate nothing.
+ */
+public class EmitterAllocationTest {
+	private static final float TPF = 0.016f;
+	private static final int WARMUP_FRAMES = 5000;
+	private static final int WINDOW_FRAMES = 500;
+	private static final int WINDOWS = 10;
+
+	private static com.sun.management.ThreadMXBean threads;
+
+	@BeforeClass
+	public static void setUpThreads() {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	@Test
+	public void testLegacyUpdateAndRenderDoNotAllocate() {
+		assertSteadyStateAllocation(false);
+	}
+
+	@Test
+	public void testParticleStoreUpdateAndRenderDoNotAllocate() {
+		assertSteadyStateAllocation(true);
+	}
+
+	@Test
+	public void testRotatingAreaWeightedShapeDoesNotAllocate() {
+		Emitter e = HeadlessEmitters.create(ParticleDataTriMesh.class, true, 400);
+		e.setShape(new Sphere(8, 12, 1));
+		e.setUseAreaWeightedEmission(true);
+		assertSteadyStateAllocation(e, true);
+	}
+
+	private void assertSteadyStateAllocation(boolean useParticleStore) {
+		assertSteadyStateAllocation(HeadlessEmitters.create(ParticleDataTriMesh.class, useParticleStore, 400), false);
+	}
+
+	/**
+	 * @param rotate Turns the emitter a little every frame, so the emitter shape's face
+	 * tables are rebuilt every frame
+	 */
+	private void assertSteadyStateAllocation(Emitter e, boolean rotate) {
+		ViewPort vp = HeadlessEmitters.createViewPort();
+		Quaternion rotation = new Quaternion();
+		Vector3f axis = new Vector3f(0.3f, 1, 0.2f).normalizeLocal();
+		int frame = 0;
+		for (int f = 0; f < WARMUP_FRAMES; f++, frame++) {
+			if (rotate)
+				e.setLocalRotation(rotation.fromAngleNormalAxis(frame*0.01f % FastMath.TWO_PI, axis));
+			HeadlessEmitters.frame(e, vp, TPF);
+		}
+
+		long thread = Thread.currentThread().getId();
+		long quietest = Long.MAX_VALUE;
+		for (int w = 0; w < WINDOWS && quietest > 0; w++) {
+			long before = threads.getThreadAllocatedBytes(thread);
+			for (int f = 0; f < WINDOW_FRAMES; f++, frame++) {
+				if (rotate)
+					e.setLocalRotation(rotation.fromAngleNormalAxis(frame*0.01f % FastMath.TWO_PI, axis));
+				HeadlessEmitters.frame(e, vp, TPF);
+			}
+			quietest = Math.min(quietest, threads.getThreadAllocatedBytes(thread) - before);
+		}
+		assertEquals("Bytes allocated over " + WINDOW_FRAMES + " frames", 0, quietest);
+	}
+}
@@ -0,0 +1,59 @@
+package emitter;
+
+import com.jme3.scene.Node;
+import emitter.particle.ParticleData;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the fixed timestep keeps up with the frame rate at its default rate, so
+ * updating for N seconds simulates N seconds.
+ */
+public class EmitterFixedTimestepTest {
+	private static final float FRAME = 1f/60f;
+	private static final int SECONDS = 5;
+	private static final float LIFE = 100;
+
+	@Test
+	public void testLegacyKeepsUpAt60FPS() {
+		assertSimulatedTime(false);
+	}
+
+	@Test
+	public void testParticleStoreKeepsUpAt60FPS() {
+		assertSimulatedTime(true);
+	}
+
+	private void assertSimulatedTime(boolean useParticleStore) {
+		Emitter e = new Emitter();
+		e.setName("FixedTimestep");
+		e.setMaxParticles(4);
+		e.setShapeSimpleEmitter();
+		e.setEmissionsPerSecond(0.001f);
+		e.setParticlesPerEmission(1);
+		e.setLife(LIFE);
+		e.setSprite("Common/Textures/MissingTexture.png");
+		e.setUseParticleStore(useParticleStore);
+		e.setUseFixedTimestep(true);
+		e.initialize(HeadlessEmitters.getAssetManager());
+		Node node = new Node("FixedTimestep");
+		node.addControl(e);
+		e.setEnabled(true);
+		e.emitNumParticles(1);
+
+		for (int f = 0; f < SECONDS*60; f++)
+			node.updateLogicalState(FRAME);
+
+		int slot = e.getRenderLive()[0];
+		float life;
+		if (useParticleStore) {
+			life = e.getParticleStore().life[slot];
+		} else {
+			ParticleData p = HeadlessEmitters.getParticles(e)[slot];
+			life = p.life;
+		}
+		// the last partial step is left in the accumulator
+		assertEquals("Seconds simulated", SECONDS, LIFE - life, FRAME);
+	}
+}
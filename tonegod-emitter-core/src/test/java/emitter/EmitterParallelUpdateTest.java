@@ -0,0 +1,72 @@
+package emitter;
+
+import com.jme3.math.FastMath;
+import com.jme3.renderer.ViewPort;
+import emitter.particle.ParticleDataTriMesh;
+import emitter.particle.ParticleStore;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that splitting the ParticleStore update into fork-join chunks gives the same
+ * particles as the serial update: a seeded emitter is run with the parallel update on
+ * and off, and every channel of the two stores is compared.
+ */
+public class EmitterParallelUpdateTest {
+	private static final int MAX_PARTICLES = 4000;
+	private static final int THRESHOLD = 64;
+	private static final int FRAMES = 120;
+	private static final float FRAME = 1f/60f;
+	private static final long SEED = 1234;
+
+	@Test
+	public void testParallelUpdateMatchesSerial() throws IllegalAccessException {
+		Emitter serial = run(false);
+		Emitter parallel = run(true);
+
+		assertTrue("Parallel path taken", parallel.getRenderLiveCount() > THRESHOLD);
+		assertEquals(serial.getRenderLiveCount(), parallel.getRenderLiveCount());
+		assertArrayEquals(
+			Arrays.copyOf(serial.getRenderLive(), serial.getRenderLiveCount()),
+			Arrays.copyOf(parallel.getRenderLive(), parallel.getRenderLiveCount()));
+
+		ParticleStore expected = serial.getParticleStore();
+		ParticleStore actual = parallel.getParticleStore();
+		int channels = 0;
+		for (Field f : ParticleStore.class.getFields()) {
+			if (Modifier.isStatic(f.getModifiers()) || !f.getType().isArray())
+				continue;
+			Object a = f.get(expected), b = f.get(actual);
+			boolean same;
+			if (a instanceof float[])
+				same = Arrays.equals((float[]) a, (float[]) b);
+			else if (a instanceof int[])
+				same = Arrays.equals((int[]) a, (int[]) b);
+			else if (a instanceof boolean[])
+				same = Arrays.equals((boolean[]) a, (boolean[]) b);
+			else
+				same = Arrays.equals((Object[]) a, (Object[]) b);
+			assertTrue("Channel " + f.getName(), same);
+			channels++;
+		}
+		assertTrue(channels > 0);
+	}
+
+	private Emitter run(boolean useParallelUpdate) {
+		FastMath.rand.setSeed(SEED);
+		Emitter e = HeadlessEmitters.create(ParticleDataTriMesh.class, true, MAX_PARTICLES);
+		e.setEmissionsPerSecond(1000);
+		e.setParallelThreshold(THRESHOLD);
+		e.setUseParallelUpdate(useParallelUpdate);
+		ViewPort vp = HeadlessEmitters.createViewPort();
+		for (int f = 0; f < FRAMES; f++)
+			HeadlessEmitters.frame(e, vp, FRAME);
+		return e;
+	}
+}
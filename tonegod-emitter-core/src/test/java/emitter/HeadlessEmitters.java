@@ -0,0 +1,101 @@
+package emitter;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Node;
+import emitter.influencers.AlphaInfluencer;
+import emitter.influencers.ColorInfluencer;
+import emitter.influencers.GravityInfluencer;
+import emitter.influencers.RotationInfluencer;
+import emitter.influencers.SizeInfluencer;
+import emitter.influencers.SpriteInfluencer;
+import emitter.particle.ParticleData;
+import emitter.particle.ParticleDataMesh;
+
+/**
+ * Builds emitters that run without a display or renderer.  Frames are stepped by hand:
+ * the emitter's node is updated and the emitter's render pass, which writes the particle
+ * mesh buffers, is called directly.
+ */
+public class HeadlessEmitters {
+	private static AssetManager assetManager;
+
+	public static AssetManager getAssetManager() {
+		if (assetManager == null)
+			assetManager = new DesktopAssetManager(
+				HeadlessEmitters.class.getClassLoader().getResource("com/jme3/asset/Desktop.cfg"));
+		return assetManager;
+	}
+
+	/**
+	 * Returns a viewport whose camera looks at the origin down -Z
+	 * @return
+	 */
+	public static ViewPort createViewPort() {
+		Camera cam = new Camera(640, 480);
+		cam.setFrustumPerspective(45, 640f/480f, 1, 1000);
+		cam.setLocation(new Vector3f(0, 0, 10));
+		cam.lookAt(Vector3f.ZERO, Vector3f.UNIT_Y);
+		return new ViewPort("Headless", cam);
+	}
+
+	/**
+	 * Creates an emitter with the usual influencer chain, initialized and attached to a
+	 * node of its own
+	 * @param particleType The particle mesh type
+	 * @param useParticleStore Whether the emitter updates particles through the ParticleStore
+	 * @param maxParticles The maximum number of particles
+	 * @return
+	 */
+	public static Emitter create(Class<? extends ParticleDataMesh> particleType, boolean useParticleStore, int maxParticles) {
+		Emitter e = new Emitter();
+		e.setName("Headless");
+		e.setMaxParticles(maxParticles);
+		e.setShapeSimpleEmitter();
+		e.setParticleType(particleType);
+		e.setEmissionsPerSecond(200);
+		e.setParticlesPerEmission(3);
+		e.setLife(1.3f);
+		e.setForce(2f);
+		e.setSprite("Common/Textures/MissingTexture.png", 2, 2);
+		GravityInfluencer gravity = new GravityInfluencer();
+		gravity.setGravity(0, 3, 0);
+		SizeInfluencer size = new SizeInfluencer();
+		size.addSize(0.5f);
+		size.addSize(1f);
+		size.addSize(0.1f);
+		e.addInfluencers(gravity, new AlphaInfluencer(), new ColorInfluencer(), size,
+			new RotationInfluencer(), new SpriteInfluencer());
+		e.setUseParticleStore(useParticleStore);
+		e.initialize(getAssetManager());
+		Node node = new Node("Headless");
+		node.addControl(e);
+		e.setEnabled(true);
+		return e;
+	}
+
+	/**
+	 * Runs a frame: updates the emitter's node, which updates the emitter, then writes
+	 * the particle mesh
+	 * @param e The emitter
+	 * @param vp The viewport rendered
+	 * @param tpf The frame time
+	 */
+	public static void frame(Emitter e, ViewPort vp, float tpf) {
+		e.getSpatial().updateLogicalState(tpf);
+		e.getSpatial().updateGeometricState();
+		e.render(null, vp);
+	}
+
+	/**
+	 * Returns the emitter's particles, indexed by slot
+	 * @param e The emitter
+	 * @return
+	 */
+	public static ParticleData[] getParticles(Emitter e) {
+		return e.particles;
+	}
+}
@@ -0,0 +1,205 @@
+package emitter.particle;
+
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.binary.BinaryExporter;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Node;
+import com.jme3.scene.shape.Sphere;
+import emitter.Emitter;
+import emitter.HeadlessEmitters;
+import emitter.influencers.ParticleAttributeInfluencer;
+import emitter.influencers.ParticleInfluencer;
+import java.io.IOException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the typed attribute channels: handle registration, per-particle reads and
+ * writes through ParticleData, re-registration when an emitter is loaded and the
+ * channel resize when the emitter's particles are created.
+ */
+public class ParticleAttributesTest {
+	private static final int PARTICLES = 16;
+	private static final float FRAME = 1f/60f;
+	private static final float EPSILON = 1e-5f;
+
+	@Test
+	public void testRegistration() {
+		ParticleAttributes attributes = new ParticleAttributes();
+		attributes.setCapacity(4);
+		int a = attributes.registerFloat("a");
+		int b = attributes.registerFloat("b");
+		assertNotEquals(a, b);
+		assertEquals(a, attributes.registerFloat("a"));
+		// each type has its own handles
+		assertEquals(0, attributes.registerInt("a"));
+		assertEquals(0, attributes.registerVector3f("a"));
+		assertEquals(4, attributes.getFloatChannel(b).length);
+		assertEquals(4, attributes.getIntChannel(0).length);
+		assertEquals(12, attributes.getVector3fChannel(0).length);
+
+		attributes.setFloat(a, 1, 2.5f);
+		attributes.setInt(0, 3, 7);
+		attributes.setVector3f(0, 2, 1, 2, 3);
+		assertEquals(2.5f, attributes.getFloat(a, 1), 0);
+		assertEquals(0, attributes.getFloat(b, 1), 0);
+		assertEquals(7, attributes.getInt(0, 3));
+		assertEquals(new Vector3f(1, 2, 3), attributes.getVector3f(0, 2, new Vector3f()));
+		assertEquals(3, attributes.getVector3fChannel(0)[8], 0);
+	}
+
+	@Test
+	public void testPerParticleReadsAndWrites() {
+		AgeInfluencer age = new AgeInfluencer();
+		Emitter e = createEmitter(age);
+		assertPerParticleValues(e, age);
+	}
+
+	@Test
+	public void testReRegistrationAfterRead() {
+		Emitter original = createEmitter(new AgeInfluencer());
+		Emitter e = BinaryExporter.saveAndLoad(HeadlessEmitters.getAssetManager(), original);
+		AgeInfluencer age = (AgeInfluencer) e.getInfluencers()[0];
+		assertTrue(age.registered);
+		
+		// a loaded emitter creates its particles when initialized
+		e.initialize(HeadlessEmitters.getAssetManager());
+		new Node("Attributes").addControl(e);
+		e.setEnabled(true);
+		assertEquals(PARTICLES, e.getParticleAttributes().getCapacity());
+		assertPerParticleValues(e, age);
+	}
+
+	@Test
+	public void testChannelsResizedWithMaxParticles() {
+		Emitter e = new Emitter();
+		AgeInfluencer age = new AgeInfluencer();
+		e.addInfluencer(age);
+		ParticleAttributes attributes = e.getParticleAttributes();
+		assertEquals(0, attributes.getFloatChannel(age.age).length);
+
+		e.setMaxParticles(PARTICLES);
+		setUp(e);
+		assertEquals(PARTICLES, attributes.getCapacity());
+		assertEquals(PARTICLES, attributes.getFloatChannel(age.age).length);
+		assertEquals(PARTICLES, attributes.getIntChannel(age.updates).length);
+		assertEquals(PARTICLES*3, attributes.getVector3fChannel(age.slot).length);
+		// the handles claimed before the resize address the new channels
+		assertPerParticleValues(e, age);
+	}
+
+	private Emitter createEmitter(AgeInfluencer age) {
+		Emitter e = new Emitter();
+		e.setMaxParticles(PARTICLES);
+		e.addInfluencer(age);
+		setUp(e);
+		return e;
+	}
+
+	private void setUp(Emitter e) {
+		e.setName("Attributes");
+		// a mesh shape, the simple emitter shape can not be loaded back
+		e.setShape(new Sphere(6, 8, 1));
+		e.setEmissionsPerSecond(0.001f);
+		e.setLife(100);
+		e.setSprite("Common/Textures/MissingTexture.png");
+		e.initialize(HeadlessEmitters.getAssetManager());
+		new Node("Attributes").addControl(e);
+		e.setEnabled(true);
+	}
+
+	private void assertPerParticleValues(Emitter e, AgeInfluencer age) {
+		e.emitNumParticles(PARTICLES);
+		ViewPort vp = HeadlessEmitters.createViewPort();
+		int frames = 10;
+		for (int f = 0; f < frames; f++)
+			HeadlessEmitters.frame(e, vp, FRAME);
+
+		ParticleData[] particles = HeadlessEmitters.getParticles(e);
+		int[] live = e.getRenderLive();
+		assertEquals(PARTICLES, e.getRenderLiveCount());
+		Vector3f store = new Vector3f();
+		for (int k = 0; k < PARTICLES; k++) {
+			ParticleData p = particles[live[k]];
+			assertEquals(frames*FRAME, p.getFloat(age.age), EPSILON);
+			assertEquals(frames, p.getInt(age.updates));
+			assertEquals(new Vector3f(p.index, -p.index, 1), p.getVector3f(age.slot, store));
+			assertEquals(p.getFloat(age.age), e.getParticleAttributes().getFloatChannel(age.age)[p.index], 0);
+		}
+	}
+
+	/**
+	 * Counts each particle's age and updates in attribute channels, and stores its slot
+	 * in a vector channel
+	 */
+	public static class AgeInfluencer implements ParticleAttributeInfluencer {
+		private transient int age, updates, slot;
+		private transient boolean registered;
+		private transient Vector3f temp = new Vector3f();
+		private boolean enabled = true;
+
+		@Override
+		public void registerAttributes(ParticleAttributes attributes) {
+			age = attributes.registerFloat("age");
+			updates = attributes.registerInt("updates");
+			slot = attributes.registerVector3f("slot");
+			registered = true;
+		}
+
+		@Override
+		public void initialize(ParticleData p) {
+			p.setFloat(age, 0);
+			p.setInt(updates, 0);
+			p.setVector3f(slot, temp.set(p.index, -p.index, 1));
+		}
+
+		@Override
+		public void update(ParticleData p, float tpf) {
+			p.setFloat(age, p.getFloat(age) + tpf);
+			p.setInt(updates, p.getInt(updates) + 1);
+		}
+
+		@Override
+		public void reset(ParticleData p) {
+		}
+
+		@Override
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		@Override
+		public Class getInfluencerClass() {
+			return AgeInfluencer.class;
+		}
+
+		@Override
+		public ParticleInfluencer clone() {
+			try {
+				AgeInfluencer clone = (AgeInfluencer) super.clone();
+				clone.temp = new Vector3f();
+				return clone;
+			} catch (CloneNotSupportedException e) {
+				throw new AssertionError();
+			}
+		}
+
+		@Override
+		public void write(JmeExporter ex) throws IOException {
+		}
+
+		@Override
+		public void read(JmeImporter im) throws IOException {
+		}
+	}
+}
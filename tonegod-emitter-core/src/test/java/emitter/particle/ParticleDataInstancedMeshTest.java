@@ -0,0 +1,123 @@
+package emitter.particle;
+
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.VertexBuffer;
+import emitter.Emitter;
+import emitter.HeadlessEmitters;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the instance record ParticleDataInstancedMesh writes for each live particle:
+ * position and rotation in TexCoord2, size and sprite frame in TexCoord3 and the packed
+ * colour in Color.
+ */
+public class ParticleDataInstancedMeshTest {
+	private static final int PARTICLES = 3;
+	private static final float EPSILON = 1e-6f;
+
+	@Test
+	public void testLegacyInstanceRecords() {
+		Emitter e = createEmitter(false);
+		ParticleData[] particles = HeadlessEmitters.getParticles(e);
+		int[] live = e.getRenderLive();
+		for (int k = 0; k < PARTICLES; k++) {
+			ParticleData p = particles[live[k]];
+			p.position.set(positionX(k), positionY(k), positionZ(k));
+			p.angles.set(0, 0, rotation(k));
+			p.size.set(sizeX(k), sizeY(k), 1);
+			p.spriteCol = spriteCol(k);
+			p.spriteRow = spriteRow(k);
+			p.color.set(colorR(k), colorG(k), colorB(k), 1);
+			p.alpha = alpha(k);
+		}
+		assertInstanceRecords(e);
+	}
+
+	@Test
+	public void testParticleStoreInstanceRecords() {
+		Emitter e = createEmitter(true);
+		ParticleStore store = e.getParticleStore();
+		int[] live = e.getRenderLive();
+		for (int k = 0; k < PARTICLES; k++) {
+			int i = live[k];
+			store.positionX[i] = positionX(k);
+			store.positionY[i] = positionY(k);
+			store.positionZ[i] = positionZ(k);
+			store.anglesZ[i] = rotation(k);
+			store.sizeX[i] = sizeX(k);
+			store.sizeY[i] = sizeY(k);
+			store.spriteCol[i] = spriteCol(k);
+			store.spriteRow[i] = spriteRow(k);
+			store.colorR[i] = colorR(k);
+			store.colorG[i] = colorG(k);
+			store.colorB[i] = colorB(k);
+			store.colorA[i] = 1;
+			store.alpha[i] = alpha(k);
+		}
+		assertInstanceRecords(e);
+	}
+
+	private Emitter createEmitter(boolean useParticleStore) {
+		Emitter e = HeadlessEmitters.create(ParticleDataInstancedMesh.class, useParticleStore, 16);
+		e.setParticlesFollowEmitter(true);
+		e.emitNumParticles(PARTICLES);
+		assertEquals(PARTICLES, e.getRenderLiveCount());
+		return e;
+	}
+
+	private void assertInstanceRecords(Emitter e) {
+		ViewPort vp = HeadlessEmitters.createViewPort();
+		e.render(null, vp);
+
+		ParticleDataInstancedMesh mesh = (ParticleDataInstancedMesh) ((Geometry) e.getParticleNode().getChild(0)).getMesh();
+		assertEquals(PARTICLES, mesh.getLiveInstanceCount());
+		assertEquals(PARTICLES, mesh.getInstanceCount());
+		assertTrue(mesh.getBuffer(VertexBuffer.Type.TexCoord2).isInstanced());
+		assertTrue(mesh.getBuffer(VertexBuffer.Type.TexCoord3).isInstanced());
+		assertTrue(mesh.getBuffer(VertexBuffer.Type.Color).isInstanced());
+
+		FloatBuffer transforms = (FloatBuffer) mesh.getBuffer(VertexBuffer.Type.TexCoord2).getData();
+		FloatBuffer sizes = (FloatBuffer) mesh.getBuffer(VertexBuffer.Type.TexCoord3).getData();
+		ByteBuffer colors = (ByteBuffer) mesh.getBuffer(VertexBuffer.Type.Color).getData();
+		assertEquals(PARTICLES*4, transforms.limit());
+		assertEquals(PARTICLES*4, sizes.limit());
+		assertEquals(PARTICLES*4, colors.limit());
+
+		for (int k = 0; k < PARTICLES; k++) {
+			assertEquals(positionX(k), transforms.get(k*4), EPSILON);
+			assertEquals(positionY(k), transforms.get(k*4+1), EPSILON);
+			assertEquals(positionZ(k), transforms.get(k*4+2), EPSILON);
+			assertEquals(rotation(k), transforms.get(k*4+3), EPSILON);
+
+			assertEquals(sizeX(k), sizes.get(k*4), EPSILON);
+			assertEquals(sizeY(k), sizes.get(k*4+1), EPSILON);
+			assertEquals(spriteCol(k), sizes.get(k*4+2), EPSILON);
+			assertEquals(spriteRow(k), sizes.get(k*4+3), EPSILON);
+
+			// RGBA bytes, alpha multiplied by the particle alpha
+			assertEquals(colorR(k)*255, colors.get(k*4) & 0xFF, 1);
+			assertEquals(colorG(k)*255, colors.get(k*4+1) & 0xFF, 1);
+			assertEquals(colorB(k)*255, colors.get(k*4+2) & 0xFF, 1);
+			assertEquals(alpha(k)*255, colors.get(k*4+3) & 0xFF, 1);
+		}
+	}
+
+	private static float positionX(int k) { return 1 + k; }
+	private static float positionY(int k) { return -2 - k*0.5f; }
+	private static float positionZ(int k) { return 3 + k*0.25f; }
+	private static float rotation(int k) { return 0.5f + k; }
+	private static float sizeX(int k) { return 0.25f + k; }
+	private static float sizeY(int k) { return 0.75f + k*2; }
+	private static int spriteCol(int k) { return k % 2; }
+	private static int spriteRow(int k) { return 1 - k % 2; }
+	private static float colorR(int k) { return 1f - k*0.25f; }
+	private static float colorG(int k) { return 0.5f; }
+	private static float colorB(int k) { return k*0.25f; }
+	private static float alpha(int k) { return 0.5f + k*0.2f; }
+}
@@ -0,0 +1,87 @@
+package emitter.particle;
+
+import com.jme3.material.Material;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.shape.Box;
+import emitter.Emitter;
+import emitter.HeadlessEmitters;
+import java.nio.FloatBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that ParticleDataTemplateMesh writes transformed normals once the emitter uses a
+ * lighting material, including when the material is applied after the emitter is initialized.
+ */
+public class ParticleDataTemplateMeshTest {
+	private static final int PARTICLES = 4;
+	private static final float FRAME = 1f/60f;
+	private static final float EPSILON = 1e-4f;
+
+	@Test
+	public void testLightingMaterialBeforeInitialize() {
+		Emitter e = createEmitter(true);
+		assertNormals(e);
+	}
+
+	@Test
+	public void testLightingMaterialAfterInitialize() {
+		Emitter e = createEmitter(false);
+		assertNull(getMesh(e).getBuffer(VertexBuffer.Type.Normal));
+		e.setMaterial(createLightingMaterial(), "DiffuseMap", true);
+		assertNormals(e);
+	}
+
+	private Emitter createEmitter(boolean lit) {
+		Box template = new Box(0.5f, 0.5f, 0.5f);
+		Emitter e = new Emitter();
+		e.setName("Template");
+		e.setMaxParticles(PARTICLES);
+		e.setShapeSimpleEmitter();
+		e.setParticleType(ParticleDataTemplateMesh.class, template);
+		e.setEmissionsPerSecond(0.001f);
+		e.setLife(100);
+		e.setForce(2f);
+		e.setSprite("Common/Textures/MissingTexture.png");
+		if (lit)
+			e.setMaterial(createLightingMaterial(), "DiffuseMap", true);
+		e.initialize(HeadlessEmitters.getAssetManager());
+		Node node = new Node("Template");
+		node.addControl(e);
+		e.setEnabled(true);
+		e.emitNumParticles(PARTICLES);
+		return e;
+	}
+
+	private Material createLightingMaterial() {
+		return new Material(HeadlessEmitters.getAssetManager(), "Common/MatDefs/Light/Lighting.j3md");
+	}
+
+	private ParticleDataTemplateMesh getMesh(Emitter e) {
+		return (ParticleDataTemplateMesh) ((Geometry) e.getParticleNode().getChild(0)).getMesh();
+	}
+
+	private void assertNormals(Emitter e) {
+		ViewPort vp = HeadlessEmitters.createViewPort();
+		for (int frame = 0; frame < 10; frame++)
+			HeadlessEmitters.frame(e, vp, FRAME);
+		assertEquals(PARTICLES, e.getRenderLiveCount());
+
+		int templateNormals = getMesh(e).getTemplateMesh().getBuffer(VertexBuffer.Type.Normal).getData().capacity();
+		VertexBuffer vb = getMesh(e).getBuffer(VertexBuffer.Type.Normal);
+		assertNotNull(vb);
+		FloatBuffer normals = (FloatBuffer) vb.getData();
+		assertEquals(templateNormals*PARTICLES, normals.limit());
+		// rotated template normals stay unit length
+		for (int v = 0; v < normals.limit(); v += 3) {
+			float x = normals.get(v), y = normals.get(v+1), z = normals.get(v+2);
+			assertEquals(1f, (float) Math.sqrt(x*x + y*y + z*z), EPSILON);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package emitter.particle;
+
+import com.jme3.math.Vector3f;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the depth sort order and holds the sort to its cost budget of well under a
+ * millisecond for 20k live particles.
+ */
+public class ParticleDepthSorterTest {
+	private static final int PARTICLES = 20000;
+	private static final long BUDGET_NANOS = 1000000;
+	private static final int WARMUP_SORTS = 2000;
+	private static final int TIMED_SORTS = 201;
+
+	private final Vector3f axis = new Vector3f(0.3f, 0.5f, -0.8f).normalizeLocal();
+	private final Random random = new Random(42);
+	private ParticleStore store;
+	private int[] live;
+
+	@Before
+	public void setUpParticles() {
+		store = new ParticleStore(null, PARTICLES);
+		live = new int[PARTICLES];
+		// even slots then odd ones, so the live list is not the identity
+		for (int k = 0; k < PARTICLES; k++)
+			live[k] = (k*2) % PARTICLES + (k*2) / PARTICLES;
+		for (int i = 0; i < PARTICLES; i++) {
+			store.positionX[i] = (random.nextFloat() - 0.5f)*50;
+			store.positionY[i] = (random.nextFloat() - 0.5f)*50;
+			store.positionZ[i] = (random.nextFloat() - 0.5f)*50;
+		}
+	}
+
+	@Test
+	public void testSortsBackToFront() {
+		ParticleDepthSorter sorter = new ParticleDepthSorter();
+		int[] order = sorter.sort(store, live, PARTICLES, axis, true);
+		float previous = Float.POSITIVE_INFINITY;
+		for (int k = 0; k < PARTICLES; k++) {
+			float depth = depth(order[k]);
+			assertTrue("Slot " + order[k] + " is in front of the one before it", depth <= previous);
+			previous = depth;
+		}
+		int[] sorted = Arrays.copyOf(order, PARTICLES);
+		int[] expected = Arrays.copyOf(live, PARTICLES);
+		Arrays.sort(sorted);
+		Arrays.sort(expected);
+		assertTrue("Each live slot is sorted once", Arrays.equals(expected, sorted));
+	}
+
+	@Test
+	public void testSortIsWithinBudget() {
+		ParticleDepthSorter sorter = new ParticleDepthSorter();
+		for (int s = 0; s < WARMUP_SORTS; s++) {
+			drift();
+			sorter.sort(store, live, PARTICLES, axis, true);
+		}
+		long[] nanos = new long[TIMED_SORTS];
+		for (int s = 0; s < TIMED_SORTS; s++) {
+			drift();
+			long start = System.nanoTime();
+			sorter.sort(store, live, PARTICLES, axis, true);
+			nanos[s] = System.nanoTime() - start;
+		}
+		// the median, so a stray pause on a shared machine does not fail the build
+		Arrays.sort(nanos);
+		long median = nanos[TIMED_SORTS/2];
+		assertTrue("Sorting " + PARTICLES + " particles took " + median/1000 + "us, budget "
+			+ BUDGET_NANOS/1000 + "us", median < BUDGET_NANOS);
+	}
+
+	/**
+	 * Moves every particle a little, as a frame of simulation would
+	 */
+	private void drift() {
+		for (int i = 0; i < PARTICLES; i++) {
+			store.positionX[i] += (random.nextFloat() - 0.5f)*0.05f;
+			store.positionY[i] += (random.nextFloat() - 0.5f)*0.05f;
+			store.positionZ[i] += (random.nextFloat() - 0.5f)*0.05f;
+		}
+	}
+
+	private float depth(int i) {
+		return axis.x*store.positionX[i] + axis.y*store.positionY[i] + axis.z*store.positionZ[i];
+	}
+}
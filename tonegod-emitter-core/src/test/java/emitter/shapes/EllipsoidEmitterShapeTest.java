@@ -0,0 +1,82 @@
+package emitter.shapes;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import emitter.Emitter;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that surface emission from an ellipsoid is uniform over its area.  Samples are
+ * counted in bands along the z axis of a spheroid and compared with the band areas.
+ */
+public class EllipsoidEmitterShapeTest {
+	private static final int SAMPLES = 200000;
+	private static final int BANDS = 8;
+	private static final float TOLERANCE = 0.005f;
+
+	@Test
+	public void testSphereSurfaceIsUniform() {
+		// a sphere gives every band of equal height the same area
+		assertBands(1, 1);
+	}
+
+	@Test
+	public void testProlateSpheroidSurfaceIsAreaUniform() {
+		assertBands(1, 4);
+	}
+
+	@Test
+	public void testOblateSpheroidSurfaceIsAreaUniform() {
+		assertBands(3, 0.5f);
+	}
+
+	/**
+	 * Samples the surface of a spheroid with equatorial radius a and polar radius c and
+	 * compares the share of points in each band of z with the share of the area
+	 */
+	private void assertBands(float a, float c) {
+		FastMath.rand.setSeed(7);
+		EllipsoidEmitterShape shape = new EllipsoidEmitterShape(new Vector3f(a, a, c), 1);
+		Emitter e = new Emitter();
+		e.setShape(shape);
+		e.emitNumParticles(0);
+
+		int[] counts = new int[BANDS];
+		Vector3f p = new Vector3f();
+		for (int i = 0; i < SAMPLES; i++) {
+			shape.setNext();
+			p.set(shape.getNextTranslation()).addLocal(shape.getRandomTranslation());
+			// the point is on the surface
+			float r = p.x*p.x/(a*a) + p.y*p.y/(a*a) + p.z*p.z/(c*c);
+			assertEquals(1, r, 1e-4f);
+			int band = (int)((p.z/c + 1)/2*BANDS);
+			counts[Math.min(Math.max(band, 0), BANDS-1)]++;
+		}
+
+		double[] areas = new double[BANDS];
+		double total = 0;
+		for (int b = 0; b < BANDS; b++) {
+			areas[b] = bandArea(a, c, -c + 2*c*b/BANDS, -c + 2*c*(b+1)/BANDS);
+			total += areas[b];
+		}
+		for (int b = 0; b < BANDS; b++)
+			assertEquals("Band " + b, areas[b]/total, (double)counts[b]/SAMPLES, TOLERANCE);
+	}
+
+	/**
+	 * Integrates the area of the spheroid between two heights, up to a constant factor.
+	 * The area element of a surface of revolution of radius rho(z) is
+	 * rho*sqrt(1 + rho'^2)dz = sqrt(a^2(1 - z^2/c^2) + a^4*z^2/c^4)dz.
+	 */
+	private double bandArea(double a, double c, double z0, double z1) {
+		int steps = 1000;
+		double h = (z1 - z0)/steps, sum = 0;
+		for (int i = 0; i < steps; i++) {
+			double z = z0 + (i + 0.5)*h;
+			sum += Math.sqrt(a*a*(1 - z*z/(c*c)) + a*a*a*a*z*z/(c*c*c*c));
+		}
+		return sum*h;
+	}
+}
@@ -61,6 +61,8 @@ public abstract class AbstractOGREParticleEmitter implements OGREParticleEmitter
 	protected transient PropertyChangeSupport changeSupport = new PropertyChangeSupport(this);
 	public final static Quaternion X_HALF_PI = new Quaternion(new float[] { FastMath.HALF_PI, 0, 0 });
 	private final static Logger LOG = Logger.getLogger(AbstractOGREParticleEmitter.class.getName());
+	// cull_each cells span this many particle widths, coarse enough to keep draw calls down
+	private final static float CULL_CELL_PARTICLES = 16;
 	private float repeatDelayMin = 0;
 	private float repeatDelayMax = 0;
 	private float durationMax = 0;
@@ -372,6 +374,26 @@ public abstract class AbstractOGREParticleEmitter implements OGREParticleEmitter
 			emitter.setParticleType(ParticleDataTriMesh.class);
 		}
 
+		// Fixed update rate
+		if (script.getIterationInterval() > 0) {
+			LOG.info(String.format("    Iteration Interval: %f", script.getIterationInterval()));
+			emitter.setTargetFPS(1f / script.getIterationInterval());
+			emitter.setUseFixedTimestep(true);
+		}
+
+		// Back to front ordering for translucent particles
+		if (script.isSorted()) {
+			LOG.info("    Sorted");
+			emitter.setUseDepthSorting(true);
+		}
+
+		// Cull particles in cells rather than the whole system
+		if (script.isCullEach()) {
+			float cellSize = Math.max(script.getParticleSize().x, script.getParticleSize().y) * CULL_CELL_PARTICLES;
+			LOG.info(String.format("    Cull Each: %f cells", cellSize));
+			emitter.setCullCellSize(cellSize);
+		}
+
 		// Only used for Oriented_Common and Perpendicul_Common
 		emitter.setCommonDirection(script.getCommonDirection());
 		emitter.setCommonUpVector(script.getCommonUpVector());
@@ -204,9 +204,6 @@ public class OGREParticleScript {
 	}
 
 	public void setCullEach(boolean cullEach) {
-		if (cullEach) {
-			LOG.info("TODO: this would cull individual particles instead of whole node. Not sure if JME can do this.");
-		}
 		this.cullEach = cullEach;
 	}
 
@@ -84,6 +84,20 @@ public class TimedEmitter extends Emitter {
 
 	@Override
 	public void emitNextParticle() {
+		if (checkEmit()) {
+			super.emitNextParticle();
+		}
+	}
+
+	@Override
+	public int emitBatch(int count) {
+		if (checkEmit()) {
+			return super.emitBatch(count);
+		}
+		return 0;
+	}
+
+	private boolean checkEmit() {
 		long now = System.currentTimeMillis();
 		if (!emit && now > repeatAt) {
 			// Now it's time to repeat
@@ -101,9 +115,7 @@ public class TimedEmitter extends Emitter {
 			// Calculate first expire
 			calcNewExpire(now);
 		}
-		if (emit) {
-			super.emitNextParticle();
-		}
+		return emit;
 	}
 
 	private void calcNewExpire(long now) {
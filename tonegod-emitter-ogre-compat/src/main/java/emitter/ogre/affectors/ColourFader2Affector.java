@@ -88,7 +88,6 @@ public class ColourFader2Affector extends AbstractOGREParticleAffector {
 
 	@Override
 	public void reset(ParticleData p) {
-		p.setData("aliveTime", 0f);
 	}
 
     @Property(label = "Adjustment 1", weight = 10, hint = Hint.RGBA)
@@ -101,14 +101,10 @@ public class ColourInterpolatorAffector extends AbstractOGREParticleAffector {
 
 	@Override
 	public void initialize(ParticleData p) {
-		p.setData("totalTimeToLive", 0);
-		p.setData("timeToLive", 0);
 	}
 
 	@Override
 	public void reset(ParticleData p) {
-		p.setData("totalTimeToLive", 0);
-		p.setData("timeToLive", 0);
 	}
 
 	@Override
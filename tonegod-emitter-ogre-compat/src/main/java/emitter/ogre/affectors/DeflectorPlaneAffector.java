@@ -60,6 +60,10 @@ public class DeflectorPlaneAffector extends AbstractOGREParticleAffector {
 	private boolean enabled = true;
 	private Vector3f planePoint = new Vector3f(0, 0, 0);
 	private Vector3f planeNormal = new Vector3f(0, 1, 0);
+	private Vector3f direction = new Vector3f();
+	private Vector3f directionPart = new Vector3f();
+	private Vector3f absPos = new Vector3f();
+	private Vector3f tempV3 = new Vector3f();
 	private float bounce = 1f;
 
 	public DeflectorPlaneAffector(OGREParticleScript script) {
@@ -69,17 +73,17 @@ public class DeflectorPlaneAffector extends AbstractOGREParticleAffector {
 	@Override
 	public void update(ParticleData p, float tpf) {
 		float planeDistance = -planeNormal.dot(planePoint) / FastMath.sqrt(planeNormal.dot(planeNormal));
-		Vector3f direction = p.velocity.mult(tpf);
-		final Vector3f absPos = p.position.clone();
+		direction.set(p.velocity).multLocal(tpf);
+		absPos.set(p.position);
 		absPos.addLocal(p.initialPosition);
-		float pp = planeNormal.dot(absPos.add(direction));
+		float pp = planeNormal.dot(tempV3.set(absPos).addLocal(direction));
 		if (pp + planeDistance <= 0f) {
 			float a = planeNormal.dot(absPos) + planeDistance;
 			if (a > 0) {
-				Vector3f directionPart = direction.mult(-a / direction.dot(planeNormal));
-				absPos.set(absPos.add(directionPart).addLocal(directionPart.subtract(direction).multLocal(bounce)));
-				p.velocity.set(
-						p.velocity.subtract(planeNormal.mult(p.velocity.dot(planeNormal)).mult(2f)).multLocal(bounce));
+				directionPart.set(direction).multLocal(-a / direction.dot(planeNormal));
+				absPos.addLocal(directionPart).addLocal(tempV3.set(directionPart).subtractLocal(direction).multLocal(bounce));
+				p.velocity.subtractLocal(tempV3.set(planeNormal).multLocal(p.velocity.dot(planeNormal)).multLocal(2f))
+						.multLocal(bounce);
 				absPos.subtractLocal(p.initialPosition);
 				p.position.set(absPos);
 			}
@@ -81,10 +81,10 @@ public class LinearForceAffector extends AbstractOGREParticleAffector {
 		if (enabled) {
 			switch (application) {
 			case ADD:
-				p.velocity.addLocal(force.mult(tpf));
+				p.velocity.addLocal(force.x * tpf, force.y * tpf, force.z * tpf);
 				break;
 			case AVERAGE:
-				p.velocity.set(p.velocity.add(force).divideLocal(2f));
+				p.velocity.addLocal(force).divideLocal(2f);
 				break;
 			}
 		}
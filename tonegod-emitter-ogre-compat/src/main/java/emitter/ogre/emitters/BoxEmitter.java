@@ -32,10 +32,9 @@ package emitter.ogre.emitters;
 
 import java.util.logging.Logger;
 
-import com.jme3.scene.shape.Box;
-
 import emitter.Emitter;
 import emitter.ogre.OGREParticleScript;
+import emitter.shapes.BoxEmitterShape;
 
 public class BoxEmitter extends Abstract3DEmitter {
 
@@ -47,9 +46,9 @@ public class BoxEmitter extends Abstract3DEmitter {
 
 	@Override
 	protected void createEmitterShape(Emitter emitter) {
-		LOG.info("    Tri Mesh");
+		LOG.info("    Analytic Box");
 		emitter.setUseRandomEmissionPoint(true);
-		emitter.setShape(new Box(0.5f, 0.5f, 0.5f));
+		emitter.setShape(new BoxEmitterShape(0.5f, 0.5f, 0.5f));
 		emitter.setLocalScale(size);
 		LOG.info(String.format("    Box emitter shape of %f x %f x %f", size.x, size.y, size.z));
 	}
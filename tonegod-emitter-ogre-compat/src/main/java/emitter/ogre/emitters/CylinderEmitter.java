@@ -32,11 +32,10 @@ package emitter.ogre.emitters;
 
 import java.util.logging.Logger;
 
-import com.jme3.scene.shape.Cylinder;
-
 import emitter.Emitter;
 import emitter.ogre.OGREParticleScript;
 import emitter.particle.ParticleDataTriMesh;
+import emitter.shapes.CylinderEmitterShape;
 
 public class CylinderEmitter extends Abstract3DEmitter {
 
@@ -48,12 +47,11 @@ public class CylinderEmitter extends Abstract3DEmitter {
 
 	@Override
 	protected void createEmitterShape(Emitter emitter) {
-		LOG.info("    Tri Mesh");
+		LOG.info("    Analytic Cylinder");
 		emitter.setParticleType(ParticleDataTriMesh.class);
-		Cylinder boxTestES = new Cylinder(8, 16, 0.5f, 0.5f, 0.5f, true, false);
-		emitter.setShape(boxTestES);
+		emitter.setShape(new CylinderEmitterShape(0.5f, 1f));
 		emitter.setUseRandomEmissionPoint(true);
-		emitter.setLocalScale(size.x, size.y, Math.max(0.1f, size.z));
+		emitter.setLocalScale(size.x, size.y, size.z);
 		LOG.info(String.format("    Cyclinder emitter shape of %f x %f x %f", size.x, size.y, size.z));
 	}
 }
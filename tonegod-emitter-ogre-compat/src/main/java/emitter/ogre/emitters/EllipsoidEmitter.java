@@ -32,10 +32,9 @@ package emitter.ogre.emitters;
 
 import java.util.logging.Logger;
 
-import com.jme3.scene.shape.Sphere;
-
 import emitter.Emitter;
 import emitter.ogre.OGREParticleScript;
+import emitter.shapes.EllipsoidEmitterShape;
 
 public class EllipsoidEmitter extends Abstract3DEmitter {
 
@@ -47,11 +46,10 @@ public class EllipsoidEmitter extends Abstract3DEmitter {
 
 	@Override
 	protected void createEmitterShape(Emitter emitter) {
-		LOG.info("    Tri Mesh");
+		LOG.info("    Analytic Ellipsoid");
 		emitter.setUseRandomEmissionPoint(true);
-		Sphere sphere = new Sphere(32, 32, 0.5f, false, false);
 		LOG.info(String.format("    Ellipsoid emitter shape of %f x %f x %f", size.x, size.y, size.z));
-		emitter.setShape(sphere);
+		emitter.setShape(new EllipsoidEmitterShape(0.5f));
 		emitter.setLocalScale(size.x, size.y, size.z);
 	}
 }
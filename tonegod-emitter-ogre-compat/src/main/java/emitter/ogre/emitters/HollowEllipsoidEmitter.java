@@ -38,10 +38,10 @@ import org.icebeans.FloatRange;
 import org.icebeans.Property;
 
 import com.jme3.math.Vector3f;
-import com.jme3.scene.shape.Torus;
 
 import emitter.Emitter;
 import emitter.ogre.OGREParticleScript;
+import emitter.shapes.EllipsoidEmitterShape;
 
 public class HollowEllipsoidEmitter extends Abstract3DEmitter {
 
@@ -95,14 +95,15 @@ public class HollowEllipsoidEmitter extends Abstract3DEmitter {
 
 	@Override
 	protected void createEmitterShape(Emitter emitter) {
-		LOG.info("    Tri Mesh");
+		LOG.info("    Analytic Ellipsoid Shell");
 		emitter.setUseRandomEmissionPoint(true);
 
-		float fac = innerSize == null ? 0.25f : innerSize.x / size.x / 2f;
-
-		Torus torus = new Torus(32, 32, fac, 0.5f);
+		// OGRE inner sizes are fractions of the outer size
+		float inner = innerSize == null ? 0.5f : innerSize.x;
+		if (innerSize != null && (innerSize.y != inner || innerSize.z != inner))
+			LOG.warning("Only inner_width is used, the hollow keeps the ellipsoid's proportions");
 		LOG.info(String.format("    Hollow Ellipsoid emitter shape of %f x %f x %f", size.x, size.y, size.z));
-		emitter.setShape(torus);
+		emitter.setShape(new EllipsoidEmitterShape(new Vector3f(0.5f, 0.5f, 0.5f), inner));
 		emitter.setLocalScale(size);
 	}
 
@@ -37,6 +37,7 @@ import java.util.logging.Logger;
 import emitter.Emitter;
 import emitter.ogre.AbstractOGREParticleEmitter;
 import emitter.ogre.OGREParticleScript;
+import emitter.shapes.PointEmitterShape;
 
 public class PointEmitter extends AbstractOGREParticleEmitter {
 
@@ -49,8 +50,8 @@ public class PointEmitter extends AbstractOGREParticleEmitter {
 	@Override
 	protected void createEmitterShape(Emitter emitter) {
 		// http://www.ogre3d.org/docs/manual/manual_35.html#particle_005fpoint_005frendering
-		LOG.info("    Point Mesh");
-		emitter.setShapeSimpleEmitter();
+		LOG.info("    Analytic Point");
+		emitter.setShape(new PointEmitterShape());
 		emitter.setUseRandomEmissionPoint(false);
 		emitter.setLocalScale(1.0f, 1.0f, 1.0f);
 		LOG.info("    Point emitter shape");
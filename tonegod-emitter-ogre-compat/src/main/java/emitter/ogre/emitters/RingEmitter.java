@@ -37,10 +37,10 @@ import java.util.logging.Logger;
 import org.icebeans.Property;
 
 import com.jme3.math.Vector2f;
-import com.jme3.scene.shape.Torus;
 
 import emitter.Emitter;
 import emitter.ogre.OGREParticleScript;
+import emitter.shapes.RingEmitterShape;
 
 public class RingEmitter extends Abstract3DEmitter {
 
@@ -87,13 +87,13 @@ public class RingEmitter extends Abstract3DEmitter {
 	@Override
 	protected void createEmitterShape(Emitter emitter) {
 		emitter.setUseRandomEmissionPoint(true);
-		Torus ring = new Torus(64, 2, ((1f - innerSize.x) * size.x) / 2f, size.y / 2f);
 		LOG.info(String.format("    Ring emitter shape of %f x %f x - %f x %f", size.x, size.y, innerSize.x,
 				innerSize.y));
-		LOG.warning("TODO: Only ring width/inner_width is used");
-		LOG.warning("TODO: Not convinced it's actually emitting in a ring shape");
-		emitter.setShape(ring);
-		emitter.setLocalScale(1.0f, 1.0f, 1.0f);
+		if (innerSize.y != innerSize.x)
+			LOG.warning("Only inner_width is used, the hollow keeps the ring's proportions");
+		// OGRE inner sizes are fractions of the outer size
+		emitter.setShape(new RingEmitterShape(0.5f, 0.5f * innerSize.x));
+		emitter.setLocalScale(size.x, size.y, 1.0f);
 	}
 
 	@Override
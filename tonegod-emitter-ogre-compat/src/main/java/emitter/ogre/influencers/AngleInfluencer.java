@@ -36,8 +36,9 @@ import com.jme3.export.JmeExporter;
 import com.jme3.export.JmeImporter;
 import com.jme3.export.OutputCapsule;
 import com.jme3.math.FastMath;
-import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
 
+import emitter.UniformDirections;
 import emitter.influencers.ParticleInfluencer;
 import emitter.particle.ParticleData;
 
@@ -50,6 +51,7 @@ public class AngleInfluencer implements ParticleInfluencer {
 
 	private boolean enabled = true;
 	private float angle;
+	private Vector3f axis = new Vector3f();
 
 	public AngleInfluencer(float angle) {
 		this.angle = angle;
@@ -62,9 +64,12 @@ public class AngleInfluencer implements ParticleInfluencer {
 
 	@Override
 	public void initialize(ParticleData p) {
-		Quaternion deviateQuat = new Quaternion(new float[] { (FastMath.rand.nextFloat() * angle * 2) - angle,
-				(FastMath.rand.nextFloat() * angle * 2) - angle, (FastMath.rand.nextFloat() * angle * 2) - angle });
-		p.velocity.set(deviateQuat.mult(p.velocity));
+		// deviate uniformly within a cone of the angle around the initial direction
+		float speed = p.velocity.length();
+		if (speed == 0)
+			return;
+		axis.set(p.velocity).divideLocal(speed);
+		UniformDirections.cone(axis, FastMath.cos(Math.min(angle, FastMath.PI)), p.velocity).multLocal(speed);
 
 		// Quaternion dirQuat = new Quaternion();
 		// dirQuat.lookAt(direction, upVector);
@@ -98,6 +103,7 @@ public class AngleInfluencer implements ParticleInfluencer {
 		try {
 			AngleInfluencer clone = (AngleInfluencer) super.clone();
 			clone.angle = angle;
+			clone.axis = new Vector3f();
 			clone.setEnabled(enabled);
 			return clone;
 		} catch (CloneNotSupportedException e) {